@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.gedge.manatee.MessageDeliverySystem;
+import ca.gedge.manatee.MessageDescriptor;
+import ca.gedge.manatee.MessageReceiver;
+
+/**
+ * Measures sends made by several threads at once through a shared system,
+ * with and without receivers being registered concurrently.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ContendedSendBenchmark {
+	@Param({"10", "1000"})
+	int receivers;
+
+	private MessageDeliverySystem system;
+	private BenchmarkSender sender;
+	private MessageDescriptor descriptor;
+	private final Integer value = 1;
+
+	/** Receivers are held weakly by the system, so they are kept here */
+	private final List<MessageReceiver> instances = new ArrayList<MessageReceiver>();
+
+	@Setup
+	public void setup() {
+		system = new MessageDeliverySystem();
+		sender = new BenchmarkSender();
+		for(int index = 0; index < receivers; ++index) {
+			final MessageReceiver receiver = new DirectReceiver();
+			instances.add(receiver);
+			system.addReceiver(receiver);
+		}
+		descriptor = system.getMessage(BenchmarkSender.class, BenchmarkSender.VALUE);
+	}
+
+	/**
+	 * A receiver registered and unregistered by a single thread.
+	 */
+	@State(Scope.Thread)
+	public static class Churn {
+		final DirectReceiver receiver = new DirectReceiver();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void send() {
+		system.sendMessage(sender, descriptor, value);
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(3)
+	public void sendWhileRegistering() {
+		system.sendMessage(sender, descriptor, value);
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(1)
+	public boolean register(Churn churn) {
+		system.addReceiver(churn.receiver);
+		return system.removeReceiver(churn.receiver);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.gedge.manatee.MessageDeliverySystem;
+import ca.gedge.manatee.MessageDescriptor;
+import ca.gedge.manatee.MessageReceiver;
+
+/**
+ * Measures the cost of a send when only some of the registered receivers
+ * are subscribed to the message. Ideally, the cost only depends on the
+ * number of subscribed receivers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DensityBenchmark {
+	@Param({"10000"})
+	int receivers;
+
+	/** The fraction of receivers subscribed to the message being sent */
+	@Param({"0.001", "0.01", "0.1", "1.0"})
+	double density;
+
+	private MessageDeliverySystem system;
+	private BenchmarkSender sender;
+	private MessageDescriptor descriptor;
+	private final Integer value = 1;
+
+	/** Receivers are held weakly by the system, so they are kept here */
+	private final List<MessageReceiver> instances = new ArrayList<MessageReceiver>();
+
+	@Setup
+	public void setup() {
+		system = new MessageDeliverySystem();
+		sender = new BenchmarkSender();
+
+		// Spread subscribed receivers evenly among the idle ones
+		final int subscribed = Math.max(1, (int)(receivers * density));
+		for(int index = 0; index < receivers; ++index) {
+			final boolean subscribes = ((long)index * subscribed / receivers != (long)(index + 1) * subscribed / receivers);
+			final MessageReceiver receiver = (subscribes ? new DirectReceiver() : new IdleReceiver());
+			instances.add(receiver);
+			system.addReceiver(receiver);
+		}
+		descriptor = system.getMessage(BenchmarkSender.class, BenchmarkSender.VALUE);
+	}
+
+	@Benchmark
+	public void send() {
+		system.sendMessage(sender, descriptor, value);
+	}
+}
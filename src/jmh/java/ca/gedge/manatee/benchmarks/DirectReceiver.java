@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.benchmarks;
+
+import ca.gedge.manatee.MessageReceiver;
+import ca.gedge.manatee.ReceiverMethod;
+
+/**
+ * Receives {@link BenchmarkSender#VALUE} and {@link BenchmarkSender#COUNT}
+ * through methods with a fixed signature.
+ */
+public class DirectReceiver implements MessageReceiver {
+	int count;
+
+	@ReceiverMethod(senderClass=BenchmarkSender.class, message=BenchmarkSender.VALUE)
+	public void value(Integer value) {
+		count += value;
+	}
+
+	@ReceiverMethod(senderClass=BenchmarkSender.class, message=BenchmarkSender.COUNT)
+	public void count(int value) {
+		count += value;
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.gedge.manatee.MessageDeliverySystem;
+import ca.gedge.manatee.MessageReceiver;
+
+/**
+ * Measures registering receiver classes and adding and removing receivers.
+ * Messages are sent during setup, so that adding or removing a receiver
+ * includes patching the dispatch tables built by those sends.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistrationBenchmark {
+	@Param({"10", "1000", "10000"})
+	int receivers;
+
+	private MessageDeliverySystem system;
+	private final DirectReceiver churned = new DirectReceiver();
+	private final IdleReceiver idle = new IdleReceiver();
+
+	/** Receivers are held weakly by the system, so they are kept here */
+	private final List<MessageReceiver> instances = new ArrayList<MessageReceiver>();
+
+	@Setup
+	public void setup() {
+		system = new MessageDeliverySystem();
+		for(int index = 0; index < receivers; ++index) {
+			final MessageReceiver receiver = (index % 2 == 0 ? new DirectReceiver() : new IdleReceiver());
+			instances.add(receiver);
+			system.addReceiver(receiver);
+		}
+
+		final BenchmarkSender sender = new BenchmarkSender();
+		system.sendMessage(sender, BenchmarkSender.VALUE, 1);
+		system.sendMessage(sender, BenchmarkSender.OTHER, 1);
+	}
+
+	@Benchmark
+	public boolean addRemoveReceiver() {
+		system.addReceiver(churned);
+		return system.removeReceiver(churned);
+	}
+
+	@Benchmark
+	public boolean addRemoveIdleReceiver() {
+		system.addReceiver(idle);
+		return system.removeReceiver(idle);
+	}
+
+	@Benchmark
+	public MessageDeliverySystem registerReceiver() {
+		final MessageDeliverySystem fresh = new MessageDeliverySystem();
+		fresh.registerReceiver(DirectReceiver.class);
+		fresh.registerReceiver(CatchallReceiver.class);
+		return fresh;
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.gedge.manatee.MessageDeliverySystem;
+import ca.gedge.manatee.MessageDescriptor;
+import ca.gedge.manatee.MessageKey;
+import ca.gedge.manatee.MessageReceiver;
+
+/**
+ * Measures the cost of a send as the number of receivers grows, for each
+ * kind of receiving method, and for each way of passing the arguments.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+	/** The kinds of receiving methods */
+	public enum Kind {
+		DIRECT, VARARGS, CATCHALL
+	}
+
+	private static final MessageKey.Of1<Integer> VALUE = MessageKey.of(BenchmarkSender.class, BenchmarkSender.VALUE, Integer.class);
+
+	@Param({"1", "10", "100", "1000", "10000"})
+	int receivers;
+
+	@Param({"DIRECT", "VARARGS", "CATCHALL"})
+	Kind kind;
+
+	private MessageDeliverySystem system;
+	private BenchmarkSender sender;
+	private MessageDescriptor descriptor;
+	private MessageDescriptor countDescriptor;
+	private final Integer value = 1;
+	private final Object[] values = { value };
+
+	/** Receivers are held weakly by the system, so they are kept here */
+	private final List<MessageReceiver> instances = new ArrayList<MessageReceiver>();
+
+	@Setup
+	public void setup() {
+		system = new MessageDeliverySystem();
+		sender = new BenchmarkSender();
+		for(int index = 0; index < receivers; ++index) {
+			final MessageReceiver receiver;
+			switch(kind) {
+			case VARARGS:  receiver = new VarArgsReceiver(); break;
+			case CATCHALL: receiver = new CatchallReceiver(); break;
+			default:       receiver = new DirectReceiver(); break;
+			}
+			instances.add(receiver);
+			system.addReceiver(receiver);
+		}
+		descriptor = system.getMessage(BenchmarkSender.class, BenchmarkSender.VALUE);
+		countDescriptor = system.getMessage(BenchmarkSender.class, BenchmarkSender.COUNT);
+	}
+
+	@Benchmark
+	public void sendByName() {
+		system.sendMessage(sender, BenchmarkSender.VALUE, value);
+	}
+
+	@Benchmark
+	public void sendByDescriptor() {
+		system.sendMessage(sender, descriptor, value);
+	}
+
+	@Benchmark
+	public void sendByKey() {
+		system.sendMessage(sender, VALUE, value);
+	}
+
+	@Benchmark
+	public void sendArray() {
+		system.sendMessage(sender, descriptor, values);
+	}
+
+	@Benchmark
+	public void sendInt() {
+		system.sendMessage(sender, countDescriptor, 1);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.benchmarks;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.gedge.manatee.util.WeakList;
+import ca.gedge.manatee.util.WeakRegistry;
+
+/**
+ * Measures iterating the weak collections when some of their elements have
+ * been garbage collected. A {@link WeakList} removes collected references
+ * as it is traversed, so only its first traversal after a collection is
+ * affected; that traversal is measured on its own by {@link #purgeWeakList()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WeakCollectionBenchmark {
+	@Param({"1000"})
+	int size;
+
+	/** The fraction of elements that are garbage collected */
+	@Param({"0.0", "0.5", "0.9"})
+	double collected;
+
+	private WeakList<Object> list;
+	private WeakRegistry<Object> registry;
+
+	/** The elements that are not collected */
+	private final List<Object> kept = new ArrayList<Object>();
+
+	@Setup(Level.Iteration)
+	public void setup() throws InterruptedException {
+		kept.clear();
+		list = new WeakList<Object>();
+		registry = new WeakRegistry<Object>();
+
+		final int collectedCount = (int)(size * collected);
+		Object last = null;
+		for(int index = 0; index < size; ++index) {
+			final Object element = new Object();
+			list.add(element);
+			registry.add(element);
+			if(index < size - collectedCount)
+				kept.add(element);
+			else
+				last = element;
+		}
+
+		// Wait for the dropped elements to actually be collected
+		if(last != null) {
+			final WeakReference<Object> ref = new WeakReference<Object>(last);
+			last = null;
+			while(ref.get() != null) {
+				System.gc();
+				Thread.sleep(10);
+			}
+		}
+	}
+
+	@Benchmark
+	public int iterateWeakList() {
+		int hash = 0;
+		for(Object element : list)
+			hash += (element == null ? 0 : element.hashCode());
+		return hash;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Measurement(iterations = 20)
+	public int purgeWeakList() {
+		return iterateWeakList();
+	}
+
+	@Benchmark
+	public int iterateWeakRegistry() {
+		int hash = 0;
+		for(Object element : registry)
+			hash += element.hashCode();
+		return hash;
+	}
+}
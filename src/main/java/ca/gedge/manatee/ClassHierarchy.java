@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Flattened views of the class hierarchies of senders and receivers. Each
+ * view is computed once per class, the first time it is needed, and kept
+ * in a {@link ClassValue} so that later lookups are a single fetch.
+ */
+final class ClassHierarchy {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(ClassHierarchy.class.getName());
+
+	/**
+	 * The classes and interfaces whose messages a class sends: the class
+	 * itself, its superclasses, and the interfaces extending {@link MessageSender}
+	 * they implement, nearest first.
+	 */
+	private static final ClassValue<Class<?>[]> SENDER_CLASSES = new ClassValue<Class<?>[]>() {
+		@Override
+		protected Class<?>[] computeValue(Class<?> type) {
+			final Set<Class<?>> classes = new LinkedHashSet<Class<?>>();
+			for(Class<?> current = type; current != null; current = current.getSuperclass()) {
+				if(MessageSender.class.isAssignableFrom(current))
+					classes.add(current);
+				addSenderInterfaces(classes, current);
+			}
+			return classes.toArray(new Class<?>[classes.size()]);
+		}
+	};
+
+	/**
+	 * Invokers for the receiving methods of a class, including inherited
+	 * ones, nearest first. Each is created for the class declaring the
+	 * method, and only serves as a template for the receiving class.
+	 */
+	private static final ClassValue<List<ReceiverInvoker.InheritableInvoker>> RECEIVING_METHODS = new ClassValue<List<ReceiverInvoker.InheritableInvoker>>() {
+		@Override
+		protected List<ReceiverInvoker.InheritableInvoker> computeValue(Class<?> type) {
+			final List<ReceiverInvoker.InheritableInvoker> invokers = new ArrayList<ReceiverInvoker.InheritableInvoker>();
+			final Set<String> overridden = new HashSet<String>();
+			for(Class<?> current = type; current != null && MessageReceiver.class.isAssignableFrom(current); current = current.getSuperclass()) {
+				// Annotating an override replaces the annotations of the
+				// method it overrides. Overrides without annotations keep
+				// receiving what the overridden method did, since receiving
+				// methods are called virtually.
+				final Set<String> declared = new HashSet<String>();
+				for(ReceiverInvoker.InheritableInvoker invoker : getDeclaredInvokers(current.asSubclass(MessageReceiver.class))) {
+					final String signature = invoker.getMethodName() + Arrays.toString(invoker.getParameterTypes());
+					if(!overridden.contains(signature))
+						invokers.add(invoker);
+					declared.add(signature);
+				}
+				overridden.addAll(declared);
+			}
+			return Collections.unmodifiableList(invokers);
+		}
+	};
+
+	private ClassHierarchy() {
+	}
+
+	/**
+	 * Gets the classes and interfaces whose messages a class sends, nearest
+	 * first. The returned array is shared, and must not be modified.
+	 * 
+	 * @param senderClass  the class of a sender
+	 * 
+	 * @return the class itself, if it is a {@link MessageSender}, followed by
+	 *         its sending superclasses and interfaces
+	 */
+	static Class<?>[] getSenderClasses(Class<?> senderClass) {
+		return SENDER_CLASSES.get(senderClass);
+	}
+
+	/**
+	 * Creates invokers for the receiving methods of a class, including those
+	 * it inherits. The invokers are new, so that each delivery system keeps
+	 * its own state for them.
+	 * 
+	 * @param receiverClass  the receiving class
+	 * 
+	 * @return the invokers, for the instances of the class
+	 */
+	static List<ReceiverInvoker> getReceivingMethods(Class<? extends MessageReceiver> receiverClass) {
+		final List<ReceiverInvoker.InheritableInvoker> templates = RECEIVING_METHODS.get(receiverClass);
+		final List<ReceiverInvoker> invokers = new ArrayList<ReceiverInvoker>(templates.size());
+		for(ReceiverInvoker.InheritableInvoker template : templates)
+			invokers.add(template.copyFor(receiverClass));
+		return invokers;
+	}
+
+	/**
+	 * Adds the interfaces extending {@link MessageSender} that a class
+	 * implements, directly or not.
+	 * 
+	 * @param classes  the set to add the interfaces to
+	 * @param type     the class
+	 */
+	private static void addSenderInterfaces(Set<Class<?>> classes, Class<?> type) {
+		for(Class<?> iface : type.getInterfaces()) {
+			if(iface != MessageSender.class && MessageSender.class.isAssignableFrom(iface) && classes.add(iface))
+				addSenderInterfaces(classes, iface);
+		}
+	}
+
+	/**
+	 * Creates invokers for the receiving methods declared by a class. If a
+	 * {@link GeneratedDispatcher} exists for the class, its receiving methods
+	 * are taken from the dispatcher instead of through reflection.
+	 * 
+	 * @param receiverClass  the receiving class
+	 * 
+	 * @return the invokers
+	 */
+	private static List<ReceiverInvoker.InheritableInvoker> getDeclaredInvokers(Class<? extends MessageReceiver> receiverClass) {
+		final GeneratedDispatcher dispatcher = DispatcherIndex.find(receiverClass);
+		if(dispatcher != null)
+			return dispatcher.getInvokers();
+
+		final List<ReceiverInvoker.InheritableInvoker> invokers = new ArrayList<ReceiverInvoker.InheritableInvoker>();
+		for(Method method : receiverClass.getDeclaredMethods()) {
+			if(method.isBridge())
+				continue;
+
+			if(method.isAnnotationPresent(ReceiverMethod.class))
+				addInvoker(invokers, method, method.getAnnotation(ReceiverMethod.class));
+
+			if(method.isAnnotationPresent(ReceiverMethods.class)) {
+				for(ReceiverMethod annotation : method.getAnnotation(ReceiverMethods.class).messages())
+					addInvoker(invokers, method, annotation);
+			}
+		}
+		return invokers;
+	}
+
+	/**
+	 * Creates an invoker for a receiving method found through reflection.
+	 * 
+	 * @param invokers    the list to add the invoker to
+	 * @param method      the receiving method
+	 * @param annotation  the annotation describing the receiving method
+	 */
+	private static void addInvoker(List<ReceiverInvoker.InheritableInvoker> invokers, Method method, ReceiverMethod annotation) {
+		try {
+			invokers.add(ReceiverInvoker.forMethod(method, annotation));
+		} catch(IllegalAccessException exc) {
+			LOGGER.log(Level.WARNING, "No access to " + method.getDeclaringClass().getName() + " : " + method.getName(), exc);
+		} catch(IllegalArgumentException exc) {
+			LOGGER.log(Level.WARNING, exc.getMessage(), exc);
+		}
+	}
+}
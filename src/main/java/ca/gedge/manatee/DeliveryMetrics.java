@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import ca.gedge.manatee.util.LatencyHistogram;
+import ca.gedge.manatee.util.StripedCounter;
+
+/**
+ * Metrics of the messages delivered by a {@link MessageDeliverySystem}. The
+ * metrics of each message, and the latencies of each receiving method, are
+ * registered as MXBeans as they are first recorded. Recording is lock-free
+ * once that is done.
+ */
+final class DeliveryMetrics {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(DeliveryMetrics.class.getName());
+
+	/** The domain of the MXBean names */
+	static final String DOMAIN = "ca.gedge.manatee";
+
+	/** The name of the system, as it appears in MXBean names */
+	private final String systemName;
+
+	/** The server MXBeans are registered with, or <code>null</code> */
+	private final MBeanServer server;
+
+	/**
+	 * Message metrics, indexed by message identifier. Never modified once
+	 * published; changes are made to a copy while holding this object's lock.
+	 */
+	private volatile MessageMetrics[] messages = new MessageMetrics[0];
+
+	/** Names of the registered MXBeans. Only accessed while holding this object's lock. */
+	private final List<ObjectName> names = new ArrayList<ObjectName>();
+
+	/**
+	 * Constructs metrics for a system.
+	 * 
+	 * @param systemName  the name of the system
+	 * @param server      the server to register MXBeans with, or
+	 *                    <code>null</code> to not register any
+	 */
+	DeliveryMetrics(String systemName, MBeanServer server) {
+		this.systemName = systemName;
+		this.server = server;
+	}
+
+	/**
+	 * Records sends of a message.
+	 * 
+	 * @param msg    the message
+	 * @param count  the number of times the message was sent
+	 */
+	void sent(MessageDescriptor msg, int count) {
+		getMessage(msg).sends.add(count);
+	}
+
+	/**
+	 * Records a call to a receiving method that returned normally.
+	 * 
+	 * @param msg      the message
+	 * @param invoker  the invoker for the receiving method
+	 * @param count    the number of messages delivered by the call
+	 * @param nanos    the time the call took, in nanoseconds
+	 */
+	void delivered(MessageDescriptor msg, ReceiverInvoker invoker, int count, long nanos) {
+		final MessageMetrics metrics = getMessage(msg);
+		metrics.deliveries.add(count);
+		metrics.getReceiver(invoker).latencies.record(nanos);
+	}
+
+	/**
+	 * Records a call to a receiving method that could not be made, or threw
+	 * an exception.
+	 * 
+	 * @param msg      the message
+	 * @param invoker  the invoker for the receiving method
+	 * @param count    the number of messages the call would have delivered
+	 */
+	void failed(MessageDescriptor msg, ReceiverInvoker invoker, int count) {
+		getMessage(msg).failures.add(count);
+	}
+
+	/**
+	 * Gets the metrics of a message, creating them if necessary.
+	 * 
+	 * @param msg  the message
+	 * 
+	 * @return the metrics
+	 */
+	MessageMetrics getMessage(MessageDescriptor msg) {
+		final MessageMetrics[] current = messages;
+		final int id = msg.getId();
+		if(id < current.length && current[id] != null)
+			return current[id];
+		return createMessage(msg);
+	}
+
+	/**
+	 * Creates the metrics of a message, unless another thread has already
+	 * done so.
+	 */
+	private synchronized MessageMetrics createMessage(MessageDescriptor msg) {
+		final int id = msg.getId();
+		if(id < messages.length && messages[id] != null)
+			return messages[id];
+
+		final MessageMetrics metrics = new MessageMetrics(msg);
+		register(metrics, "type=Message,system=" + ObjectName.quote(systemName)
+		                  + ",sender=" + ObjectName.quote(msg.getSenderClass().getName())
+		                  + ",message=" + ObjectName.quote(msg.getName()));
+
+		final MessageMetrics[] updated = Arrays.copyOf(messages, Math.max(id + 1, messages.length));
+		updated[id] = metrics;
+		messages = updated;
+		return metrics;
+	}
+
+	/**
+	 * Unregisters all MXBeans. Metrics recorded afterwards are kept, but not
+	 * exposed.
+	 */
+	synchronized void close() {
+		for(ObjectName name : names) {
+			try {
+				server.unregisterMBean(name);
+			} catch(JMException exc) {
+				LOGGER.log(Level.FINE, "Unable to unregister " + name, exc);
+			}
+		}
+		names.clear();
+	}
+
+	/**
+	 * Registers an MXBean.
+	 * 
+	 * @param bean        the MXBean
+	 * @param properties  the key properties of its name
+	 */
+	private synchronized void register(Object bean, String properties) {
+		if(server == null)
+			return;
+
+		try {
+			final ObjectName name = new ObjectName(DOMAIN + ":" + properties);
+			server.registerMBean(bean, name);
+			names.add(name);
+		} catch(JMException exc) {
+			LOGGER.log(Level.WARNING, "Unable to register metrics for " + properties, exc);
+		}
+	}
+
+	/**
+	 * Metrics of a message.
+	 */
+	final class MessageMetrics implements MessageMetricsMXBean {
+		private final MessageDescriptor msg;
+		final StripedCounter sends = new StripedCounter();
+		final StripedCounter deliveries = new StripedCounter();
+		final StripedCounter failures = new StripedCounter();
+		private final ConcurrentMap<ReceiverInvoker, ReceiverMetrics> receivers = new ConcurrentHashMap<ReceiverInvoker, ReceiverMetrics>();
+
+		MessageMetrics(MessageDescriptor msg) {
+			this.msg = msg;
+		}
+
+		/**
+		 * Gets the metrics of a receiving method, creating them if necessary.
+		 */
+		ReceiverMetrics getReceiver(ReceiverInvoker invoker) {
+			final ReceiverMetrics metrics = receivers.get(invoker);
+			return (metrics == null ? createReceiver(invoker) : metrics);
+		}
+
+		private ReceiverMetrics createReceiver(ReceiverInvoker invoker) {
+			synchronized(DeliveryMetrics.this) {
+				ReceiverMetrics metrics = receivers.get(invoker);
+				if(metrics == null) {
+					metrics = new ReceiverMetrics(msg, invoker);
+					register(metrics, "type=ReceiverMethod,system=" + ObjectName.quote(systemName)
+					                  + ",sender=" + ObjectName.quote(msg.getSenderClass().getName())
+					                  + ",message=" + ObjectName.quote(msg.getName())
+					                  + ",receiver=" + ObjectName.quote(invoker.getName()));
+					receivers.put(invoker, metrics);
+				}
+				return metrics;
+			}
+		}
+
+		@Override
+		public String getSenderClass() {
+			return msg.getSenderClass().getName();
+		}
+
+		@Override
+		public String getMessage() {
+			return msg.getName();
+		}
+
+		@Override
+		public long getSendCount() {
+			return sends.sum();
+		}
+
+		@Override
+		public long getDeliveryCount() {
+			return deliveries.sum();
+		}
+
+		@Override
+		public long getFailedDeliveryCount() {
+			return failures.sum();
+		}
+	}
+
+	/**
+	 * Latencies of a receiving method, for one message.
+	 */
+	static final class ReceiverMetrics implements ReceiverMetricsMXBean {
+		private final MessageDescriptor msg;
+		private final ReceiverInvoker invoker;
+		final LatencyHistogram latencies = new LatencyHistogram();
+
+		ReceiverMetrics(MessageDescriptor msg, ReceiverInvoker invoker) {
+			this.msg = msg;
+			this.invoker = invoker;
+		}
+
+		@Override
+		public String getSenderClass() {
+			return msg.getSenderClass().getName();
+		}
+
+		@Override
+		public String getMessage() {
+			return msg.getName();
+		}
+
+		@Override
+		public String getReceiverMethod() {
+			return invoker.getName();
+		}
+
+		@Override
+		public long getInvocationCount() {
+			return latencies.getCount();
+		}
+
+		@Override
+		public long getMeanLatencyNanos() {
+			return latencies.getMean();
+		}
+
+		@Override
+		public long getMaxLatencyNanos() {
+			return latencies.getMax();
+		}
+
+		@Override
+		public long getP50LatencyNanos() {
+			return latencies.getPercentile(50);
+		}
+
+		@Override
+		public long getP99LatencyNanos() {
+			return latencies.getPercentile(99);
+		}
+
+		@Override
+		public long[] getLatencyHistogram() {
+			return latencies.getBuckets();
+		}
+	}
+}
@@ -0,0 +1,732 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable table of the receivers subscribed to a single message sent
+ * by a single sender class, along with the invoker resolved for each of
+ * them. Tables are built once and then patched by creating new
+ * tables whenever receivers are added or removed, so sending a message only
+ * needs to visit the receivers that will actually get it. Receivers
+ * subscribed to a key are kept in tables of their own, indexed by key, so
+ * that only messages some of them receive ever look up a key. Likewise for
+ * receivers subscribed to a sender instance, whose tables are indexed by the
+ * identity of the sender.
+ */
+final class DispatchTable {
+	/** The message data of the class sending the message */
+	private final MessageData data;
+
+	/** The message */
+	private final MessageDescriptor message;
+
+	/** The subscribed receivers */
+	private final WeakReference<MessageReceiver>[] receivers;
+
+	/** The invoker for the receiving method of each of the receivers */
+	private final ReceiverInvoker[] invokers;
+
+	/** The mailbox of each of the receivers, or <code>null</code> entries for direct delivery */
+	private final Mailbox[] mailboxes;
+
+	/**
+	 * Whether or not every receiver is called directly on the sender's
+	 * thread, with a single message at a time
+	 */
+	private final boolean direct;
+
+	/**
+	 * The tables of the receivers subscribed to a key, by key, or
+	 * <code>null</code> if no such receiver accepts the message
+	 */
+	private final Map<Object, DispatchTable> keyed;
+
+	/**
+	 * The tables of the receivers subscribed to a sender instance, or
+	 * <code>null</code> if no such receiver accepts the message
+	 */
+	private final SenderIndex senders;
+
+	/**
+	 * Constructs a dispatch table.
+	 *
+	 * @param data       the message data of the class sending the message
+	 * @param message    the message
+	 * @param receivers  the subscribed receivers
+	 * @param invokers   the invoker for each receiver
+	 * @param mailboxes  the mailbox for each receiver
+	 * @param keyed      the tables of the receivers subscribed to a key, or
+	 *                   <code>null</code> if there are none
+	 * @param senders    the tables of the receivers subscribed to a sender
+	 *                   instance, or <code>null</code> if there are none
+	 */
+	private DispatchTable(MessageData data, MessageDescriptor message, WeakReference<MessageReceiver>[] receivers, ReceiverInvoker[] invokers, Mailbox[] mailboxes, Map<Object, DispatchTable> keyed, SenderIndex senders) {
+		this.data = data;
+		this.message = message;
+		this.receivers = receivers;
+		this.invokers = invokers;
+		this.mailboxes = mailboxes;
+		this.keyed = keyed;
+		this.senders = senders;
+
+		boolean direct = true;
+		for(int index = 0; direct && index < invokers.length; ++index)
+			direct = (mailboxes[index] == null && !invokers[index].isAsync() && !invokers[index].isBatch());
+		this.direct = direct;
+	}
+
+	/**
+	 * Builds a dispatch table for a message. Only the instances of receiver
+	 * classes that have a receiving method for the message are visited.
+	 *
+	 * @param data       the message data of the class sending the message
+	 * @param message    the message
+	 * @param receivers  the receivers registered with the system, by class
+	 * @param mailboxes  the mailboxes of the receivers, or <code>null</code>
+	 *                   if messages are delivered directly
+	 *
+	 * @return the dispatch table
+	 */
+	@SuppressWarnings("unchecked")
+	static DispatchTable build(MessageData data, MessageDescriptor message,
+	                           Map<Class<? extends MessageReceiver>, ? extends Iterable<MessageReceiver>> receivers,
+	                           Map<MessageReceiver, Mailbox> mailboxes)
+	{
+		final List<WeakReference<MessageReceiver>> newReceivers = new ArrayList<WeakReference<MessageReceiver>>();
+		final List<ReceiverInvoker> newInvokers = new ArrayList<ReceiverInvoker>();
+		final List<Mailbox> newMailboxes = new ArrayList<Mailbox>();
+		for(Class<? extends MessageReceiver> clz : data.getReceiverClasses(message.getName())) {
+			final Iterable<MessageReceiver> instances = receivers.get(clz);
+			final ReceiverInvoker invoker = data.getReceiverMethod(message.getName(), clz);
+			if(instances == null || invoker == null)
+				continue;
+
+			for(MessageReceiver receiver : instances) {
+				newReceivers.add(new WeakReference<MessageReceiver>(receiver));
+				newInvokers.add(invoker);
+				newMailboxes.add(mailboxes == null ? null : mailboxes.get(receiver));
+			}
+		}
+
+		return new DispatchTable(data, message,
+		                         newReceivers.toArray(new WeakReference[newReceivers.size()]),
+		                         newInvokers.toArray(new ReceiverInvoker[newInvokers.size()]),
+		                         newMailboxes.toArray(new Mailbox[newMailboxes.size()]),
+		                         null, null);
+	}
+
+	/**
+	 * Gets the message this table was built for.
+	 *
+	 * @return the message
+	 */
+	MessageDescriptor getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the number of entries in this table. Some of these entries may
+	 * refer to receivers that have been garbage collected.
+	 *
+	 * @return the number of entries
+	 */
+	int size() {
+		return receivers.length;
+	}
+
+	/**
+	 * Gets whether or not every receiver in this table is called directly on
+	 * the sender's thread, with a single message at a time. Receivers in such
+	 * a table can be called without copying the message's arguments.
+	 *
+	 * @return <code>true</code> if no receiver has a mailbox, receives
+	 *         messages asynchronously, or receives batches
+	 */
+	boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Gets the receiver at a given index.
+	 *
+	 * @param index  the index
+	 *
+	 * @return the receiver, or <code>null</code> if it has been garbage collected
+	 */
+	MessageReceiver getReceiver(int index) {
+		return receivers[index].get();
+	}
+
+	/**
+	 * Gets the invoker for the receiving method at a given index.
+	 *
+	 * @param index  the index
+	 *
+	 * @return the invoker
+	 */
+	ReceiverInvoker getInvoker(int index) {
+		return invokers[index];
+	}
+
+	/**
+	 * Gets the mailbox of the receiver at a given index.
+	 *
+	 * @param index  the index
+	 *
+	 * @return the mailbox, or <code>null</code> if messages are delivered
+	 *         directly to the receiver
+	 */
+	Mailbox getMailbox(int index) {
+		return mailboxes[index];
+	}
+
+	/**
+	 * Creates a table with a receiver appended to it, if that receiver accepts
+	 * the given message.
+	 *
+	 * @param receiver  the receiver
+	 * @param mailbox   the receiver's mailbox, or <code>null</code> if messages
+	 *                  are delivered directly to the receiver
+	 *
+	 * @return the new table, or this table if the receiver does not accept
+	 *         the message
+	 */
+	DispatchTable with(MessageReceiver receiver, Mailbox mailbox) {
+		final ReceiverInvoker invoker = data.getReceiverMethod(message.getName(), receiver.getClass());
+		if(invoker == null)
+			return this;
+		return with(receiver, invoker, mailbox);
+	}
+
+	/**
+	 * Creates a table with a receiver appended to it, called through a given
+	 * invoker rather than the receiving method of its class.
+	 *
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker
+	 * @param mailbox   the receiver's mailbox, or <code>null</code> if messages
+	 *                  are delivered directly to the receiver
+	 *
+	 * @return the new table
+	 */
+	DispatchTable with(MessageReceiver receiver, ReceiverInvoker invoker, Mailbox mailbox) {
+		final WeakReference<MessageReceiver>[] newReceivers = Arrays.copyOf(receivers, receivers.length + 1);
+		final ReceiverInvoker[] newInvokers = Arrays.copyOf(invokers, invokers.length + 1);
+		newReceivers[receivers.length] = new WeakReference<MessageReceiver>(receiver);
+		final Mailbox[] newMailboxes = Arrays.copyOf(mailboxes, mailboxes.length + 1);
+		newInvokers[invokers.length] = invoker;
+		newMailboxes[mailboxes.length] = mailbox;
+		return new DispatchTable(data, message, newReceivers, newInvokers, newMailboxes, keyed, senders);
+	}
+
+	/**
+	 * Creates a table with entries appended to it for the receivers that
+	 * accept the given message. Receivers that have been garbage collected
+	 * are skipped.
+	 *
+	 * @param newReceivers  the receivers
+	 * @param newMailboxes  the receivers' mailboxes, with <code>null</code>
+	 *                      elements for receivers getting messages directly
+	 *
+	 * @return the new table, or this table if none of the receivers accept
+	 *         the message
+	 */
+	DispatchTable with(WeakReference<MessageReceiver>[] newReceivers, Mailbox[] newMailboxes) {
+		WeakReference<MessageReceiver>[] allReceivers = null;
+		ReceiverInvoker[] allInvokers = null;
+		Mailbox[] allMailboxes = null;
+		int size = receivers.length;
+		for(int index = 0; index < newReceivers.length; ++index) {
+			final MessageReceiver receiver = newReceivers[index].get();
+			if(receiver == null)
+				continue;
+
+			final ReceiverInvoker invoker = data.getReceiverMethod(message.getName(), receiver.getClass());
+			if(invoker == null)
+				continue;
+
+			if(allReceivers == null) {
+				final int capacity = receivers.length + newReceivers.length - index;
+				allReceivers = Arrays.copyOf(receivers, capacity);
+				allInvokers = Arrays.copyOf(invokers, capacity);
+				allMailboxes = Arrays.copyOf(mailboxes, capacity);
+			}
+			allReceivers[size] = newReceivers[index];
+			allInvokers[size] = invoker;
+			allMailboxes[size] = newMailboxes[index];
+			++size;
+		}
+
+		if(allReceivers == null)
+			return this;
+
+		return new DispatchTable(data, message,
+		                         Arrays.copyOf(allReceivers, size),
+		                         Arrays.copyOf(allInvokers, size),
+		                         Arrays.copyOf(allMailboxes, size),
+		                         keyed, senders);
+	}
+
+	/**
+	 * Gets whether or not any receiver of this table, including those
+	 * subscribed to a key or to a sender instance, is still reachable.
+	 * Unlike {@link #size()}, receivers that have been garbage collected
+	 * but not yet compacted away are not counted. This stops at the first
+	 * reachable receiver, so it is usually quick.
+	 *
+	 * @return <code>true</code> if some receiver is reachable,
+	 *         <code>false</code> otherwise
+	 */
+	boolean hasReceivers() {
+		for(WeakReference<MessageReceiver> receiver : receivers) {
+			if(receiver.get() != null)
+				return true;
+		}
+
+		if(keyed != null) {
+			for(DispatchTable table : keyed.values()) {
+				if(table.hasReceivers())
+					return true;
+			}
+		}
+		return (senders != null && senders.hasReceivers());
+	}
+
+	/**
+	 * Gets whether or not receivers subscribed to a key or to a sender
+	 * instance accept the message.
+	 *
+	 * @return <code>true</code> if this table has tables for keys or
+	 *         senders, <code>false</code> otherwise
+	 */
+	boolean hasKeyed() {
+		return (keyed != null || senders != null);
+	}
+
+	/**
+	 * Gets the table of the receivers subscribed to a key.
+	 *
+	 * @param key  the key, or <code>null</code>
+	 *
+	 * @return the table, or <code>null</code> if no receiver subscribed to
+	 *         the key accepts the message
+	 */
+	DispatchTable getKeyed(Object key) {
+		return (keyed == null || key == null ? null : keyed.get(key));
+	}
+
+	/**
+	 * Gets the table of the receivers subscribed to a sender instance. This
+	 * allocates nothing, so that it can be done on every send.
+	 *
+	 * @param sender  the sender, or <code>null</code>
+	 *
+	 * @return the table, or <code>null</code> if no receiver subscribed to
+	 *         the sender accepts the message
+	 */
+	DispatchTable getSenderKeyed(MessageSender sender) {
+		return (senders == null || sender == null ? null : senders.get(sender));
+	}
+
+	/**
+	 * Creates a table with the tables of the receivers subscribed to keys.
+	 * Tables for a {@link SenderKey} go to the index of sender instances.
+	 *
+	 * @param tables  the tables, by key
+	 *
+	 * @return the new table
+	 */
+	DispatchTable withKeyed(Map<Object, DispatchTable> tables) {
+		final Map<Object, DispatchTable> newKeyed = new HashMap<Object, DispatchTable>();
+		final Map<SenderKey, DispatchTable> newSenders = new HashMap<SenderKey, DispatchTable>();
+		for(Map.Entry<Object, DispatchTable> entry : tables.entrySet()) {
+			if(entry.getKey() instanceof SenderKey)
+				newSenders.put((SenderKey)entry.getKey(), entry.getValue());
+			else
+				newKeyed.put(entry.getKey(), entry.getValue());
+		}
+		return new DispatchTable(data, message, receivers, invokers, mailboxes,
+		                         (newKeyed.isEmpty() ? null : newKeyed),
+		                         SenderIndex.of(newSenders));
+	}
+
+	/**
+	 * Creates a table with the table of the receivers subscribed to a key
+	 * replaced.
+	 *
+	 * @param key           the key, which may be a {@link SenderKey}
+	 * @param newReceivers  the receivers subscribed to the key, or
+	 *                      <code>null</code> if there are none
+	 * @param newMailboxes  the receivers' mailboxes
+	 *
+	 * @return the new table, or this table if no receiver subscribed to the
+	 *         key accepts the message, either before or after
+	 */
+	DispatchTable withKeyed(Object key, WeakReference<MessageReceiver>[] newReceivers, Mailbox[] newMailboxes) {
+		final DispatchTable table = (newReceivers == null ? null : keyedTable(newReceivers, newMailboxes));
+		if(key instanceof SenderKey) {
+			final SenderIndex newSenders;
+			if(senders == null)
+				newSenders = (table == null ? null : SenderIndex.of(Collections.singletonMap((SenderKey)key, table)));
+			else
+				newSenders = senders.with((SenderKey)key, table);
+			return (newSenders == senders ? this : new DispatchTable(data, message, receivers, invokers, mailboxes, keyed, newSenders));
+		}
+
+		if(table == null && getKeyed(key) == null)
+			return this;
+
+		final Map<Object, DispatchTable> newKeyed = (keyed == null ? new HashMap<Object, DispatchTable>() : new HashMap<Object, DispatchTable>(keyed));
+		if(table == null)
+			newKeyed.remove(key);
+		else
+			newKeyed.put(key, table);
+		return new DispatchTable(data, message, receivers, invokers, mailboxes, (newKeyed.isEmpty() ? null : newKeyed), senders);
+	}
+
+	/**
+	 * Creates a table of the receivers subscribed to a key, for the same
+	 * message as this table.
+	 *
+	 * @param newReceivers  the receivers subscribed to the key
+	 * @param newMailboxes  the receivers' mailboxes
+	 *
+	 * @return the table, or <code>null</code> if none of the receivers accept
+	 *         the message
+	 */
+	@SuppressWarnings("unchecked")
+	DispatchTable keyedTable(WeakReference<MessageReceiver>[] newReceivers, Mailbox[] newMailboxes) {
+		final DispatchTable empty = new DispatchTable(data, message, new WeakReference[0], new ReceiverInvoker[0], new Mailbox[0], null, null);
+		final DispatchTable table = empty.with(newReceivers, newMailboxes);
+		return (table == empty ? null : table);
+	}
+
+	/**
+	 * Creates a table without a given receiver. Like {@link java.util.List#remove(Object)},
+	 * only the first entry equal to the receiver is removed.
+	 *
+	 * @param receiver  the receiver
+	 *
+	 * @return the new table, or this table if the receiver is not in it
+	 */
+	DispatchTable without(MessageReceiver receiver) {
+		if(data.getReceiverMethod(message.getName(), receiver.getClass()) == null)
+			return this;
+		return remove(receiver);
+	}
+
+	/**
+	 * Creates a table without a given receiver, whether or not its class has
+	 * a receiving method for the message. Like {@link java.util.List#remove(Object)},
+	 * only the first entry equal to the receiver is removed.
+	 *
+	 * @param receiver  the receiver
+	 *
+	 * @return the new table, or this table if the receiver is not in it
+	 */
+	DispatchTable remove(MessageReceiver receiver) {
+		for(int index = 0; index < receivers.length; ++index) {
+			if(receiver.equals(receivers[index].get())) {
+				final WeakReference<MessageReceiver>[] newReceivers = Arrays.copyOf(receivers, receivers.length - 1);
+				final ReceiverInvoker[] newInvokers = Arrays.copyOf(invokers, invokers.length - 1);
+				System.arraycopy(receivers, index + 1, newReceivers, index, receivers.length - index - 1);
+				final Mailbox[] newMailboxes = Arrays.copyOf(mailboxes, mailboxes.length - 1);
+				System.arraycopy(invokers, index + 1, newInvokers, index, invokers.length - index - 1);
+				System.arraycopy(mailboxes, index + 1, newMailboxes, index, mailboxes.length - index - 1);
+				return new DispatchTable(data, message, newReceivers, newInvokers, newMailboxes, keyed, senders);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Creates a table without the entries of receivers that have been
+	 * garbage collected.
+	 *
+	 * @return the new table, or this table if none of its receivers have
+	 *         been garbage collected
+	 */
+	DispatchTable compact() {
+		// A single pass, since a receiver may be collected between any two
+		// reads of its reference
+		WeakReference<MessageReceiver>[] newReceivers = null;
+		ReceiverInvoker[] newInvokers = null;
+		Mailbox[] newMailboxes = null;
+		int newIndex = 0;
+		for(int index = 0; index < receivers.length; ++index) {
+			if(receivers[index].get() == null) {
+				if(newReceivers == null) {
+					newReceivers = Arrays.copyOf(receivers, receivers.length);
+					newInvokers = Arrays.copyOf(invokers, invokers.length);
+					newMailboxes = Arrays.copyOf(mailboxes, mailboxes.length);
+				}
+				continue;
+			}
+
+			if(newReceivers != null) {
+				newReceivers[newIndex] = receivers[index];
+				newInvokers[newIndex] = invokers[index];
+				newMailboxes[newIndex] = mailboxes[index];
+			}
+			++newIndex;
+		}
+
+		final Map<Object, DispatchTable> newKeyed = compactKeyed();
+		final SenderIndex newSenders = (senders == null ? null : senders.compact());
+		if(newReceivers == null) {
+			if(newKeyed == keyed && newSenders == senders)
+				return this;
+			return new DispatchTable(data, message, receivers, invokers, mailboxes, newKeyed, newSenders);
+		}
+
+		return new DispatchTable(data, message,
+		                         Arrays.copyOf(newReceivers, newIndex),
+		                         Arrays.copyOf(newInvokers, newIndex),
+		                         Arrays.copyOf(newMailboxes, newIndex),
+		                         newKeyed, newSenders);
+	}
+
+	/**
+	 * Compacts the tables of the receivers subscribed to keys, leaving out
+	 * those that become empty.
+	 *
+	 * @return the compacted tables, or the current ones if none of their
+	 *         receivers have been garbage collected
+	 */
+	private Map<Object, DispatchTable> compactKeyed() {
+		if(keyed == null)
+			return null;
+
+		Map<Object, DispatchTable> newKeyed = null;
+		for(Map.Entry<Object, DispatchTable> entry : keyed.entrySet()) {
+			final DispatchTable table = entry.getValue().compact();
+			if(table == entry.getValue())
+				continue;
+
+			if(newKeyed == null)
+				newKeyed = new HashMap<Object, DispatchTable>(keyed);
+			if(table.size() == 0)
+				newKeyed.remove(entry.getKey());
+			else
+				newKeyed.put(entry.getKey(), table);
+		}
+
+		if(newKeyed == null)
+			return keyed;
+		return (newKeyed.isEmpty() ? null : newKeyed);
+	}
+
+	/**
+	 * An immutable index of the tables of the receivers subscribed to sender
+	 * instances. Senders are found by identity, through a binary search of
+	 * their identity hash codes, so looking one up allocates nothing.
+	 */
+	private static final class SenderIndex {
+		/** The identity hash codes of the senders, in increasing order */
+		private final int[] hashes;
+
+		/** The keys of the senders */
+		private final SenderKey[] keys;
+
+		/** The tables of the receivers subscribed to each sender */
+		private final DispatchTable[] tables;
+
+		private SenderIndex(int[] hashes, SenderKey[] keys, DispatchTable[] tables) {
+			this.hashes = hashes;
+			this.keys = keys;
+			this.tables = tables;
+		}
+
+		/**
+		 * Creates an index of tables.
+		 *
+		 * @param tables  the tables, by the key of their sender
+		 *
+		 * @return the index, or <code>null</code> if there are no tables
+		 */
+		static SenderIndex of(Map<SenderKey, DispatchTable> tables) {
+			if(tables.isEmpty())
+				return null;
+
+			final List<Map.Entry<SenderKey, DispatchTable>> entries = new ArrayList<Map.Entry<SenderKey, DispatchTable>>(tables.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<SenderKey, DispatchTable>>() {
+				@Override
+				public int compare(Map.Entry<SenderKey, DispatchTable> a, Map.Entry<SenderKey, DispatchTable> b) {
+					return Integer.compare(a.getKey().hashCode(), b.getKey().hashCode());
+				}
+			});
+
+			final int[] hashes = new int[entries.size()];
+			final SenderKey[] keys = new SenderKey[entries.size()];
+			final DispatchTable[] newTables = new DispatchTable[entries.size()];
+			for(int index = 0; index < hashes.length; ++index) {
+				keys[index] = entries.get(index).getKey();
+				hashes[index] = keys[index].hashCode();
+				newTables[index] = entries.get(index).getValue();
+			}
+			return new SenderIndex(hashes, keys, newTables);
+		}
+
+		/**
+		 * Gets the table of the receivers subscribed to a sender.
+		 *
+		 * @param sender  the sender
+		 *
+		 * @return the table, or <code>null</code> if there is none
+		 */
+		DispatchTable get(MessageSender sender) {
+			final int hash = System.identityHashCode(sender);
+			for(int index = first(hash); index < hashes.length && hashes[index] == hash; ++index) {
+				if(keys[index].get() == sender)
+					return tables[index];
+			}
+			return null;
+		}
+
+		/**
+		 * Gets whether or not a reachable sender has a table with a
+		 * reachable receiver.
+		 *
+		 * @return <code>true</code> if such a table exists, <code>false</code>
+		 *         otherwise
+		 */
+		boolean hasReceivers() {
+			for(int index = 0; index < tables.length; ++index) {
+				if(keys[index].get() != null && tables[index].hasReceivers())
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Creates an index with the table of a sender replaced.
+		 *
+		 * @param key    the key of the sender
+		 * @param table  the table, or <code>null</code> to remove the sender
+		 *
+		 * @return the new index, this index if nothing changed, or
+		 *         <code>null</code> if the new index would be empty
+		 */
+		SenderIndex with(SenderKey key, DispatchTable table) {
+			// The key may be a different one for the same sender, or the one
+			// held here after its sender has been garbage collected
+			final int hash = key.hashCode();
+			final MessageSender sender = key.get();
+			int index = first(hash);
+			for(; index < hashes.length && hashes[index] == hash; ++index) {
+				if(keys[index] == key || (sender != null && keys[index].get() == sender))
+					break;
+			}
+
+			final boolean found = (index < hashes.length && hashes[index] == hash);
+			if(!found && table == null)
+				return this;
+
+			if(found && table != null) {
+				final DispatchTable[] newTables = tables.clone();
+				newTables[index] = table;
+				return new SenderIndex(hashes, keys, newTables);
+			}
+
+			if(found)
+				return without(index);
+
+			final int[] newHashes = new int[hashes.length + 1];
+			final SenderKey[] newKeys = new SenderKey[keys.length + 1];
+			final DispatchTable[] newTables = new DispatchTable[tables.length + 1];
+			System.arraycopy(hashes, 0, newHashes, 0, index);
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(tables, 0, newTables, 0, index);
+			newHashes[index] = hash;
+			newKeys[index] = key;
+			newTables[index] = table;
+			System.arraycopy(hashes, index, newHashes, index + 1, hashes.length - index);
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(tables, index, newTables, index + 1, tables.length - index);
+			return new SenderIndex(newHashes, newKeys, newTables);
+		}
+
+		/**
+		 * Creates an index with the tables compacted, leaving out the senders
+		 * that have been garbage collected and the tables that become empty.
+		 *
+		 * @return the new index, this index if nothing changed, or
+		 *         <code>null</code> if the new index would be empty
+		 */
+		SenderIndex compact() {
+			SenderIndex index = this;
+			for(int position = tables.length - 1; position >= 0 && index != null; --position) {
+				final DispatchTable table = tables[position].compact();
+				if(keys[position].get() == null || table.size() == 0)
+					index = index.without(position);
+				else if(table != tables[position])
+					index = index.with(keys[position], table);
+			}
+			return index;
+		}
+
+		/**
+		 * Finds the first position that a hash code has, or would have, in
+		 * this index.
+		 */
+		private int first(int hash) {
+			int low = 0;
+			int high = hashes.length;
+			while(low < high) {
+				final int mid = (low + high) >>> 1;
+				if(hashes[mid] < hash)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		/**
+		 * Creates an index without the sender at a given position.
+		 */
+		private SenderIndex without(int position) {
+			if(hashes.length == 1)
+				return null;
+
+			final int[] newHashes = new int[hashes.length - 1];
+			final SenderKey[] newKeys = new SenderKey[keys.length - 1];
+			final DispatchTable[] newTables = new DispatchTable[tables.length - 1];
+			System.arraycopy(hashes, 0, newHashes, 0, position);
+			System.arraycopy(keys, 0, newKeys, 0, position);
+			System.arraycopy(tables, 0, newTables, 0, position);
+			System.arraycopy(hashes, position + 1, newHashes, position, hashes.length - position - 1);
+			System.arraycopy(keys, position + 1, newKeys, position, keys.length - position - 1);
+			System.arraycopy(tables, position + 1, newTables, position, tables.length - position - 1);
+			return new SenderIndex(newHashes, newKeys, newTables);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Locates the {@link GeneratedDispatcher} for a class. Dispatchers are listed
+ * in {@value #INDEX_RESOURCE} resources, which map the binary name of a
+ * class to the binary name of its dispatcher. The index for each class
+ * loader is read once, the first time it is needed.
+ */
+final class DispatcherIndex {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(DispatcherIndex.class.getName());
+
+	/** The resource listing generated dispatchers */
+	static final String INDEX_RESOURCE = "META-INF/manatee/dispatchers.properties";
+
+	/** Mapping from class loaders to their loaded index */
+	private static final Map<ClassLoader, Properties> indices = new WeakHashMap<ClassLoader, Properties>();
+
+	private DispatcherIndex() {
+	}
+
+	/**
+	 * Finds the generated dispatcher for a class.
+	 * 
+	 * @param clz  the class
+	 * 
+	 * @return a new instance of the class' dispatcher, or <code>null</code>
+	 *         if no dispatcher was generated for the class
+	 */
+	static GeneratedDispatcher find(Class<?> clz) {
+		final ClassLoader loader = clz.getClassLoader();
+		if(loader == null)
+			return null;
+
+		final String dispatcherName = getIndex(loader).getProperty(clz.getName());
+		if(dispatcherName == null)
+			return null;
+
+		try {
+			final GeneratedDispatcher dispatcher = Class.forName(dispatcherName, true, loader)
+			                                            .asSubclass(GeneratedDispatcher.class)
+			                                            .getDeclaredConstructor()
+			                                            .newInstance();
+			if(dispatcher.getTargetClass() == clz)
+				return dispatcher;
+
+			LOGGER.warning(String.format("Dispatcher `%s` was not generated for `%s`", dispatcherName, clz.getName()));
+		} catch(ClassNotFoundException exc) {
+			LOGGER.log(Level.WARNING, String.format("Dispatcher `%s` for `%s` not found", dispatcherName, clz.getName()), exc);
+		} catch(InstantiationException exc) {
+			LOGGER.log(Level.WARNING, String.format("Unable to create dispatcher `%s`", dispatcherName), exc);
+		} catch(IllegalAccessException exc) {
+			LOGGER.log(Level.WARNING, String.format("Unable to access dispatcher `%s`", dispatcherName), exc);
+		} catch(NoSuchMethodException exc) {
+			LOGGER.log(Level.WARNING, String.format("Dispatcher `%s` has no default constructor", dispatcherName), exc);
+		} catch(InvocationTargetException exc) {
+			LOGGER.log(Level.WARNING, String.format("Unable to create dispatcher `%s`", dispatcherName), exc.getCause());
+		} catch(ClassCastException exc) {
+			LOGGER.log(Level.WARNING, String.format("`%s` is not a dispatcher", dispatcherName), exc);
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the index for a class loader, reading it if necessary.
+	 * 
+	 * @param loader  the class loader
+	 * 
+	 * @return the index
+	 */
+	private static synchronized Properties getIndex(ClassLoader loader) {
+		Properties index = indices.get(loader);
+		if(index == null) {
+			index = new Properties();
+			try {
+				final Enumeration<URL> resources = loader.getResources(INDEX_RESOURCE);
+				while(resources.hasMoreElements()) {
+					final URL url = resources.nextElement();
+					final InputStream in = url.openStream();
+					try {
+						index.load(in);
+					} finally {
+						in.close();
+					}
+				}
+			} catch(IOException exc) {
+				LOGGER.log(Level.WARNING, "Unable to read dispatcher index", exc);
+			}
+			indices.put(loader, index);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Base class for the dispatchers generated by
+ * {@link ca.gedge.manatee.processor.ManateeProcessor}. A generated dispatcher
+ * describes the messages sent by, and the receiving methods of, a single
+ * class, and calls those receiving methods directly. A
+ * {@link MessageDeliverySystem} uses a class' dispatcher, when one exists,
+ * instead of discovering the class' messages and receiving methods through
+ * reflection.
+ * 
+ * This class is not intended to be extended by hand.
+ */
+public abstract class GeneratedDispatcher {
+	/** The class this dispatcher was generated for */
+	private final Class<?> targetClass;
+
+	/** Mapping from message names to the classes of the arguments */
+	private final Map<String, Class<?>[]> messages = new LinkedHashMap<String, Class<?>[]>();
+
+	/** Names of the messages that are conflated */
+	private final Set<String> conflated = new HashSet<String>();
+
+	/** Invokers for the receiving methods */
+	private final List<ReceiverInvoker.InheritableInvoker> invokers = new ArrayList<ReceiverInvoker.InheritableInvoker>();
+
+	/**
+	 * Constructs a dispatcher.
+	 * 
+	 * @param targetClass  the class this dispatcher was generated for
+	 */
+	protected GeneratedDispatcher(Class<?> targetClass) {
+		this.targetClass = targetClass;
+	}
+
+	/**
+	 * Declares a message sent by the target class.
+	 * 
+	 * @param name       the message name
+	 * @param signature  the ordered list of argument types for the message
+	 */
+	protected final void message(String name, Class<?>... signature) {
+		messages.put(name, signature);
+	}
+
+	/**
+	 * Declares a conflated message sent by the target class.
+	 * 
+	 * @param name       the message name
+	 * @param signature  the ordered list of argument types for the message
+	 * 
+	 * @see Message#conflate()
+	 */
+	protected final void conflatedMessage(String name, Class<?>... signature) {
+		messages.put(name, signature);
+		conflated.add(name);
+	}
+
+	/**
+	 * Declares a receiving method of the target class. A method having
+	 * several {@link ReceiverMethod} annotations is declared once for each.
+	 * 
+	 * @param index           the index passed to {@link #dispatch(int, MessageReceiver, String, Object[])}
+	 *                        to call the method
+	 * @param name            the name of the method
+	 * @param annotation      the annotation describing the method
+	 * @param parameterTypes  the parameter types of the method
+	 * @param varArgs         whether or not the method takes a variable number
+	 *                        of arguments
+	 */
+	protected final void receiver(int index, String name, ReceiverMethod annotation, Class<?>[] parameterTypes, boolean varArgs) {
+		invokers.add(ReceiverInvoker.forDispatcher(this, index, name, annotation, parameterTypes, varArgs));
+	}
+
+	/**
+	 * Calls a receiving method of the target class.
+	 * 
+	 * @param index     the index of the method, as given to
+	 *                  {@link #receiver(int, String, ReceiverMethod, Class[], boolean)}
+	 * @param receiver  the receiver, an instance of the target class
+	 * @param msg       the message name
+	 * @param data      the data accompanying the message
+	 * 
+	 * @throws Throwable  anything thrown by the receiving method
+	 */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, Object[] data) throws Throwable {
+		throw new UnsupportedOperationException(targetClass.getName() + " has no receiving methods");
+	}
+
+	/**
+	 * Calls a receiving method of the target class taking no arguments. This
+	 * and the other fixed-arity variants are only called for methods taking
+	 * exactly as many arguments, and none of them a catchall, varargs or
+	 * batch method. Unless overridden, they pack the arguments into an array
+	 * and call {@link #dispatch(int, MessageReceiver, String, Object[])}.
+	 * 
+	 * @param index     the index of the method
+	 * @param receiver  the receiver, an instance of the target class
+	 * @param msg       the message name
+	 * 
+	 * @throws Throwable  anything thrown by the receiving method
+	 */
+	protected void dispatch(int index, MessageReceiver receiver, String msg) throws Throwable {
+		dispatch(index, receiver, msg, ReceiverInvoker.NO_ARGUMENTS);
+	}
+
+	/** @see #dispatch(int, MessageReceiver, String) */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, Object a) throws Throwable {
+		dispatch(index, receiver, msg, new Object[] { a });
+	}
+
+	/** @see #dispatch(int, MessageReceiver, String) */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, Object a, Object b) throws Throwable {
+		dispatch(index, receiver, msg, new Object[] { a, b });
+	}
+
+	/** @see #dispatch(int, MessageReceiver, String) */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, Object a, Object b, Object c) throws Throwable {
+		dispatch(index, receiver, msg, new Object[] { a, b, c });
+	}
+
+	/** @see #dispatch(int, MessageReceiver, String) */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, Object a, Object b, Object c, Object d) throws Throwable {
+		dispatch(index, receiver, msg, new Object[] { a, b, c, d });
+	}
+
+	/**
+	 * Calls a receiving method of the target class taking a single argument
+	 * with an <code>int</code>. This and the other primitive variants are
+	 * only called for methods whose parameter accepts the primitive without
+	 * a cast, and only if the generated dispatcher overrides them.
+	 * 
+	 * @param index     the index of the method
+	 * @param receiver  the receiver, an instance of the target class
+	 * @param msg       the message name
+	 * @param a         the argument
+	 * 
+	 * @throws Throwable  anything thrown by the receiving method
+	 */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, int a) throws Throwable {
+		dispatch(index, receiver, msg, (Object)a);
+	}
+
+	/** @see #dispatch(int, MessageReceiver, String, int) */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, long a) throws Throwable {
+		dispatch(index, receiver, msg, (Object)a);
+	}
+
+	/** @see #dispatch(int, MessageReceiver, String, int) */
+	protected void dispatch(int index, MessageReceiver receiver, String msg, double a) throws Throwable {
+		dispatch(index, receiver, msg, (Object)a);
+	}
+
+	/**
+	 * Gets the class this dispatcher was generated for.
+	 * 
+	 * @return the target class
+	 */
+	public Class<?> getTargetClass() {
+		return targetClass;
+	}
+
+	/**
+	 * Gets the messages sent by the target class.
+	 * 
+	 * @return mapping from message names to the classes of the arguments
+	 */
+	Map<String, Class<?>[]> getMessages() {
+		return Collections.unmodifiableMap(messages);
+	}
+
+	/**
+	 * Gets whether or not a message sent by the target class is conflated.
+	 * 
+	 * @param name  the message name
+	 * 
+	 * @return <code>true</code> if the message is conflated, <code>false</code>
+	 *         otherwise
+	 */
+	boolean isConflated(String name) {
+		return conflated.contains(name);
+	}
+
+	/**
+	 * Gets invokers for the receiving methods of the target class.
+	 * 
+	 * @return the invokers
+	 */
+	List<ReceiverInvoker.InheritableInvoker> getInvokers() {
+		return Collections.unmodifiableList(invokers);
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * Functional interfaces for receiving messages without implementing
+ * {@link MessageReceiver}, one for each number of arguments a message can
+ * be received with. They are meant to be implemented by lambdas, and
+ * subscribed with {@link MessageDeliverySystem#subscribe(Class, String, Listener.Of1)}
+ * and its overloads.
+ */
+public final class Listener {
+	/**
+	 * Receives a message without arguments.
+	 */
+	@FunctionalInterface
+	public interface Of0 {
+		/**
+		 * Receives a message.
+		 * 
+		 * @throws Exception  if the message could not be handled
+		 */
+		public void receive() throws Exception;
+	}
+
+	/**
+	 * Receives a message with a single argument.
+	 * 
+	 * @param <A>  the type of the first argument
+	 */
+	@FunctionalInterface
+	public interface Of1<A> {
+		/**
+		 * Receives a message.
+		 * 
+		 * @param a  the first argument
+		 * 
+		 * @throws Exception  if the message could not be handled
+		 */
+		public void receive(A a) throws Exception;
+	}
+
+	/**
+	 * Receives a message with two arguments.
+	 * 
+	 * @param <A>  the type of the first argument
+	 * @param <B>  the type of the second argument
+	 */
+	@FunctionalInterface
+	public interface Of2<A, B> {
+		/**
+		 * Receives a message.
+		 * 
+		 * @param a  the first argument
+		 * @param b  the second argument
+		 * 
+		 * @throws Exception  if the message could not be handled
+		 */
+		public void receive(A a, B b) throws Exception;
+	}
+
+	/**
+	 * Receives a message with three arguments.
+	 * 
+	 * @param <A>  the type of the first argument
+	 * @param <B>  the type of the second argument
+	 * @param <C>  the type of the third argument
+	 */
+	@FunctionalInterface
+	public interface Of3<A, B, C> {
+		/**
+		 * Receives a message.
+		 * 
+		 * @param a  the first argument
+		 * @param b  the second argument
+		 * @param c  the third argument
+		 * 
+		 * @throws Exception  if the message could not be handled
+		 */
+		public void receive(A a, B b, C c) throws Exception;
+	}
+
+	/**
+	 * Receives a message with four arguments.
+	 * 
+	 * @param <A>  the type of the first argument
+	 * @param <B>  the type of the second argument
+	 * @param <C>  the type of the third argument
+	 * @param <D>  the type of the fourth argument
+	 */
+	@FunctionalInterface
+	public interface Of4<A, B, C, D> {
+		/**
+		 * Receives a message.
+		 * 
+		 * @param a  the first argument
+		 * @param b  the second argument
+		 * @param c  the third argument
+		 * @param d  the fourth argument
+		 * 
+		 * @throws Exception  if the message could not be handled
+		 */
+		public void receive(A a, B b, C c, D d) throws Exception;
+	}
+
+	private Listener() {}
+}
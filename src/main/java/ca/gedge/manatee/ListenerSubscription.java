@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * A listener subscribed to a message. The subscription itself is the
+ * receiver in the message's dispatch table, paired with an invoker that
+ * calls the listener.
+ */
+final class ListenerSubscription implements MessageReceiver, Subscription {
+	/** The delivery system the listener is subscribed to */
+	private final MessageDeliverySystem system;
+
+	/** The message */
+	private final MessageDescriptor message;
+
+	/** The invoker calling the listener */
+	private final ReceiverInvoker invoker;
+
+	/** Whether or not the subscription is still open */
+	private volatile boolean active = true;
+
+	/**
+	 * Constructs a subscription.
+	 * 
+	 * @param system    the delivery system
+	 * @param message   the message
+	 * @param listener  the listener, one of the interfaces in {@link Listener}
+	 */
+	ListenerSubscription(MessageDeliverySystem system, MessageDescriptor message, Object listener) {
+		this.system = system;
+		this.message = message;
+		this.invoker = ReceiverInvoker.forListener(listener, message.getSignature());
+	}
+
+	/**
+	 * Gets the invoker calling the listener.
+	 * 
+	 * @return the invoker
+	 */
+	ReceiverInvoker getInvoker() {
+		return invoker;
+	}
+
+	/**
+	 * Marks this subscription as closed.
+	 */
+	void deactivate() {
+		active = false;
+	}
+
+	@Override
+	public MessageDescriptor getMessage() {
+		return message;
+	}
+
+	@Override
+	public boolean isActive() {
+		return active;
+	}
+
+	@Override
+	public void close() {
+		system.unsubscribe(this);
+	}
+
+	@Override
+	public String toString() {
+		return "Subscription to " + message + (active ? "" : " (closed)");
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded queue of deliveries to a single receiver. Deliveries are run in
+ * the order they were posted, one at a time, by tasks handed to the delivery
+ * system's executor. At most one such task exists for a mailbox at any time,
+ * so a receiver never runs concurrently with itself, while the mailboxes of
+ * different receivers are drained in parallel.
+ * 
+ * Deliveries posted with a key are conflated: while a delivery with the
+ * same key is still waiting, the new delivery replaces it in place instead
+ * of being queued.
+ */
+final class Mailbox implements Runnable {
+	/**
+	 * The maximum number of deliveries run by a single task, so that a busy
+	 * receiver does not monopolize a thread of the executor
+	 */
+	private static final int DRAIN_LIMIT = 64;
+
+	/** The delivery system whose executor drains this mailbox */
+	private final MessageDeliverySystem system;
+
+	/** Deliveries waiting to be run */
+	private final BlockingQueue<Runnable> queue;
+
+	/** What happens when a delivery is posted to a full mailbox */
+	private final OverflowPolicy policy;
+
+	/** Whether or not a task draining this mailbox has been handed to the executor */
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	/** Conflated deliveries waiting to be run, by key */
+	private final Map<Object, Conflated> pending = new HashMap<Object, Conflated>();
+
+	/**
+	 * Constructs a mailbox.
+	 *
+	 * @param system    the delivery system whose executor drains this mailbox
+	 * @param capacity  the maximum number of deliveries waiting to be run
+	 * @param policy    what happens when a delivery is posted to a full mailbox
+	 */
+	Mailbox(MessageDeliverySystem system, int capacity, OverflowPolicy policy) {
+		this.system = system;
+		this.queue = new LinkedBlockingQueue<Runnable>(capacity);
+		this.policy = policy;
+	}
+
+	/**
+	 * Gets what happens when a delivery is posted to this mailbox while it
+	 * is full.
+	 *
+	 * @return the overflow policy
+	 */
+	OverflowPolicy getOverflowPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Posts a delivery to this mailbox. If the mailbox is full, the overflow
+	 * policy decides what happens. Deliveries dropped to make space are
+	 * handed to {@link MessageDeliverySystem#discarded(Runnable)}.
+	 *
+	 * @param delivery  the delivery
+	 * @param mayBlock  whether or not the calling thread may wait for space
+	 *                  if the policy is {@link OverflowPolicy#BLOCK}
+	 *
+	 * @return <code>true</code> if the delivery was queued, <code>false</code>
+	 *         if it was rejected
+	 *
+	 * @throws InterruptedException  if interrupted while waiting for space
+	 */
+	boolean post(Runnable delivery, boolean mayBlock) throws InterruptedException {
+		if(!enqueue(delivery, mayBlock))
+			return false;
+
+		schedule();
+		return true;
+	}
+
+	/**
+	 * Posts a delivery to this mailbox, replacing any waiting delivery posted
+	 * with an equal key. If there is no such delivery, waits for space to
+	 * become available if the mailbox is full.
+	 *
+	 * The replaced delivery is handed to {@link MessageDeliverySystem#discarded(Runnable)}.
+	 *
+	 * @param key       the key
+	 * @param delivery  the delivery
+	 * @param mayBlock  whether or not the calling thread may wait for space
+	 *                  if the policy is {@link OverflowPolicy#BLOCK}
+	 *
+	 * @return <code>true</code> if the delivery was queued or replaced a
+	 *         waiting one, <code>false</code> if it was rejected
+	 *
+	 * @throws InterruptedException  if interrupted while waiting for space
+	 */
+	boolean post(Object key, Runnable delivery, boolean mayBlock) throws InterruptedException {
+		final Conflated conflated;
+		synchronized(pending) {
+			final Conflated existing = pending.get(key);
+			if(existing != null) {
+				final Runnable replaced = existing.delivery;
+				existing.delivery = delivery;
+				system.discarded(replaced);
+				return true;
+			}
+
+			conflated = new Conflated(key, delivery);
+			pending.put(key, conflated);
+		}
+
+		boolean queued = false;
+		try {
+			queued = enqueue(conflated, mayBlock);
+		} finally {
+			if(!queued) {
+				synchronized(pending) {
+					pending.remove(key);
+
+					// Another sender may have replaced the delivery in the meantime
+					if(conflated.delivery != delivery)
+						system.discarded(conflated.delivery);
+				}
+			}
+		}
+
+		if(!queued)
+			return false;
+
+		schedule();
+		return true;
+	}
+
+	/**
+	 * Adds a delivery to the queue, applying the overflow policy if the
+	 * mailbox is full.
+	 *
+	 * @param delivery  the delivery
+	 * @param mayBlock  whether or not the calling thread may wait for space
+	 *
+	 * @return <code>true</code> if the delivery was queued, <code>false</code>
+	 *         if it was rejected
+	 *
+	 * @throws InterruptedException  if interrupted while waiting for space
+	 */
+	private boolean enqueue(Runnable delivery, boolean mayBlock) throws InterruptedException {
+		if(queue.offer(delivery))
+			return true;
+
+		switch(policy) {
+		case BLOCK:
+			if(!mayBlock)
+				return false;
+			queue.put(delivery);
+			return true;
+		case DROP_OLDEST:
+			do {
+				final Runnable oldest = queue.poll();
+				if(oldest != null)
+					discard(oldest);
+			} while(!queue.offer(delivery));
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Hands a delivery that was removed from the queue without being run to
+	 * the delivery system.
+	 *
+	 * @param delivery  the delivery
+	 */
+	private void discard(Runnable delivery) {
+		if(delivery instanceof Conflated) {
+			final Conflated conflated = (Conflated)delivery;
+			synchronized(pending) {
+				pending.remove(conflated.key);
+				delivery = conflated.delivery;
+			}
+		}
+		system.discarded(delivery);
+	}
+
+	/**
+	 * Gets the number of deliveries waiting to be run.
+	 *
+	 * @return the number of deliveries
+	 */
+	int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Hands a task draining this mailbox to the executor, unless one has
+	 * already been handed off.
+	 */
+	private void schedule() {
+		if(scheduled.compareAndSet(false, true)) {
+			try {
+				system.getExecutor().execute(this);
+			} catch(RejectedExecutionException exc) {
+				scheduled.set(false);
+				throw exc;
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			for(int count = 0; count < DRAIN_LIMIT; ++count) {
+				final Runnable delivery = queue.poll();
+				if(delivery == null)
+					break;
+				delivery.run();
+			}
+		} finally {
+			scheduled.set(false);
+			if(!queue.isEmpty())
+				schedule();
+		}
+	}
+
+	/**
+	 * A queued delivery that can be replaced while it is waiting.
+	 */
+	private final class Conflated implements Runnable {
+		private final Object key;
+		private Runnable delivery;
+
+		Conflated(Object key, Runnable delivery) {
+			this.key = key;
+			this.delivery = delivery;
+		}
+
+		@Override
+		public void run() {
+			final Runnable latest;
+			synchronized(pending) {
+				pending.remove(key);
+				latest = delivery;
+			}
+			latest.run();
+		}
+	}
+}
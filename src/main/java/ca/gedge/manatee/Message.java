@@ -36,4 +36,14 @@ import java.lang.annotation.Target;
 public @interface Message {
 	/** The ordered list of argument types for this message */
 	Class<?>[] signature() default {};
+
+	/**
+	 * Whether or not this message is conflated. Only the latest value of a
+	 * conflated message matters, so when a receiver's mailbox already holds
+	 * this message from the same sender, the pending message takes on the
+	 * new arguments instead of another message being queued.
+	 * 
+	 * @see MessageDeliverySystem#setMailboxDelivery(boolean)
+	 */
+	boolean conflate() default false;
 }
@@ -22,13 +22,16 @@
 package ca.gedge.manatee;
 
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
-import ca.gedge.manatee.util.Pair;
 
 /**
  * A class that describes messages sent by a message-sending class.
@@ -38,10 +41,10 @@ class MessageData {
 	private static final Logger LOGGER = Logger.getLogger(MessageData.class.getName()); 
 
 	/** The class that is sending the message */
-	private Class<? extends MessageSender> senderClass;
+	private final Class<? extends MessageSender> senderClass;
 
-	/** Mapping from message names to the classes of the arguments */
-	private Map<String, Class<?>[]> senderMessages;
+	/** Mapping from message names to their descriptors */
+	private final Map<String, MessageDescriptor> senderMessages;
 
 	/**
 	 * Mapping from message name to a mapping of receivers and their
@@ -50,10 +53,10 @@ class MessageData {
 	 * TODO ArrayList of methods so that multiple methods in the same
 	 *      receiver could receive
 	 */
-	private Map<String, Map<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>>> receiverMethods;
+	private final Map<String, Map<Class<? extends MessageReceiver>, ReceiverInvoker>> receiverMethods;
 
 	/** Mapping from message receiver to a catchall method. */
-	private Map<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>> receiverCatchallMethods;
+	private final Map<Class<? extends MessageReceiver>, ReceiverInvoker> receiverCatchallMethods;
 
 	/**
 	 * Default constructor.
@@ -62,55 +65,114 @@ class MessageData {
 	 */
 	MessageData(Class<? extends MessageSender> senderClass) {
 		this.senderClass = senderClass;
-		this.senderMessages = new Hashtable<String, Class<?>[]>();
-		this.receiverMethods = new Hashtable<String, Map<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>>>();
-		this.receiverCatchallMethods = new Hashtable<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>>();
+		this.senderMessages = new Hashtable<String, MessageDescriptor>();
+		this.receiverMethods = new Hashtable<String, Map<Class<? extends MessageReceiver>, ReceiverInvoker>>();
+		this.receiverCatchallMethods = new Hashtable<Class<? extends MessageReceiver>, ReceiverInvoker>();
 
-		// Add all messages from the receiver class
-		for(Field field : senderClass.getDeclaredFields()) {
-			if(field.isAnnotationPresent(Message.class)) {
-				if((field.getModifiers() & Modifier.STATIC) == 0) {
-					LOGGER.warning(String.format("Message field `%s` in `%s` must be static", field.getName(), senderClass));
-					continue;
-				}
+		// Add all messages from the sender class, preferring the generated
+		// dispatcher's description of them if there is one
+		final GeneratedDispatcher dispatcher = DispatcherIndex.find(senderClass);
+		if(dispatcher != null && !dispatcher.getMessages().isEmpty()) {
+			for(Map.Entry<String, Class<?>[]> message : dispatcher.getMessages().entrySet())
+				addMessage(message.getKey(), message.getValue(), dispatcher.isConflated(message.getKey()));
+		} else {
+			for(Field field : senderClass.getDeclaredFields()) {
+				if(field.isAnnotationPresent(Message.class)) {
+					if((field.getModifiers() & Modifier.STATIC) == 0) {
+						LOGGER.warning(String.format("Message field `%s` in `%s` must be static", field.getName(), senderClass));
+						continue;
+					}
 
-				Message msg = field.getAnnotation(Message.class);
-				try {
-					senderMessages.put(field.get(null).toString(), msg.signature());
-				} catch (IllegalArgumentException e) {
-					// should never happen 
-				} catch (IllegalAccessException e) {
-					LOGGER.warning(String.format("Unable to access message field `%s` in `%s`", field.getName(), senderClass)); 
+					Message msg = field.getAnnotation(Message.class);
+					try {
+						addMessage(field.get(null).toString(), msg.signature(), msg.conflate());
+					} catch (IllegalArgumentException e) {
+						// should never happen 
+					} catch (IllegalAccessException e) {
+						LOGGER.warning(String.format("Unable to access message field `%s` in `%s`", field.getName(), senderClass)); 
+					}
 				}
 			}
 		}
+
+		// Messages only declared by a key are added last, so that a key
+		// never decides whether the message of a Message field is conflated
+		addMessageKeys();
+	}
+
+	/**
+	 * Adds the messages of the {@link MessageKey} fields of the sender class.
+	 */
+	private void addMessageKeys() {
+		for(Field field : senderClass.getDeclaredFields()) {
+			if((field.getModifiers() & Modifier.STATIC) == 0 || !MessageKey.class.isAssignableFrom(field.getType()))
+				continue;
+
+			final MessageKey key;
+			try {
+				key = (MessageKey)field.get(null);
+			} catch (IllegalAccessException e) {
+				LOGGER.warning(String.format("Unable to access message key `%s` in `%s`", field.getName(), senderClass));
+				continue;
+			}
+
+			if(key == null || key.getSenderClass() != senderClass)
+				continue;
+
+			final MessageDescriptor descriptor = senderMessages.get(key.getName());
+			if(descriptor == null)
+				addMessage(key.getName(), key.getSignature(), false);
+			else if(!Arrays.equals(descriptor.getSignature(), key.getSignature()))
+				LOGGER.warning(String.format("Message key `%s` in `%s` does not match the signature of its message", field.getName(), senderClass));
+		}
 	}
 
 	/**
-	 * Adds a receiving method for a specified message.
+	 * Adds a message sent by the sender class.
 	 * 
-	 * @param receiver  the method which will be receiving this message
+	 * @param msg        the message name
+	 * @param signature  the ordered list of argument types for the message
+	 * @param conflated  whether or not the message is conflated
+	 */
+	private void addMessage(String msg, Class<?>[] signature, boolean conflated) {
+		senderMessages.put(msg, MessageDescriptor.intern(senderClass, msg, signature, conflated));
+	}
+
+	/**
+	 * Adds an invoker for a receiving method of a specified message.
+	 * 
+	 * @param invoker  the invoker for the method which will be receiving this message
 	 * 
 	 * @return <code>true</code> if the given method can be successfully added as
 	 *         a receiver for the given message, <code>false</code> otherwise.
 	 */
-	boolean addReceiverMethod(String msg, Method receiver) {
-		final Class<? extends MessageReceiver> clz = receiver.getDeclaringClass().asSubclass(MessageReceiver.class);
+	boolean addReceiverInvoker(String msg, ReceiverInvoker invoker) {
+		final Class<? extends MessageReceiver> clz = invoker.getReceiverClass();
 
 		// Warnings
 		if(!senderMessages.containsKey(msg)) {
 			// Issue a warning if we don't yet know of this message
 			LOGGER.warning(String.format(
-				"Registering message \"%s:%s\" from \"%s:%s\" but this message is not yet known",
-				senderClass.getName(), msg, clz.getName(), receiver.getName()
+				"Registering message \"%s:%s\" from \"%s\" but this message is not yet known",
+				senderClass.getName(), msg, invoker.getName()
 			));
 
 			return false;
-		} else if(!receiver.isVarArgs()) {
+		} else if(invoker.isBatch()) {
+			// Batch receivers take a list of argument arrays
+			final Class<?>[] clazzes = invoker.getParameterTypes();
+			if(clazzes.length != 1 || !clazzes[0].isAssignableFrom(List.class)) {
+				LOGGER.warning(String.format(
+					"Registering message \"%s:%s\" from \"%s\" but batch receivers must take only a List",
+					senderClass.getName(), msg, invoker.getName()
+				));
+				return false;
+			}
+		} else if(!invoker.isVarArgs()) {
 			// Issue a warning if we know the message, but the signature of
 			// receiving method doesn't match that of the message
-			Class<?>[] clazzes1 = senderMessages.get(msg);
-			Class<?>[] clazzes2 = receiver.getParameterTypes();
+			Class<?>[] clazzes1 = senderMessages.get(msg).getSignature();
+			Class<?>[] clazzes2 = invoker.getParameterTypes();
 
 			boolean match = (clazzes1.length == clazzes2.length);
 			if(clazzes1.length == clazzes2.length) {
@@ -124,82 +186,111 @@ class MessageData {
 
 			if(!match) {
 				LOGGER.warning(String.format(
-					"Registering message \"%s:%s\" from \"%s:%s\" but its signature does not match",
-					senderClass.getName(), msg, clz.getName(), receiver.getName()
+					"Registering message \"%s:%s\" from \"%s\" but its signature does not match",
+					senderClass.getName(), msg, invoker.getName()
 				));
 				return false;
 			}
 		}
 
 		// Create a new map for the given message, if one doesn't already exist
-		Map<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>> map = receiverMethods.get(msg);
-		if(map == null) {
-			map = new Hashtable<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>>();
-			receiverMethods.put(msg, map);
+		Map<Class<? extends MessageReceiver>, ReceiverInvoker> map;
+		synchronized(receiverMethods) {
+			map = receiverMethods.get(msg);
+			if(map == null) {
+				map = new Hashtable<Class<? extends MessageReceiver>, ReceiverInvoker>();
+				receiverMethods.put(msg, map);
+			}
 		}
 
-		//LOGGER.info(String.format("Adding \"%s:%s\" as a receiver for message \"%s:%s\"%n", clz.getName(), receiver.getName(), senderClass.getName(), msg));
+		//LOGGER.info(String.format("Adding \"%s\" as a receiver for message \"%s:%s\"%n", invoker.getName(), senderClass.getName(), msg));
 
-		map.put(clz, createPair(receiver, msg));
+		map.put(clz, invoker);
 		return true;
 	}
 
 	/**
-	 * Adds a catchall method.
+	 * Adds an invoker for a method subscribing to a topic that a message
+	 * matches. The invoker is only used if the receiver class has no other
+	 * receiving method for the message.
 	 * 
-	 * @param receiver  the method which will be receiving this message
+	 * @param msg      the message name
+	 * @param invoker  the invoker for the method which will be receiving this message
 	 */
-	void addCatchallMethod(Method receiver) {
-		final Class<? extends MessageReceiver> clz = receiver.getDeclaringClass().asSubclass(MessageReceiver.class);
-		receiverCatchallMethods.put(clz, createPair(receiver, null));
+	void addTopicInvoker(String msg, ReceiverInvoker invoker) {
+		Map<Class<? extends MessageReceiver>, ReceiverInvoker> map;
+		synchronized(receiverMethods) {
+			map = receiverMethods.get(msg);
+			if(map == null) {
+				map = new Hashtable<Class<? extends MessageReceiver>, ReceiverInvoker>();
+				receiverMethods.put(msg, map);
+			}
+		}
+
+		synchronized(map) {
+			if(!map.containsKey(invoker.getReceiverClass()))
+				map.put(invoker.getReceiverClass(), invoker);
+		}
 	}
 
 	/**
-	 * Creates a pair between a receiver and its associated {@link ReceiverMethod}
-	 * annotation.
-	 * 
-	 * @param receiver  the receiver method
+	 * Adds an invoker for a catchall method.
 	 * 
-	 * @return the {@link Pair}
+	 * @param invoker  the invoker for the method which will be receiving this message
 	 */
-	private Pair<Method, ReceiverMethod> createPair(Method receiver, String message) {
-		ReceiverMethod annotation = receiver.getAnnotation(ReceiverMethod.class);
-		if(annotation == null) {
-			// Potentially multiple registrations, so find the right one
-			final ReceiverMethods methods = receiver.getAnnotation(ReceiverMethods.class);
-			for(ReceiverMethod receiverMethod : methods.messages()) {
-				if(senderClass.equals(receiverMethod.senderClass())) {
-					if(message == null && receiverMethod.isCatchall()
-					   || receiverMethod.message().equals(message)) 
-					{
-						annotation = receiverMethod;
-						break;
-					}
-				}
-			}
-		}
-
-		return new Pair<Method, ReceiverMethod>(receiver, annotation);
+	void addCatchallInvoker(ReceiverInvoker invoker) {
+		receiverCatchallMethods.put(invoker.getReceiverClass(), invoker);
 	}
 
 	/**
-	 * Fetches a {@link Method} for a given message name and receiver class. 
+	 * Fetches a {@link ReceiverInvoker} for a given message name and receiver class. 
 	 * 
 	 * @param msg  the message name
 	 * @param clz  the {@link MessageReceiver} class
-	 * @return  the {@link Method} associated with the given message name
+	 * @return  the {@link ReceiverInvoker} associated with the given message name
 	 *          and receiver class, if one exists. <code>null</code>
 	 *          otherwise.
 	 */
-	Pair<Method, ReceiverMethod> getReceiverMethod(String msg, Class<? extends MessageReceiver> clz) {
+	ReceiverInvoker getReceiverMethod(String msg, Class<? extends MessageReceiver> clz) {
 		if(receiverMethods.containsKey(msg)) {
-			final Map<Class<? extends MessageReceiver>, Pair<Method, ReceiverMethod>> methods = receiverMethods.get(msg);
+			final Map<Class<? extends MessageReceiver>, ReceiverInvoker> methods = receiverMethods.get(msg);
 			if(methods.containsKey(clz))
 				return methods.get(clz);
 		}
 		return receiverCatchallMethods.get(clz);
 	}
 
+	/**
+	 * Gets whether or not any receiver class has a receiving method for a
+	 * given message, including a catchall method.
+	 * 
+	 * @param msg  the message name
+	 * 
+	 * @return <code>true</code> if some class receives the message,
+	 *         <code>false</code> otherwise
+	 */
+	boolean hasReceiverClasses(String msg) {
+		final Map<Class<? extends MessageReceiver>, ReceiverInvoker> methods = receiverMethods.get(msg);
+		return ((methods != null && !methods.isEmpty()) || !receiverCatchallMethods.isEmpty());
+	}
+
+	/**
+	 * Gets the receiver classes having a receiving method for a given message,
+	 * including those with a catchall method.
+	 * 
+	 * @param msg  the message name
+	 * 
+	 * @return the receiver classes
+	 */
+	Set<Class<? extends MessageReceiver>> getReceiverClasses(String msg) {
+		final Set<Class<? extends MessageReceiver>> classes = new LinkedHashSet<Class<? extends MessageReceiver>>();
+		final Map<Class<? extends MessageReceiver>, ReceiverInvoker> methods = receiverMethods.get(msg);
+		if(methods != null)
+			classes.addAll(methods.keySet());
+		classes.addAll(receiverCatchallMethods.keySet());
+		return classes;
+	}
+
 	/**
 	 * Gets whether or not this instance handles the given message.
 	 * 
@@ -209,4 +300,25 @@ class MessageData {
 	boolean handlesMessage(String msg) {
 		return senderMessages.containsKey(msg);
 	}
+
+	/**
+	 * Gets the descriptors of the messages sent by the sender class.
+	 * 
+	 * @return the descriptors
+	 */
+	Collection<MessageDescriptor> getDescriptors() {
+		return senderMessages.values();
+	}
+
+	/**
+	 * Gets the descriptor of a message sent by the sender class.
+	 * 
+	 * @param msg  the message name
+	 * 
+	 * @return the descriptor, or <code>null</code> if this instance does
+	 *         not handle the message
+	 */
+	MessageDescriptor getDescriptor(String msg) {
+		return senderMessages.get(msg);
+	}
 }
@@ -21,21 +21,43 @@
  */
 package ca.gedge.manatee;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import ca.gedge.manatee.util.Pair;
-import ca.gedge.manatee.util.WeakList;
+import ca.gedge.manatee.util.TopicTrie;
+import ca.gedge.manatee.util.WeakRegistry;
 
 /**
  * The class used to register any messages sent by a {@link MessageSender}
@@ -47,13 +69,15 @@ import ca.gedge.manatee.util.WeakList;
  *   <li>Instances of message receiving classes register themselves as
  *       accepting messages.</li>
  * </ol>
+ * The first two steps are optional: classes are registered the first time
+ * one of their instances is added or sends a message, using the dispatchers
+ * generated for them at compile time when there are some.
  * A note to anyone using this class is that instances are stored using
  * weak references. In other words, there is no need to worry about instances
  * not being garbage collected due to the message delivery system holding on 
  * to a strong reference.
  * 
  * TODO document unchecked exceptions thrown
- * TODO automate registration
  * TODO have catchall methods receive message name as first argument?
  */
 public class MessageDeliverySystem {
@@ -63,14 +87,30 @@ public class MessageDeliverySystem {
 	/** Key for the default messaging system */
 	private static final String DEFAULT_SYS_KEY = "<<default>>";
 
+	/** The default capacity of receiver mailboxes */
+	public static final int DEFAULT_MAILBOX_CAPACITY = 1024;
+
+	/** The start time of calls that are not timed */
+	private static final long UNTIMED = Long.MIN_VALUE;
+
+	/**
+	 * The number of tables a message is delivered through: the table of the
+	 * message, then the tables of the receivers subscribed to the sender
+	 * instance and to the key of the message
+	 */
+	private static final int DISPATCH_PASSES = 3;
+
 	/** Mapping from key to system */
 	private static Map<String, MessageDeliverySystem> systems = new TreeMap<String, MessageDeliverySystem>();
 
 	/** Set of sending classes that have been registered */
-	private HashSet<Class<? extends MessageSender>> registeredSenders;
+	private Set<Class<? extends MessageSender>> registeredSenders;
 
-	/** Set of receiving classes that have been registered */
-	private HashSet<Class<? extends MessageReceiver>> registeredReceivers;
+	/**
+	 * Set of receiving classes that have been registered. A class is only
+	 * added once all of its receiving methods have been registered.
+	 */
+	private Set<Class<? extends MessageReceiver>> registeredReceivers;
 
 	/**
 	 * Gets the default message delivery system.
@@ -103,27 +143,139 @@ public class MessageDeliverySystem {
 	 */
 	public static synchronized MessageDeliverySystem getInstance(String name) {
 		if(!systems.containsKey(name))
-			systems.put(name, new MessageDeliverySystem());
+			systems.put(name, new MessageDeliverySystem(name));
 		return systems.get(name);
 	}
 
 	/** Map from sender classes to corresponding messaging data */
-	private HashMap<Class<? extends MessageSender>, MessageData> messageMap;
+	private ConcurrentMap<Class<? extends MessageSender>, MessageData> messageMap;
+
+	/**
+	 * Receiver instances accepting messages, indexed by their class so that
+	 * building a dispatch table only visits the instances of classes that
+	 * receive the message. Only accessed while holding this system's lock.
+	 */
+	private Map<Class<? extends MessageReceiver>, WeakRegistry<MessageReceiver>> receivers;
+
+	/**
+	 * Receivers subscribed to the messages whose first argument is equal to a
+	 * key, indexed by that key. Receivers subscribed to a sender instance are
+	 * indexed by a {@link SenderKey} for that sender. Dispatch tables keep
+	 * their own index of the receivers accepting their message, so sends
+	 * never look at this one. Only accessed while holding this system's lock.
+	 */
+	private Map<Object, KeyedReceivers> keyedReceivers;
+
+	/**
+	 * The keys each receiver is subscribed to. Only accessed while holding
+	 * this system's lock.
+	 */
+	private Map<MessageReceiver, List<Object>> receiverKeys;
+
+	/**
+	 * Listeners subscribed at runtime, by message. They are held here until
+	 * their subscriptions are closed, since dispatch tables only hold weak
+	 * references. Only accessed while holding this system's lock.
+	 */
+	private Map<MessageDescriptor, List<ListenerSubscription>> listeners;
+
+	/** Queue of the keys of sender instances that have been garbage collected */
+	private ReferenceQueue<MessageSender> collectedSenders;
+
+	/**
+	 * Methods subscribing to topics, by topic pattern. Only accessed while
+	 * holding the lock of this trie.
+	 */
+	private TopicTrie<ReceiverInvoker> topics;
+
+	/**
+	 * The message names resolved for each sender class, and the message
+	 * descriptor they resolve to for that sender class. The whole cache is
+	 * replaced when resolved messages are discarded, so that a resolution
+	 * computed from outdated data is only ever published to a discarded
+	 * cache.
+	 */
+	private volatile ClassValue<ResolvedMessages> resolvedMessages;
+
+	/**
+	 * Dispatch tables, indexed by message identifier. Tables are built lazily
+	 * as messages are sent and patched as receivers are added or removed.
+	 * The array is never modified once published; changes are made to a copy
+	 * while holding this system's lock, so sends can read it without locking.
+	 */
+	private volatile DispatchTable[] dispatchTables;
+
+	/** The number of receivers in the registry, as of the last expunge */
+	private int receiverCount;
+
+	/**
+	 * The number of receivers garbage collected since the dispatch tables
+	 * were last compacted
+	 */
+	private int collectedReceivers;
+
+	/** The executor used for asynchronous deliveries, or <code>null</code> for the default */
+	private volatile Executor executor;
+
+	/**
+	 * The mailboxes of receivers, or <code>null</code> if messages are
+	 * delivered directly. Only accessed while holding this system's lock.
+	 */
+	private Map<MessageReceiver, Mailbox> mailboxes;
+
+	/** The capacity of newly created mailboxes */
+	private int mailboxCapacity = DEFAULT_MAILBOX_CAPACITY;
 
-	/** Receiver instances accepting messages */
-	private List<MessageReceiver> receivers;
+	/** The overflow policy of newly created mailboxes */
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 
 	/** Whether or not messages are sent */
-	private boolean enabled = true;
+	private volatile boolean enabled = true;
+
+	/** The name of this system, as it appears in the names of its MXBeans */
+	private final String name;
+
+	/** The delivery metrics, or <code>null</code> if metrics are disabled */
+	private volatile DeliveryMetrics metrics;
+
+	/** The latency budget of receiving methods that declare none, in nanoseconds, or zero for none */
+	private volatile long latencyBudget;
+
+	/**
+	 * The number of times a receiving method can exceed its latency budget
+	 * before it is demoted to asynchronous delivery, or zero to never demote
+	 */
+	private volatile int demotionThreshold;
+
+	/** Listeners notified of deliveries exceeding their latency budget */
+	private final List<SlowReceiverListener> slowReceiverListeners = new CopyOnWriteArrayList<SlowReceiverListener>();
 
 	/**
 	 * Default constructor
 	 */
 	public MessageDeliverySystem() {
-		this.messageMap = new HashMap<Class<? extends MessageSender>, MessageData>();
-		this.receivers = new WeakList<MessageReceiver>();
-		this.registeredSenders = new HashSet<Class<? extends MessageSender>>();
-		this.registeredReceivers = new HashSet<Class<? extends MessageReceiver>>();
+		this(null);
+	}
+
+	/**
+	 * Constructs a system with a name.
+	 * 
+	 * @param name  the key of the system in {@link #getInstance(String)}, or
+	 *              <code>null</code> if it was not created through it
+	 */
+	private MessageDeliverySystem(String name) {
+		this.name = (name == null ? "anonymous@" + Integer.toHexString(System.identityHashCode(this)) : name);
+		this.messageMap = new ConcurrentHashMap<Class<? extends MessageSender>, MessageData>();
+		this.receivers = new HashMap<Class<? extends MessageReceiver>, WeakRegistry<MessageReceiver>>();
+		this.keyedReceivers = new HashMap<Object, KeyedReceivers>();
+		this.receiverKeys = new WeakHashMap<MessageReceiver, List<Object>>();
+		this.listeners = new HashMap<MessageDescriptor, List<ListenerSubscription>>();
+		this.collectedSenders = new ReferenceQueue<MessageSender>();
+		this.topics = new TopicTrie<ReceiverInvoker>();
+		this.resolvedMessages = newResolvedMessages();
+		this.dispatchTables = new DispatchTable[0];
+		this.registeredSenders = Collections.newSetFromMap(new ConcurrentHashMap<Class<? extends MessageSender>, Boolean>());
+		this.registeredReceivers = Collections.newSetFromMap(new ConcurrentHashMap<Class<? extends MessageReceiver>, Boolean>());
 	}
 
 	/**
@@ -136,6 +288,117 @@ public class MessageDeliverySystem {
 		this.enabled = enabled;
 	}
 
+	/**
+	 * Sets whether or not delivery metrics are recorded. When enabled, this
+	 * system counts the sends of each message, and the deliveries that
+	 * succeeded and failed, and keeps a latency histogram for each receiving
+	 * method. The metrics are registered with the platform MBean server,
+	 * under the <code>ca.gedge.manatee</code> domain and with a
+	 * <code>system</code> key property set to the name this system was given
+	 * in {@link #getInstance(String)}. Disabling metrics unregisters them and
+	 * discards what was recorded. When disabled, nothing is recorded.
+	 * 
+	 * @param enabled  if <code>true</code>, delivery metrics are recorded
+	 * 
+	 * @see MessageMetricsMXBean
+	 * @see ReceiverMetricsMXBean
+	 */
+	public synchronized void setMetricsEnabled(boolean enabled) {
+		if(enabled == (metrics != null))
+			return;
+
+		if(enabled) {
+			metrics = new DeliveryMetrics(name, ManagementFactory.getPlatformMBeanServer());
+		} else {
+			metrics.close();
+			metrics = null;
+		}
+	}
+
+	/**
+	 * Gets whether or not delivery metrics are recorded.
+	 * 
+	 * @return <code>true</code> if metrics are recorded, <code>false</code> otherwise
+	 * 
+	 * @see #setMetricsEnabled(boolean)
+	 */
+	public boolean isMetricsEnabled() {
+		return (metrics != null);
+	}
+
+	/**
+	 * Sets the latency budget of receiving methods that do not declare a
+	 * {@link ReceiverMethod#latencyBudgetMicros() budget of their own}.
+	 * Every call to a receiving method with a budget is timed, and calls
+	 * exceeding the budget are logged and reported to the
+	 * {@link #addSlowReceiverListener(SlowReceiverListener) slow receiver listeners}.
+	 * 
+	 * @param budget  the budget, or zero to only time methods that declare one
+	 * @param unit    the unit of <code>budget</code>
+	 * 
+	 * @throws IllegalArgumentException  if <code>budget</code> is negative
+	 */
+	public void setLatencyBudget(long budget, TimeUnit unit) {
+		if(budget < 0)
+			throw new IllegalArgumentException("Latency budget cannot be negative");
+		this.latencyBudget = unit.toNanos(budget);
+	}
+
+	/**
+	 * Gets the latency budget of receiving methods that do not declare one.
+	 * 
+	 * @param unit  the unit to return the budget in
+	 * 
+	 * @return the budget, or zero if there is none
+	 * 
+	 * @see #setLatencyBudget(long, TimeUnit)
+	 */
+	public long getLatencyBudget(TimeUnit unit) {
+		return unit.convert(latencyBudget, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Sets how many times a receiving method may exceed its latency budget
+	 * before it is demoted to asynchronous delivery, as if it were declared
+	 * {@link ReceiverMethod#async() async}. A demoted method no longer
+	 * delays senders, but no longer receives messages before the send
+	 * returns either. Methods stay demoted once they are.
+	 * 
+	 * @param violations  the number of times, or zero to never demote
+	 * 
+	 * @throws IllegalArgumentException  if <code>violations</code> is negative
+	 */
+	public void setSlowReceiverDemotion(int violations) {
+		if(violations < 0)
+			throw new IllegalArgumentException("Number of violations cannot be negative");
+		this.demotionThreshold = violations;
+	}
+
+	/**
+	 * Adds a listener notified of deliveries exceeding their latency budget.
+	 * 
+	 * @param listener  the listener
+	 * 
+	 * @see #setLatencyBudget(long, TimeUnit)
+	 */
+	public void addSlowReceiverListener(SlowReceiverListener listener) {
+		if(listener == null)
+			throw new NullPointerException();
+		slowReceiverListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener notified of deliveries exceeding their latency budget.
+	 * 
+	 * @param listener  the listener
+	 * 
+	 * @return <code>true</code> if the listener was removed, <code>false</code>
+	 *         if it was never added
+	 */
+	public boolean removeSlowReceiverListener(SlowReceiverListener listener) {
+		return slowReceiverListeners.remove(listener);
+	}
+
 	/**
 	 * Registers a message that will be sent by a class.
 	 * 
@@ -150,35 +413,104 @@ public class MessageDeliverySystem {
 
 	/**
 	 * Registers a receiving class. Currently the only way of registering a receiver.
-	 * All methods having a {@link ReceiverMethod} annotation will be registered.
+	 * All methods having a {@link ReceiverMethod} annotation will be registered,
+	 * including those the class inherits. Overriding a receiving method
+	 * without annotating the override keeps receiving the same messages, while
+	 * annotating it replaces the annotations of the overridden method. If a
+	 * {@link GeneratedDispatcher} exists for a class in the hierarchy, its
+	 * receiving methods are taken from the dispatcher instead of through
+	 * reflection. The receiving methods of each class are only looked up once,
+	 * and shared by all delivery systems.
+	 * 
+	 * Registration is idempotent and takes no lock that is held while other
+	 * classes are initialized, so receiving classes may register from their
+	 * static initializers on any thread. If several threads register the same
+	 * class at once, each of them returns only once the class is registered.
 	 * 
 	 * @param receiver  the receiver class
 	 */
 	public void registerReceiver(Class<? extends MessageReceiver> receiver) {
 		if(!registeredReceivers.contains(receiver)) {
-			for(Method method : receiver.getDeclaredMethods()) {
-				if(method.isAnnotationPresent(ReceiverMethod.class)) {
-					final ReceiverMethod meth = method.getAnnotation(ReceiverMethod.class);
-					final MessageData msgData = getData(meth.senderClass());
-					if(meth.isCatchall())
-						msgData.addCatchallMethod(method);
-					else
-						msgData.addReceiverMethod(meth.message(), method);
+			final List<ReceiverInvoker> topicInvokers = new ArrayList<ReceiverInvoker>();
+			final Set<Class<?>> catchallSenders = new HashSet<Class<?>>();
+			final Set<String> receivedMessages = new HashSet<String>();
+			for(ReceiverInvoker invoker : ClassHierarchy.getReceivingMethods(receiver)) {
+				final ReceiverMethod meth = invoker.getAnnotation();
+				if(!meth.topic().isEmpty()) {
+					topicInvokers.add(invoker);
+					continue;
 				}
 
-				if(method.isAnnotationPresent(ReceiverMethods.class)) {
-					for(ReceiverMethod meth : method.getAnnotation(ReceiverMethods.class).messages()) {
-						final MessageData msgData = getData(meth.senderClass());
-						if(meth.isCatchall())
-							msgData.addCatchallMethod(method);
-						else
-							msgData.addReceiverMethod(meth.message(), method);
-					}
+				// Invokers come nearest first, so only the nearest receiving
+				// method of each message, and the nearest catchall for each
+				// sender class, is kept
+				final MessageData msgData = getData(meth.senderClass());
+				if(!meth.isCatchall()) {
+					if(receivedMessages.add(meth.senderClass().getName() + ":" + meth.message()))
+						msgData.addReceiverInvoker(meth.message(), invoker);
+				} else if(catchallSenders.add(meth.senderClass())) {
+					msgData.addCatchallInvoker(invoker);
 				}
 			}
 
+			addTopicInvokers(topicInvokers);
 			registeredReceivers.add(receiver);
+			clearDispatchTables();
+		}
+	}
+
+	/**
+	 * Adds methods subscribing to topics to the topic trie, and to the data of
+	 * every known sender class with a message matching their topic.
+	 * 
+	 * @param invokers  the invokers of the methods
+	 */
+	private void addTopicInvokers(List<ReceiverInvoker> invokers) {
+		if(invokers.isEmpty())
+			return;
+
+		synchronized(topics) {
+			final TopicTrie<ReceiverInvoker> added = new TopicTrie<ReceiverInvoker>();
+			for(ReceiverInvoker invoker : invokers) {
+				final String topic = invoker.getAnnotation().topic();
+				if(!TopicTrie.isValidPattern(topic)) {
+					LOGGER.warning(String.format("Invalid topic \"%s\" for \"%s\"", topic, invoker.getName()));
+					continue;
+				}
+
+				topics.add(topic, invoker);
+				added.add(topic, invoker);
+			}
+
+			for(MessageData msgData : messageMap.values())
+				applyTopics(msgData, added);
+		}
+	}
+
+	/**
+	 * Adds the methods subscribing to topics matching the messages of a
+	 * sender class to that class' data.
+	 * 
+	 * @param msgData  the message data of the sender class
+	 * @param trie     the topics
+	 * 
+	 * @return <code>true</code> if any methods subscribe to the messages,
+	 *         <code>false</code> otherwise
+	 */
+	private static boolean applyTopics(MessageData msgData, TopicTrie<ReceiverInvoker> trie) {
+		if(trie.isEmpty())
+			return false;
+
+		boolean applied = false;
+		for(MessageDescriptor descriptor : msgData.getDescriptors()) {
+			for(ReceiverInvoker invoker : trie.match(descriptor.getName())) {
+				if(invoker.getAnnotation().senderClass().isAssignableFrom(descriptor.getSenderClass())) {
+					msgData.addTopicInvoker(descriptor.getName(), invoker);
+					applied = true;
+				}
+			}
 		}
+		return applied;
 	}
 
 	/**
@@ -189,91 +521,2482 @@ public class MessageDeliverySystem {
 	public void addReceiver(MessageReceiver receiver) {
 		if(receiver != null) {
 			registerReceiver(receiver.getClass());
-			receivers.add(receiver);
+			synchronized(this) {
+				WeakRegistry<MessageReceiver> registry = receivers.get(receiver.getClass());
+				if(registry == null) {
+					registry = new WeakRegistry<MessageReceiver>();
+					receivers.put(receiver.getClass(), registry);
+				}
+				registry.add(receiver);
+				++receiverCount;
+
+				final Mailbox mailbox = getMailbox(receiver);
+				final DispatchTable[] tables = dispatchTables.clone();
+				for(int id = 0; id < tables.length; ++id) {
+					if(tables[id] != null)
+						tables[id] = tables[id].with(receiver, mailbox);
+				}
+				dispatchTables = tables;
+				expungeReceivers();
+			}
 		}
 	}
 
 	/**
-	 * Unregisters a receiver.
+	 * Registers a new receiver for the messages whose first argument is equal
+	 * to a given key, such as the identifier of the entity the receiver is
+	 * concerned with. The receiver is not called for any other message, nor
+	 * for messages without arguments. Sends find the receivers for a key
+	 * through a hash index, so they never visit receivers subscribed to other
+	 * keys. A receiver may be subscribed to several keys.
 	 * 
 	 * @param receiver  the receiver
-	 * @return  <code>true</code> if the receiver is actually registered,
-	 *          <code>false</code> otherwise.
+	 * @param key       the key, compared to the first argument of messages
+	 *                  with {@link Object#equals(Object)}
+	 * 
+	 * @throws IllegalArgumentException  if <code>key</code> is <code>null</code>
+	 */
+	public void addReceiver(MessageReceiver receiver, Object key) {
+		if(key == null)
+			throw new IllegalArgumentException("key cannot be null");
+
+		if(receiver != null) {
+			registerReceiver(receiver.getClass());
+			addKeyedReceiver(receiver, key);
+		}
+	}
+
+	/**
+	 * Unregisters a receiver from the messages of a given key.
+	 * 
+	 * @param receiver  the receiver
+	 * @param key       the key
+	 * @return  <code>true</code> if the receiver is actually registered for
+	 *          the key, <code>false</code> otherwise.
+	 * 
+	 * @see #addReceiver(MessageReceiver, Object)
 	 */
-	public boolean removeReceiver(MessageReceiver receiver) {
-		return receivers.remove(receiver);
+	public synchronized boolean removeReceiver(MessageReceiver receiver, Object key) {
+		final List<Object> keys = (receiver == null ? null : receiverKeys.get(receiver));
+		if(keys == null || !keys.remove(key))
+			return false;
+
+		if(keys.isEmpty())
+			receiverKeys.remove(receiver);
+		removeKeyedReceiver(receiver, key);
+		return true;
 	}
 
 	/**
-	 * Sends a message to all accepting receivers.
+	 * Registers a new receiver for the messages sent by a particular sender
+	 * instance, rather than by every instance of the sender's class. The
+	 * sender is held weakly, and its subscriptions go away once it has been
+	 * garbage collected. Sends find the receivers of a sender through an identity
+	 * index, so they only visit the receivers subscribed to that sender, in
+	 * addition to the receivers registered with {@link #addReceiver(MessageReceiver)}.
 	 * 
-	 * @param sender  the {@link MessageSender} instance sending the message
-	 * @param msg     the message name
-	 * @param data    the data accompanying the message
+	 * @param receiver  the receiver
+	 * @param sender    the sender instance
+	 * 
+	 * @throws IllegalArgumentException  if <code>sender</code> is <code>null</code>
 	 */
-	public void sendMessage(MessageSender sender, String msg, Object... data) {
-		if(!enabled) return;
+	public void addInstanceReceiver(MessageReceiver receiver, MessageSender sender) {
+		if(sender == null)
+			throw new IllegalArgumentException("sender cannot be null");
 
-		// Check superclasses, if necessary, to find a registered class that handles
-		// the given message.
-		Class<?> current = sender.getClass();
-		MessageData msgData = null;
-		while(current != null && msgData == null) {
-			// Make sure this one understands the message
-			msgData = messageMap.get(current);
-			if(msgData != null && msgData.handlesMessage(msg))
-				break;
-
-			current = current.getSuperclass();
-		}
-
-		//
-		if(msgData != null) {
-			for(MessageReceiver receiver : receivers) {
-				// Make sure this receiver accepts this sender+message combo
-				final Pair<Method, ReceiverMethod> pair = msgData.getReceiverMethod(msg, receiver.getClass());
-				if(pair != null) {
-					final Method m = pair.getFirst();
-					final ReceiverMethod annotation = pair.getSecond();
-					try {
-						if(annotation.isCatchall()) {
-							if(m.isVarArgs()) {
-								m.invoke(receiver, new Object[] { msg, data });
-							} else {
-								m.invoke(receiver, msg, data);
-							}
-						} else {
-							if(m.isVarArgs()) {
-								m.invoke(receiver, new Object[] { data });
-							} else {
-								m.invoke(receiver, data);
-							}
-						}
-					} catch(IllegalArgumentException e) {
-						String method = m.getDeclaringClass().getName() + " : " + m.getName();
-						LOGGER.log(Level.WARNING, "In " + method, e);
-					} catch(IllegalAccessException e) {
-						String method = m.getDeclaringClass().getName() + " : " + m.getName();
-						LOGGER.log(Level.WARNING, "No access to " + method, e);
-					} catch(InvocationTargetException e) {
-						LOGGER.log(Level.WARNING, "Exception during method call", e);
-					}
+		if(receiver != null) {
+			registerSender(sender.getClass());
+			registerReceiver(receiver.getClass());
+			addKeyedReceiver(receiver, new SenderKey(sender, collectedSenders));
+		}
+	}
+
+	/**
+	 * Unregisters a receiver from the messages of a particular sender instance.
+	 * 
+	 * @param receiver  the receiver
+	 * @param sender    the sender instance
+	 * @return  <code>true</code> if the receiver is actually registered for
+	 *          the sender, <code>false</code> otherwise.
+	 * 
+	 * @see #addInstanceReceiver(MessageReceiver, MessageSender)
+	 */
+	public boolean removeInstanceReceiver(MessageReceiver receiver, MessageSender sender) {
+		return (sender != null && removeReceiver(receiver, new SenderKey(sender)));
+	}
+
+	/**
+	 * Adds a receiver to the index of keyed receivers.
+	 * 
+	 * @param receiver  the receiver
+	 * @param key       the key
+	 */
+	private synchronized void addKeyedReceiver(MessageReceiver receiver, Object key) {
+		expungeSenders();
+
+		List<Object> keys = receiverKeys.get(receiver);
+		if(keys == null) {
+			keys = new ArrayList<Object>(1);
+			receiverKeys.put(receiver, keys);
+		}
+		keys.add(key);
+
+		final KeyedReceivers keyed = keyedReceivers.get(key);
+		final Mailbox mailbox = getMailbox(receiver);
+		keyedReceivers.put(key, keyed == null ? new KeyedReceivers(receiver, mailbox) : keyed.with(receiver, mailbox));
+		patchKeyedTables(key);
+	}
+
+	/**
+	 * Replaces the receivers subscribed to a key in every dispatch table. Must
+	 * be called while holding this system's lock.
+	 * 
+	 * @param key  the key
+	 */
+	private void patchKeyedTables(Object key) {
+		final KeyedReceivers keyed = keyedReceivers.get(key);
+		final DispatchTable[] tables = dispatchTables.clone();
+		for(int id = 0; id < tables.length; ++id) {
+			if(tables[id] == null)
+				continue;
+
+			if(keyed == null)
+				tables[id] = tables[id].withKeyed(key, null, null);
+			else
+				tables[id] = tables[id].withKeyed(key, keyed.receivers, keyed.mailboxes);
+		}
+		dispatchTables = tables;
+	}
+
+	/**
+	 * Removes the subscriptions to sender instances that have been garbage
+	 * collected.
+	 */
+	private synchronized void expungeSenders() {
+		for(Reference<? extends MessageSender> ref; (ref = collectedSenders.poll()) != null; ) {
+			final KeyedReceivers keyed = keyedReceivers.remove(ref);
+			if(keyed == null)
+				continue;
+
+			patchKeyedTables(ref);
+
+			// A receiver may hold a different key for the same sender, if
+			// it subscribed to that sender more than once
+			for(WeakReference<MessageReceiver> receiverRef : keyed.receivers) {
+				final MessageReceiver receiver = receiverRef.get();
+				final List<Object> keys = (receiver == null ? null : receiverKeys.get(receiver));
+				if(keys == null)
+					continue;
+
+				for(Iterator<Object> iter = keys.iterator(); iter.hasNext(); ) {
+					final Object key = iter.next();
+					if(key instanceof SenderKey && ((SenderKey)key).get() == null)
+						iter.remove();
 				}
+				if(keys.isEmpty())
+					receiverKeys.remove(receiver);
 			}
 		}
 	}
 
 	/**
-	 * Gets the message data associated with a class.
+	 * Removes a receiver from the index of keyed receivers.
 	 * 
-	 * @return the message data instance (never <code>null</code>)
+	 * @param receiver  the receiver
+	 * @param key       the key
 	 */
-	MessageData getData(Class<? extends MessageSender> clz) {
-		MessageData msgData = messageMap.get(clz);
-		if(msgData == null) {
-			msgData = new MessageData(clz);
-			messageMap.put(clz, msgData);
+	private synchronized void removeKeyedReceiver(MessageReceiver receiver, Object key) {
+		final KeyedReceivers keyed = keyedReceivers.get(key);
+		if(keyed == null)
+			return;
+
+		final KeyedReceivers remaining = keyed.without(receiver);
+		if(remaining == null)
+			keyedReceivers.remove(key);
+		else
+			keyedReceivers.put(key, remaining);
+		patchKeyedTables(key);
+	}
+
+	/**
+	 * Unregisters a receiver, along with all of its keyed and sender instance
+	 * subscriptions.
+	 * 
+	 * @param receiver  the receiver
+	 * @return  <code>true</code> if the receiver is actually registered,
+	 *          <code>false</code> otherwise.
+	 */
+	public synchronized boolean removeReceiver(MessageReceiver receiver) {
+		final List<Object> keys = (receiver == null ? null : receiverKeys.remove(receiver));
+		if(keys != null) {
+			for(Object key : keys)
+				removeKeyedReceiver(receiver, key);
 		}
-		return msgData;
+
+		final WeakRegistry<MessageReceiver> registry = (receiver == null ? null : receivers.get(receiver.getClass()));
+		if(registry == null || !registry.remove(receiver))
+			return (keys != null);
+
+		--receiverCount;
+
+		final DispatchTable[] tables = dispatchTables.clone();
+		for(int id = 0; id < tables.length; ++id) {
+			if(tables[id] != null)
+				tables[id] = tables[id].without(receiver);
+		}
+		dispatchTables = tables;
+		expungeReceivers();
+		return true;
+	}
+
+	/**
+	 * Subscribes a listener to a message without arguments. Unlike receivers,
+	 * listeners are not found through reflection, and are called directly
+	 * through their functional interface. They are held by this system until
+	 * the returned subscription is closed.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * @param listener     the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @throws IllegalArgumentException  if the class does not send the
+	 *                                   message, or if the message does not
+	 *                                   have as many arguments as the
+	 *                                   listener takes
+	 */
+	public Subscription subscribe(Class<? extends MessageSender> senderClass, String msg, Listener.Of0 listener) {
+		return subscribe(senderClass, msg, 0, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with a single argument. The
+	 * argument is cast to the type the listener takes when it is called.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * @param listener     the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @throws IllegalArgumentException  if the class does not send the
+	 *                                   message, or if the message does not
+	 *                                   have as many arguments as the
+	 *                                   listener takes
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of0)
+	 */
+	public <A> Subscription subscribe(Class<? extends MessageSender> senderClass, String msg, Listener.Of1<A> listener) {
+		return subscribe(senderClass, msg, 1, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with two arguments.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param <B>          the type of the second argument
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * @param listener     the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of1)
+	 */
+	public <A, B> Subscription subscribe(Class<? extends MessageSender> senderClass, String msg, Listener.Of2<A, B> listener) {
+		return subscribe(senderClass, msg, 2, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with three arguments.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param <B>          the type of the second argument
+	 * @param <C>          the type of the third argument
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * @param listener     the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of1)
+	 */
+	public <A, B, C> Subscription subscribe(Class<? extends MessageSender> senderClass, String msg, Listener.Of3<A, B, C> listener) {
+		return subscribe(senderClass, msg, 3, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with four arguments.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param <B>          the type of the second argument
+	 * @param <C>          the type of the third argument
+	 * @param <D>          the type of the fourth argument
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * @param listener     the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of1)
+	 */
+	public <A, B, C, D> Subscription subscribe(Class<? extends MessageSender> senderClass, String msg, Listener.Of4<A, B, C, D> listener) {
+		return subscribe(senderClass, msg, 4, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message sent by a class.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * @param arity        the number of arguments the listener takes
+	 * @param listener     the listener
+	 * 
+	 * @return the subscription
+	 */
+	private Subscription subscribe(Class<? extends MessageSender> senderClass, String msg, int arity, Object listener) {
+		registerSender(senderClass);
+		final MessageDescriptor descriptor = resolveMessage(senderClass, msg);
+		if(descriptor == null)
+			throw new IllegalArgumentException(String.format("%s does not send \"%s\"", senderClass.getName(), msg));
+		return subscribe(descriptor, arity, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message without arguments.
+	 * 
+	 * @param key       the message key
+	 * @param listener  the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of0)
+	 */
+	public Subscription subscribe(MessageKey.Of0 key, Listener.Of0 listener) {
+		return subscribe(getMessage(key), 0, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with a single argument.
+	 * 
+	 * @param <A>       the type of the first argument
+	 * @param key       the message key
+	 * @param listener  the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of0)
+	 */
+	public <A> Subscription subscribe(MessageKey.Of1<A> key, Listener.Of1<? super A> listener) {
+		return subscribe(getMessage(key), 1, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with two arguments.
+	 * 
+	 * @param <A>       the type of the first argument
+	 * @param <B>       the type of the second argument
+	 * @param key       the message key
+	 * @param listener  the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of0)
+	 */
+	public <A, B> Subscription subscribe(MessageKey.Of2<A, B> key, Listener.Of2<? super A, ? super B> listener) {
+		return subscribe(getMessage(key), 2, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with three arguments.
+	 * 
+	 * @param <A>       the type of the first argument
+	 * @param <B>       the type of the second argument
+	 * @param <C>       the type of the third argument
+	 * @param key       the message key
+	 * @param listener  the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of0)
+	 */
+	public <A, B, C> Subscription subscribe(MessageKey.Of3<A, B, C> key, Listener.Of3<? super A, ? super B, ? super C> listener) {
+		return subscribe(getMessage(key), 3, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message with four arguments.
+	 * 
+	 * @param <A>       the type of the first argument
+	 * @param <B>       the type of the second argument
+	 * @param <C>       the type of the third argument
+	 * @param <D>       the type of the fourth argument
+	 * @param key       the message key
+	 * @param listener  the listener
+	 * 
+	 * @return the subscription
+	 * 
+	 * @see #subscribe(Class, String, Listener.Of0)
+	 */
+	public <A, B, C, D> Subscription subscribe(MessageKey.Of4<A, B, C, D> key, Listener.Of4<? super A, ? super B, ? super C, ? super D> listener) {
+		return subscribe(getMessage(key), 4, listener);
+	}
+
+	/**
+	 * Subscribes a listener to a message, and adds it to the message's
+	 * dispatch table.
+	 * 
+	 * @param descriptor  the message descriptor
+	 * @param arity       the number of arguments the listener takes
+	 * @param listener    the listener
+	 * 
+	 * @return the subscription
+	 */
+	private Subscription subscribe(MessageDescriptor descriptor, int arity, Object listener) {
+		if(listener == null)
+			throw new IllegalArgumentException("listener cannot be null");
+		if(descriptor.getSignature().length != arity)
+			throw new IllegalArgumentException(String.format("Listener takes %d arguments but \"%s\" has %d", arity, descriptor, descriptor.getSignature().length));
+
+		final ListenerSubscription subscription = new ListenerSubscription(this, descriptor, listener);
+		synchronized(this) {
+			List<ListenerSubscription> subscriptions = listeners.get(descriptor);
+			if(subscriptions == null) {
+				subscriptions = new ArrayList<ListenerSubscription>(1);
+				listeners.put(descriptor, subscriptions);
+			}
+			subscriptions.add(subscription);
+
+			final int id = descriptor.getId();
+			if(id < dispatchTables.length && dispatchTables[id] != null) {
+				final DispatchTable[] tables = dispatchTables.clone();
+				tables[id] = tables[id].with(subscription, subscription.getInvoker(), getMailbox(subscription));
+				dispatchTables = tables;
+			}
+		}
+		return subscription;
+	}
+
+	/**
+	 * Unsubscribes a listener, and removes it from the message's dispatch
+	 * table.
+	 * 
+	 * @param subscription  the subscription of the listener
+	 */
+	synchronized void unsubscribe(ListenerSubscription subscription) {
+		final MessageDescriptor descriptor = subscription.getMessage();
+		final List<ListenerSubscription> subscriptions = listeners.get(descriptor);
+		if(subscriptions == null || !subscriptions.remove(subscription))
+			return;
+
+		if(subscriptions.isEmpty())
+			listeners.remove(descriptor);
+		subscription.deactivate();
+
+		final int id = descriptor.getId();
+		if(id < dispatchTables.length && dispatchTables[id] != null) {
+			final DispatchTable[] tables = dispatchTables.clone();
+			tables[id] = tables[id].remove(subscription);
+			dispatchTables = tables;
+		}
+	}
+
+	/**
+	 * Reclaims the entries of receivers that have been garbage collected. The
+	 * receiver registry is told about collected receivers through a reference
+	 * queue, so this does no work unless receivers have been collected. Once
+	 * collected receivers make up half of the registry, the dispatch tables
+	 * are compacted, which keeps the cost amortized constant per receiver.
+	 */
+	private synchronized void expungeReceivers() {
+		int collected = 0;
+		for(WeakRegistry<MessageReceiver> registry : receivers.values())
+			collected += registry.expunge();
+		if(collected == 0)
+			return;
+
+		receiverCount -= collected;
+		collectedReceivers += collected;
+		if(collectedReceivers < Math.max(receiverCount, 1))
+			return;
+
+		final DispatchTable[] tables = dispatchTables.clone();
+		for(int id = 0; id < tables.length; ++id) {
+			if(tables[id] != null)
+				tables[id] = tables[id].compact();
+		}
+		dispatchTables = tables;
+		collectedReceivers = 0;
+	}
+
+	/**
+	 * Gets the descriptor of a message sent by a class. The sending class is
+	 * registered, if it has not been already.
+	 * 
+	 * @param sender  the sending class
+	 * @param msg     the message name
+	 * 
+	 * @return the descriptor, or <code>null</code> if the class does not
+	 *         send the given message
+	 */
+	public MessageDescriptor getMessage(Class<? extends MessageSender> sender, String msg) {
+		registerSender(sender);
+		return getData(sender).getDescriptor(msg);
+	}
+
+	/**
+	 * Gets the descriptor of the message of a key. The key is only resolved
+	 * the first time, after which its descriptor is fetched from the key
+	 * itself.
+	 * 
+	 * @param key  the message key
+	 * 
+	 * @return the descriptor
+	 * 
+	 * @throws IllegalArgumentException  if the sender class of the key does
+	 *                                   not send a message with the key's
+	 *                                   name and signature
+	 */
+	public MessageDescriptor getMessage(MessageKey key) {
+		final MessageDescriptor descriptor = key.descriptor;
+		return (descriptor == null ? resolveKey(key) : descriptor);
+	}
+
+	/**
+	 * Sends a message to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param data    the data accompanying the message
+	 */
+	public void sendMessage(MessageSender sender, String msg, Object... data) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, data);
+	}
+
+	/**
+	 * Sends a message to all accepting receivers. Receiving methods marked as
+	 * {@link ReceiverMethod#async() asynchronous} are handed to this system's
+	 * executor, and if {@link #setMailboxDelivery(boolean) mailbox delivery}
+	 * is enabled the message is posted to the mailbox of every receiver. All
+	 * other receivers are called before this method returns.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param data    the data accompanying the message
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, Object... data) {
+		if(!enabled) return;
+		recordSent(msg, 1);
+		dispatch(sender, msg, getDispatchTable(msg), data, false);
+	}
+
+	/**
+	 * Sends a message without any arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor)
+	 */
+	public void sendMessage(MessageSender sender, String msg) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor);
+	}
+
+	/**
+	 * Sends a message with one argument to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, Object)
+	 */
+	public void sendMessage(MessageSender sender, String msg, Object a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with two arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, Object, Object)
+	 */
+	public void sendMessage(MessageSender sender, String msg, Object a, Object b) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a, b);
+	}
+
+	/**
+	 * Sends a message with three arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, Object, Object, Object)
+	 */
+	public void sendMessage(MessageSender sender, String msg, Object a, Object b, Object c) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a, b, c);
+	}
+
+	/**
+	 * Sends a message with four arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * @param d       the fourth argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, Object, Object, Object, Object)
+	 */
+	public void sendMessage(MessageSender sender, String msg, Object a, Object b, Object c, Object d) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a, b, c, d);
+	}
+
+	/**
+	 * Sends a message with a single <code>int</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, String msg, int a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with a single <code>long</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, long)
+	 */
+	public void sendMessage(MessageSender sender, String msg, long a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with a single <code>double</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, double)
+	 */
+	public void sendMessage(MessageSender sender, String msg, double a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with a single <code>char</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, char)
+	 */
+	public void sendMessage(MessageSender sender, String msg, char a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with a single <code>short</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, short)
+	 */
+	public void sendMessage(MessageSender sender, String msg, short a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with a single <code>byte</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, byte)
+	 */
+	public void sendMessage(MessageSender sender, String msg, byte a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message with a single <code>float</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param a       the argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, float)
+	 */
+	public void sendMessage(MessageSender sender, String msg, float a) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessage(sender, descriptor, a);
+	}
+
+	/**
+	 * Sends a message without any arguments to all accepting receivers. This,
+	 * and the other overloads taking up to four arguments, deliver the
+	 * message exactly like {@link #sendMessage(MessageSender, MessageDescriptor, Object...)},
+	 * but without allocating an array for the arguments when every receiver
+	 * is called directly on this thread. An array is still created for
+	 * catchall and varargs receiving methods, which take one.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg) {
+		send(sender, msg, 0, null, null, null, null);
+	}
+
+	/**
+	 * Sends a message with one argument to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, Object a) {
+		send(sender, msg, 1, a, null, null, null);
+	}
+
+	/**
+	 * Sends a message with two arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, Object a, Object b) {
+		send(sender, msg, 2, a, b, null, null);
+	}
+
+	/**
+	 * Sends a message with three arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, Object a, Object b, Object c) {
+		send(sender, msg, 3, a, b, c, null);
+	}
+
+	/**
+	 * Sends a message with four arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * @param d       the fourth argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, Object a, Object b, Object c, Object d) {
+		send(sender, msg, 4, a, b, c, d);
+	}
+
+	/**
+	 * Sends a message with a single <code>int</code> argument to all
+	 * accepting receivers. When every receiver is called directly on this
+	 * thread, the value is only boxed for receiving methods whose parameter
+	 * is not a primitive it widens to. If the message declares an argument
+	 * of another type that <code>int</code> widens to, the value is boxed
+	 * into that type's wrapper and sent like any other object. Nothing is
+	 * sent if the message's argument is of a type the value would have to
+	 * be narrowed to, such as <code>short</code>, since that could lose
+	 * part of the value; a warning is logged instead, just like a receiver
+	 * whose signature does not match.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, int a) {
+		if(!enabled) return;
+
+		final Class<?> type = msg.getArgumentType(0);
+		if(type != null && type != int.class && type != Integer.class) {
+			if(widens(msg, int.class))
+				send(sender, msg, 1, ReceiverInvoker.box(a, int.class, type), null, null, null);
+			return;
+		}
+
+		recordSent(msg, 1);
+
+		final DispatchTable table = getDispatchTable(msg);
+		if(!table.isDirect() || table.hasKeyed()) {
+			dispatch(sender, msg, table, new Object[] { a }, false);
+			return;
+		}
+
+		for(int index = 0; index < table.size(); ++index) {
+			final MessageReceiver receiver = table.getReceiver(index);
+			if(receiver != null)
+				deliver(receiver, table.getInvoker(index), msg, a);
+		}
+	}
+
+	/**
+	 * Sends a message with a single <code>long</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, long a) {
+		if(!enabled) return;
+
+		final Class<?> type = msg.getArgumentType(0);
+		if(type != null && type != long.class && type != Long.class) {
+			if(widens(msg, long.class))
+				send(sender, msg, 1, ReceiverInvoker.box(a, long.class, type), null, null, null);
+			return;
+		}
+
+		recordSent(msg, 1);
+
+		final DispatchTable table = getDispatchTable(msg);
+		if(!table.isDirect() || table.hasKeyed()) {
+			dispatch(sender, msg, table, new Object[] { a }, false);
+			return;
+		}
+
+		for(int index = 0; index < table.size(); ++index) {
+			final MessageReceiver receiver = table.getReceiver(index);
+			if(receiver != null)
+				deliver(receiver, table.getInvoker(index), msg, a);
+		}
+	}
+
+	/**
+	 * Sends a message with a single <code>double</code> argument to all
+	 * accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, double a) {
+		if(!enabled) return;
+
+		final Class<?> type = msg.getArgumentType(0);
+		if(type != null && type != double.class && type != Double.class) {
+			if(widens(msg, double.class))
+				send(sender, msg, 1, ReceiverInvoker.box(a, double.class, type), null, null, null);
+			return;
+		}
+
+		recordSent(msg, 1);
+
+		final DispatchTable table = getDispatchTable(msg);
+		if(!table.isDirect() || table.hasKeyed()) {
+			dispatch(sender, msg, table, new Object[] { a }, false);
+			return;
+		}
+
+		for(int index = 0; index < table.size(); ++index) {
+			final MessageReceiver receiver = table.getReceiver(index);
+			if(receiver != null)
+				deliver(receiver, table.getInvoker(index), msg, a);
+		}
+	}
+
+	/**
+	 * Sends a message with a single <code>char</code> argument to all
+	 * accepting receivers. The value is boxed into the wrapper of the
+	 * message's argument type, if it widens to it.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, char a) {
+		if(enabled && widens(msg, char.class))
+			send(sender, msg, 1, ReceiverInvoker.box(a, char.class, msg.getArgumentType(0)), null, null, null);
+	}
+
+	/**
+	 * Sends a message with a single <code>short</code> argument to all
+	 * accepting receivers. The value is boxed into the wrapper of the
+	 * message's argument type, if it widens to it.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, short a) {
+		if(enabled && widens(msg, short.class))
+			send(sender, msg, 1, ReceiverInvoker.box(a, short.class, msg.getArgumentType(0)), null, null, null);
+	}
+
+	/**
+	 * Sends a message with a single <code>byte</code> argument to all
+	 * accepting receivers. The value is boxed into the wrapper of the
+	 * message's argument type, if it widens to it.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, byte a) {
+		if(enabled && widens(msg, byte.class))
+			send(sender, msg, 1, ReceiverInvoker.box(a, byte.class, msg.getArgumentType(0)), null, null, null);
+	}
+
+	/**
+	 * Sends a message with a single <code>float</code> argument to all
+	 * accepting receivers. The value is boxed into the wrapper of the
+	 * message's argument type, if it widens to it.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param a       the argument
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #sendMessage(MessageSender, MessageDescriptor, int)
+	 */
+	public void sendMessage(MessageSender sender, MessageDescriptor msg, float a) {
+		if(enabled && widens(msg, float.class))
+			send(sender, msg, 1, ReceiverInvoker.box(a, float.class, msg.getArgumentType(0)), null, null, null);
+	}
+
+	/**
+	 * Sends a message without any arguments to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param key     the message key
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 * 
+	 * @see #getMessage(MessageKey)
+	 */
+	public void sendMessage(MessageSender sender, MessageKey.Of0 key) {
+		send(sender, getMessage(key), 0, null, null, null, null);
+	}
+
+	/**
+	 * Sends a message with one argument to all accepting receivers. The
+	 * argument must be of the type the key declares.
+	 * 
+	 * @param <A>     the type of the first argument
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param key     the message key
+	 * @param a       the first argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageKey.Of0)
+	 */
+	public <A> void sendMessage(MessageSender sender, MessageKey.Of1<A> key, A a) {
+		send(sender, getMessage(key), 1, a, null, null, null);
+	}
+
+	/**
+	 * Sends a message with two arguments to all accepting receivers.
+	 * 
+	 * @param <A>     the type of the first argument
+	 * @param <B>     the type of the second argument
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param key     the message key
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageKey.Of0)
+	 */
+	public <A, B> void sendMessage(MessageSender sender, MessageKey.Of2<A, B> key, A a, B b) {
+		send(sender, getMessage(key), 2, a, b, null, null);
+	}
+
+	/**
+	 * Sends a message with three arguments to all accepting receivers.
+	 * 
+	 * @param <A>     the type of the first argument
+	 * @param <B>     the type of the second argument
+	 * @param <C>     the type of the third argument
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param key     the message key
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageKey.Of0)
+	 */
+	public <A, B, C> void sendMessage(MessageSender sender, MessageKey.Of3<A, B, C> key, A a, B b, C c) {
+		send(sender, getMessage(key), 3, a, b, c, null);
+	}
+
+	/**
+	 * Sends a message with four arguments to all accepting receivers.
+	 * 
+	 * @param <A>     the type of the first argument
+	 * @param <B>     the type of the second argument
+	 * @param <C>     the type of the third argument
+	 * @param <D>     the type of the fourth argument
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param key     the message key
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * @param d       the fourth argument
+	 * 
+	 * @see #sendMessage(MessageSender, MessageKey.Of0)
+	 */
+	public <A, B, C, D> void sendMessage(MessageSender sender, MessageKey.Of4<A, B, C, D> key, A a, B b, C c, D d) {
+		send(sender, getMessage(key), 4, a, b, c, d);
+	}
+
+	/**
+	 * Checks that a primitive value can be sent as the argument of a message
+	 * without being narrowed, logging a warning if it cannot.
+	 * 
+	 * @param msg        the message descriptor
+	 * @param primitive  the primitive type of the value
+	 * 
+	 * @return <code>true</code> if the value can be sent, <code>false</code>
+	 *         otherwise
+	 */
+	private static boolean widens(MessageDescriptor msg, Class<?> primitive) {
+		if(ReceiverInvoker.widens(primitive, msg.getArgumentType(0)))
+			return true;
+
+		LOGGER.warning(String.format("Sending \"%s\" with a %s argument, but its signature does not match", msg, primitive));
+		return false;
+	}
+
+	/**
+	 * Sends a message with a fixed number of arguments to all accepting
+	 * receivers, only packing the arguments into an array if some receiver
+	 * is not called directly or is subscribed to a key.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param count   the number of arguments
+	 * @param a       the first argument
+	 * @param b       the second argument
+	 * @param c       the third argument
+	 * @param d       the fourth argument
+	 */
+	private void send(MessageSender sender, MessageDescriptor msg, int count, Object a, Object b, Object c, Object d) {
+		if(!enabled) return;
+		recordSent(msg, 1);
+
+		final DispatchTable table = getDispatchTable(msg);
+		if(!table.isDirect() || table.hasKeyed()) {
+			dispatch(sender, msg, table, ReceiverInvoker.pack(count, a, b, c, d), false);
+			return;
+		}
+
+		for(int index = 0; index < table.size(); ++index) {
+			final MessageReceiver receiver = table.getReceiver(index);
+			if(receiver != null)
+				deliver(receiver, table.getInvoker(index), msg, count, a, b, c, d);
+		}
+	}
+
+	/**
+	 * Gets whether or not a message sent by a class has any receivers.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param msg          the message name
+	 * 
+	 * @return <code>true</code> if the message may be received,
+	 *         <code>false</code> if sending it would do nothing
+	 * 
+	 * @see #hasSubscribers(MessageDescriptor)
+	 */
+	public boolean hasSubscribers(Class<? extends MessageSender> senderClass, String msg) {
+		if(!enabled) return false;
+
+		final MessageDescriptor descriptor = resolveMessage(senderClass, msg);
+		return (descriptor != null && hasSubscribers(descriptor));
+	}
+
+	/**
+	 * Gets whether or not a message has any receivers, so that senders can
+	 * skip building the arguments of messages nobody receives. This looks
+	 * for a receiver in the message's dispatch table that has not been
+	 * garbage collected, stopping at the first one. The answer errs on the
+	 * side of <code>true</code> for receivers subscribed to a
+	 * {@link #addReceiver(MessageReceiver, Object) key} or a sender
+	 * instance, which are assumed to match if any of them accepts the
+	 * message.
+	 * 
+	 * @param msg  the message descriptor
+	 * 
+	 * @return <code>true</code> if the message may be received,
+	 *         <code>false</code> if sending it would do nothing
+	 */
+	public boolean hasSubscribers(MessageDescriptor msg) {
+		if(!enabled) return false;
+		return getDispatchTable(msg).hasReceivers();
+	}
+
+	/**
+	 * Sends a message whose arguments are only built if the message has a
+	 * receiver.
+	 * 
+	 * @param sender   the {@link MessageSender} instance sending the message
+	 * @param msg      the message name
+	 * @param payload  builds the data accompanying the message
+	 * 
+	 * @see #sendMessageLazily(MessageSender, MessageDescriptor, Payload)
+	 */
+	public void sendMessageLazily(MessageSender sender, String msg, Payload payload) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessageLazily(sender, descriptor, payload);
+	}
+
+	/**
+	 * Sends a message whose arguments are only built if the message has a
+	 * receiver. The payload is evaluated at most once, on this thread, and
+	 * only if a live receiver is subscribed to the message or to the sender
+	 * instance. Since the key of a message is its first argument, the
+	 * payload is also evaluated if receivers subscribed to a key could
+	 * receive the message. The message is then sent like it would be by
+	 * {@link #sendMessage(MessageSender, MessageDescriptor, Object...)}.
+	 * 
+	 * @param sender   the {@link MessageSender} instance sending the message
+	 * @param msg      the message descriptor
+	 * @param payload  builds the data accompanying the message
+	 * 
+	 * @throws IllegalStateException  if a receiver's mailbox was full and its
+	 *                                overflow policy is {@link OverflowPolicy#FAIL_FAST}
+	 */
+	public void sendMessageLazily(MessageSender sender, MessageDescriptor msg, Payload payload) {
+		if(!enabled) return;
+
+		final DispatchTable table = getDispatchTable(msg);
+		boolean received = table.hasKeyed();
+		for(int index = 0; !received && index < table.size(); ++index)
+			received = (table.getReceiver(index) != null);
+
+		if(received)
+			sendMessage(sender, msg, payload.get());
+		else
+			recordSent(msg, 1);
+	}
+
+	/**
+	 * Sends a message to all accepting receivers, without ever waiting for
+	 * space in a receiver's mailbox.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param data    the data accompanying the message
+	 * 
+	 * @return <code>true</code> if every receiver accepted the message,
+	 *         <code>false</code> if the message was dropped for at least one
+	 *         receiver
+	 * 
+	 * @see #trySendMessage(MessageSender, MessageDescriptor, Object...)
+	 */
+	public boolean trySendMessage(MessageSender sender, String msg, Object... data) {
+		if(!enabled) return true;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		return (descriptor == null || trySendMessage(sender, descriptor, data));
+	}
+
+	/**
+	 * Sends a message to all accepting receivers, without ever waiting for
+	 * space in a receiver's mailbox. Receivers whose mailbox is full do not
+	 * get the message, unless their {@link OverflowPolicy} makes space by
+	 * dropping older messages. All other receivers get the message as they
+	 * would from {@link #sendMessage(MessageSender, MessageDescriptor, Object...)}.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param data    the data accompanying the message
+	 * 
+	 * @return <code>true</code> if every receiver accepted the message,
+	 *         <code>false</code> if the message was dropped for at least one
+	 *         receiver
+	 */
+	public boolean trySendMessage(MessageSender sender, MessageDescriptor msg, Object... data) {
+		if(!enabled) return true;
+		recordSent(msg, 1);
+		return dispatch(sender, msg, getDispatchTable(msg), data, true);
+	}
+
+	/**
+	 * Records that messages were sent, if metrics are enabled.
+	 * 
+	 * @param msg    the message descriptor
+	 * @param count  the number of messages sent
+	 */
+	private void recordSent(MessageDescriptor msg, int count) {
+		final DeliveryMetrics metrics = this.metrics;
+		if(metrics != null)
+			metrics.sent(msg, count);
+	}
+
+	/**
+	 * Sends a message to all accepting receivers.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param table   the dispatch table of the receivers to deliver to, along
+	 *                with its tables of receivers subscribed to keys
+	 * @param data    the data accompanying the message
+	 * @param trying  if <code>true</code>, never wait for space in a mailbox
+	 *                and never fail because a mailbox is full
+	 * 
+	 * @return <code>true</code> if every receiver accepted the message,
+	 *         <code>false</code> otherwise
+	 * 
+	 * @throws IllegalStateException  if not <code>trying</code> and a receiver's
+	 *                                mailbox was full under {@link OverflowPolicy#FAIL_FAST}
+	 * @throws RejectedExecutionException  if not <code>trying</code> and the
+	 *                                     executor did not accept a delivery
+	 */
+	private boolean dispatch(MessageSender sender, MessageDescriptor msg, DispatchTable table, Object[] data, boolean trying) {
+		List<Object[]> asyncData = null;
+		RejectedExecutionException rejected = null;
+		boolean accepted = true;
+		boolean failed = false;
+		for(int pass = 0; pass < DISPATCH_PASSES; ++pass) {
+			final DispatchTable current = getPass(table, pass, sender, first(data));
+			if(current == null)
+				continue;
+
+			for(int index = 0; index < current.size(); ++index) {
+				final MessageReceiver receiver = current.getReceiver(index);
+				if(receiver == null)
+					continue;
+
+				final ReceiverInvoker invoker = current.getInvoker(index);
+				final Mailbox mailbox = current.getMailbox(index);
+				if(mailbox == null && !invoker.isAsync()) {
+					deliver(receiver, invoker, msg, data);
+					continue;
+				}
+
+				if(asyncData == null)
+					asyncData = Collections.singletonList(data == null ? null : data.clone());
+
+				final Delivery delivery = new Delivery(receiver, invoker, msg, asyncData, null);
+				try {
+					if(mailbox == null) {
+						getExecutor().execute(delivery);
+					} else if(!post(mailbox, delivery, sender, msg, !trying)) {
+						accepted = false;
+						failed |= (mailbox.getOverflowPolicy() == OverflowPolicy.FAIL_FAST);
+					}
+				} catch(RejectedExecutionException exc) {
+					// Reported once every other receiver has the message
+					rejected = exc;
+					accepted = false;
+				}
+			}
+		}
+
+		if(rejected != null && !trying)
+			throw rejected;
+		if(failed && !trying)
+			throw new IllegalStateException("Mailbox full, " + msg + " was not delivered to every receiver");
+		return accepted;
+	}
+
+	/**
+	 * Sends a batch of messages to all accepting receivers. Receiving methods
+	 * that accept {@link ReceiverMethod#batch() batches} get the whole batch
+	 * in a single call, and all others get one call for each message. The
+	 * receivers are looked up once for the whole batch.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the messages
+	 * @param msg     the message name
+	 * @param batch   the data accompanying each message
+	 */
+	public void sendMessages(MessageSender sender, String msg, Collection<Object[]> batch) {
+		if(!enabled) return;
+
+		final MessageDescriptor descriptor = resolveMessage(sender.getClass(), msg);
+		if(descriptor != null)
+			sendMessages(sender, descriptor, batch);
+	}
+
+	/**
+	 * Sends a batch of messages to all accepting receivers. Receiving methods
+	 * that accept {@link ReceiverMethod#batch() batches} get the whole batch
+	 * in a single call, and all others get one call for each message. The
+	 * receivers are looked up once for the whole batch, except for
+	 * {@link #addReceiver(MessageReceiver, Object) keyed} receivers, which
+	 * get each message matching their key in a call of its own.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the messages
+	 * @param msg     the message descriptor
+	 * @param batch   the data accompanying each message
+	 * 
+	 * @throws java.util.concurrent.RejectedExecutionException  if the executor
+	 *         does not accept the delivery to an asynchronous receiver. Every
+	 *         other receiver still gets the batch.
+	 */
+	public void sendMessages(MessageSender sender, MessageDescriptor msg, Collection<Object[]> batch) {
+		if(!enabled || batch.isEmpty()) return;
+		recordSent(msg, batch.size());
+
+		final List<Object[]> messages = Collections.unmodifiableList(new ArrayList<Object[]>(batch));
+		final DispatchTable table = getDispatchTable(msg);
+		RejectedExecutionException rejected = null;
+		boolean failed = false;
+		for(int pass = 0; pass < DISPATCH_PASSES; ++pass) {
+			// Receivers subscribed to the sender instance get the whole batch
+			final DispatchTable current = getPass(table, pass, sender, null);
+			if(current == null)
+				continue;
+
+			for(int index = 0; index < current.size(); ++index) {
+				final MessageReceiver receiver = current.getReceiver(index);
+				if(receiver == null)
+					continue;
+
+				final ReceiverInvoker invoker = current.getInvoker(index);
+				final Mailbox mailbox = current.getMailbox(index);
+				if(mailbox == null && !invoker.isAsync()) {
+					deliver(receiver, invoker, msg, messages);
+					continue;
+				}
+
+				// Rejections are only reported once every other receiver has
+				// the batch, so that it is never delivered partway
+				try {
+					if(mailbox == null)
+						getExecutor().execute(new Delivery(receiver, invoker, msg, messages, null));
+					else if(!post(mailbox, new Delivery(receiver, invoker, msg, messages, null), null, null, true))
+						failed |= (mailbox.getOverflowPolicy() == OverflowPolicy.FAIL_FAST);
+				} catch(RejectedExecutionException exc) {
+					rejected = exc;
+				}
+			}
+		}
+
+		// Keyed receivers may differ from one message to the next
+		if(table.hasKeyed()) {
+			for(Object[] data : messages) {
+				final DispatchTable keyed = table.getKeyed(first(data));
+				if(keyed == null)
+					continue;
+
+				try {
+					dispatch(sender, msg, keyed, data, false);
+				} catch(RejectedExecutionException exc) {
+					rejected = exc;
+				} catch(IllegalStateException exc) {
+					failed = true;
+				}
+			}
+		}
+
+		if(rejected != null)
+			throw rejected;
+		if(failed)
+			throw new IllegalStateException("Mailbox full, " + msg + " was not delivered to every receiver");
+	}
+
+	/**
+	 * Sends a message to all accepting receivers without blocking the calling
+	 * thread. The receivers are determined when this method is called, but
+	 * they are called from tasks handed to this system's executor.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message name
+	 * @param data    the data accompanying the message
+	 * 
+	 * @return a future that completes once every receiver has been called
+	 * 
+	 * @throws java.util.concurrent.RejectedExecutionException  if the executor
+	 *         does not accept the delivery
+	 */
+	public Future<Void> sendMessageAsync(MessageSender sender, String msg, Object... data) {
+		final MessageDescriptor descriptor = (enabled ? resolveMessage(sender.getClass(), msg) : null);
+		if(descriptor == null)
+			return new Completion(0);
+
+		return sendMessageAsync(sender, descriptor, data);
+	}
+
+	/**
+	 * Sends a message to all accepting receivers without blocking the calling
+	 * thread. The receivers are determined when this method is called, but
+	 * they are called from tasks handed to this system's executor. If
+	 * {@link #setMailboxDelivery(boolean) mailbox delivery} is enabled, the
+	 * message is posted to each receiver's mailbox before this method returns,
+	 * which may block if a mailbox is full. Otherwise all receivers are called
+	 * from a single task.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param data    the data accompanying the message
+	 * 
+	 * @return a future that completes once every receiver has been called
+	 * 
+	 * @throws java.util.concurrent.RejectedExecutionException  if the executor
+	 *         does not accept the delivery
+	 */
+	public Future<Void> sendMessageAsync(final MessageSender sender, final MessageDescriptor msg, Object... data) {
+		if(!enabled)
+			return new Completion(0);
+
+		recordSent(msg, 1);
+
+		final DispatchTable table = getDispatchTable(msg);
+		final Object first = first(data);
+		final Object[] asyncData = (data == null ? null : data.clone());
+		final List<Object[]> asyncBatch = Collections.singletonList(asyncData);
+
+		// One count for every entry, plus one that is released once every
+		// delivery has been handed off
+		int entries = 0;
+		for(int pass = 0; pass < DISPATCH_PASSES; ++pass) {
+			final DispatchTable current = getPass(table, pass, sender, first);
+			if(current != null)
+				entries += current.size();
+		}
+
+		final Completion completion = new Completion(entries + 1);
+		boolean direct = false;
+		boolean failed = false;
+		for(int pass = 0; pass < DISPATCH_PASSES; ++pass) {
+			final DispatchTable current = getPass(table, pass, sender, first);
+			if(current == null)
+				continue;
+
+			for(int index = 0; index < current.size(); ++index) {
+				final Mailbox mailbox = current.getMailbox(index);
+				if(mailbox == null) {
+					direct = true;
+					continue;
+				}
+
+				final MessageReceiver receiver = current.getReceiver(index);
+				if(receiver == null)
+					completion.countDown();
+				else if(!post(mailbox, new Delivery(receiver, current.getInvoker(index), msg, asyncBatch, completion), sender, msg, true))
+					failed |= (mailbox.getOverflowPolicy() == OverflowPolicy.FAIL_FAST);
+			}
+		}
+
+		if(direct) {
+			getExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					for(int pass = 0; pass < DISPATCH_PASSES; ++pass) {
+						final DispatchTable current = getPass(table, pass, sender, first);
+						if(current == null)
+							continue;
+
+						for(int index = 0; index < current.size(); ++index) {
+							if(current.getMailbox(index) != null)
+								continue;
+
+							final MessageReceiver receiver = current.getReceiver(index);
+							if(receiver != null)
+								deliver(receiver, current.getInvoker(index), msg, asyncData);
+							completion.countDown();
+						}
+					}
+				}
+			});
+		}
+
+		completion.countDown();
+		if(failed)
+			throw new IllegalStateException("Mailbox full, " + msg + " was not delivered to every receiver");
+		return completion;
+	}
+
+	/**
+	 * Sets whether or not messages are delivered through mailboxes. When
+	 * enabled, every receiver gets a bounded mailbox, and messages are posted
+	 * to it instead of being delivered on the sender's thread. The mailboxes
+	 * are drained by this system's executor, so each receiver gets its
+	 * messages one at a time in the order they were sent, while different
+	 * receivers are called in parallel.
+	 * 
+	 * @param enabled  if <code>true</code>, messages are delivered through
+	 *                 mailboxes. Otherwise, they are delivered directly.
+	 * 
+	 * @see #setExecutor(Executor)
+	 * @see #setMailboxCapacity(int)
+	 */
+	public synchronized void setMailboxDelivery(boolean enabled) {
+		if(enabled == (mailboxes != null))
+			return;
+
+		// Mailboxes are only referenced from dispatch tables, so discarding
+		// the tables switches every receiver over. Messages already posted
+		// to a mailbox are still delivered.
+		if(enabled) {
+			mailboxes = new WeakHashMap<MessageReceiver, Mailbox>();
+			for(WeakRegistry<MessageReceiver> registry : receivers.values()) {
+				for(MessageReceiver receiver : registry)
+					getMailbox(receiver);
+			}
+		} else {
+			mailboxes = null;
+		}
+
+		for(Map.Entry<Object, KeyedReceivers> entry : keyedReceivers.entrySet()) {
+			final KeyedReceivers keyed = entry.getValue();
+			final Mailbox[] newMailboxes = new Mailbox[keyed.receivers.length];
+			for(int index = 0; index < newMailboxes.length; ++index) {
+				final MessageReceiver receiver = keyed.receivers[index].get();
+				if(receiver != null)
+					newMailboxes[index] = getMailbox(receiver);
+			}
+			entry.setValue(new KeyedReceivers(keyed.receivers, newMailboxes));
+		}
+		clearDispatchTables();
+	}
+
+	/**
+	 * Sets the capacity of receiver mailboxes created from now on. What
+	 * happens when a message is posted to a full mailbox is decided by the
+	 * {@link #setOverflowPolicy(OverflowPolicy) overflow policy}.
+	 * 
+	 * @param capacity  the maximum number of messages waiting in a mailbox
+	 * 
+	 * @throws IllegalArgumentException  if <code>capacity</code> is not positive
+	 */
+	public synchronized void setMailboxCapacity(int capacity) {
+		if(capacity <= 0)
+			throw new IllegalArgumentException("Mailbox capacity must be positive");
+		this.mailboxCapacity = capacity;
+	}
+
+	/**
+	 * Gets the mailbox of a receiver, creating it if necessary.
+	 * 
+	 * @param receiver  the receiver
+	 * 
+	 * @return the mailbox, or <code>null</code> if messages are delivered
+	 *         directly
+	 */
+	private synchronized Mailbox getMailbox(MessageReceiver receiver) {
+		if(mailboxes == null)
+			return null;
+
+		Mailbox mailbox = mailboxes.get(receiver);
+		if(mailbox == null) {
+			mailbox = new Mailbox(this, mailboxCapacity, overflowPolicy);
+			mailboxes.put(receiver, mailbox);
+		}
+		return mailbox;
+	}
+
+	/**
+	 * Posts a delivery to a mailbox, conflating it with waiting deliveries of
+	 * the same message from the same sender if either the message or the
+	 * receiving method is conflated. Deliveries that are rejected are
+	 * completed right away. If the calling thread is interrupted while
+	 * waiting for space in the mailbox, the delivery is dropped.
+	 * 
+	 * @param mailbox   the mailbox
+	 * @param delivery  the delivery
+	 * @param sender    the {@link MessageSender} instance sending the message,
+	 *                  or <code>null</code> if the delivery is never conflated
+	 * @param msg       the message descriptor, or <code>null</code> if the
+	 *                  delivery is never conflated
+	 * @param mayBlock  whether or not to wait for space in a full mailbox
+	 * 
+	 * @return <code>true</code> if the mailbox accepted the delivery,
+	 *         <code>false</code> otherwise
+	 */
+	private static boolean post(Mailbox mailbox, Delivery delivery, MessageSender sender, MessageDescriptor msg, boolean mayBlock) {
+		boolean accepted = false;
+		try {
+			if(msg != null && (msg.isConflated() || delivery.invoker.isConflated()))
+				accepted = mailbox.post(new ConflationKey(sender, msg), delivery, mayBlock);
+			else
+				accepted = mailbox.post(delivery, mayBlock);
+		} catch(InterruptedException exc) {
+			Thread.currentThread().interrupt();
+			LOGGER.log(Level.WARNING, "Interrupted while posting to the mailbox of " + delivery.invoker.getName(), exc);
+		}
+
+		if(!accepted)
+			delivery.complete();
+		return accepted;
+	}
+
+	/**
+	 * Called by mailboxes when a delivery is dropped or replaced without
+	 * being run.
+	 * 
+	 * @param delivery  the delivery
+	 */
+	void discarded(Runnable delivery) {
+		((Delivery)delivery).complete();
+	}
+
+	/**
+	 * Sets what happens when a message is posted to a full mailbox, for
+	 * mailboxes created from now on. The default is {@link OverflowPolicy#BLOCK}.
+	 * 
+	 * @param policy  the overflow policy
+	 * 
+	 * @see #setMailboxCapacity(int)
+	 */
+	public synchronized void setOverflowPolicy(OverflowPolicy policy) {
+		if(policy == null)
+			throw new NullPointerException("Overflow policy cannot be null");
+		this.overflowPolicy = policy;
+	}
+
+	/**
+	 * Gets the number of messages waiting in all receiver mailboxes. This
+	 * requires a traversal of the mailboxes.
+	 * 
+	 * @return the number of waiting messages
+	 */
+	public synchronized int getQueueDepth() {
+		int depth = 0;
+		if(mailboxes != null) {
+			for(Mailbox mailbox : mailboxes.values())
+				depth += mailbox.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * Gets the number of messages waiting in a receiver's mailbox.
+	 * 
+	 * @param receiver  the receiver
+	 * 
+	 * @return the number of waiting messages, or 0 if the receiver has no
+	 *         mailbox
+	 */
+	public synchronized int getQueueDepth(MessageReceiver receiver) {
+		final Mailbox mailbox = (mailboxes == null ? null : mailboxes.get(receiver));
+		return (mailbox == null ? 0 : mailbox.size());
+	}
+
+	/**
+	 * Sets the executor used for asynchronous deliveries. By default, a
+	 * shared pool of daemon threads is used.
+	 * 
+	 * @param executor  the executor, or <code>null</code> to use the default
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Gets the executor used for asynchronous deliveries.
+	 * 
+	 * @return the executor (never <code>null</code>)
+	 */
+	public Executor getExecutor() {
+		final Executor ret = executor;
+		return (ret == null ? DefaultExecutor.INSTANCE : ret);
+	}
+
+	/**
+	 * Delivers a message to a receiver, logging anything that goes wrong.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param data      the data accompanying the message
+	 */
+	private void deliver(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, Object[] data) {
+		if(invoker.isBatch())
+			data = new Object[] { Collections.singletonList(data) };
+		invoke(receiver, invoker, msg, data, 1);
+	}
+
+	/**
+	 * Delivers a batch of messages to a receiver, logging anything that goes
+	 * wrong. Receiving methods that do not accept batches are called once for
+	 * each message.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param batch     the data accompanying each message
+	 */
+	private void deliver(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, List<Object[]> batch) {
+		if(!invoker.isBatch()) {
+			for(Object[] data : batch)
+				deliver(receiver, invoker, msg, data);
+			return;
+		}
+		invoke(receiver, invoker, msg, new Object[] { batch }, batch.size());
+	}
+
+	/**
+	 * Calls a receiving method, logging anything that goes wrong. The call is
+	 * only timed if metrics are enabled or the method has a latency budget.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param data      the arguments of the receiving method
+	 * @param count     the number of messages delivered by the call
+	 */
+	private void invoke(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, Object[] data, int count) {
+		final long start = startCall(invoker);
+		try {
+			invoker.invoke(receiver, msg.getName(), data);
+			endCall(invoker, msg, count, start);
+		} catch(IllegalArgumentException e) {
+			failedCall(invoker, msg, count, e);
+		} catch(InvocationTargetException e) {
+			failedCall(invoker, msg, count, e);
+		}
+	}
+
+	/**
+	 * Delivers a message with a fixed number of arguments to a receiver,
+	 * logging anything that goes wrong. The receiving method must not take
+	 * batches.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param count     the number of arguments
+	 * @param a         the first argument
+	 * @param b         the second argument
+	 * @param c         the third argument
+	 * @param d         the fourth argument
+	 */
+	private void deliver(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, int count, Object a, Object b, Object c, Object d) {
+		final long start = startCall(invoker);
+		try {
+			invoker.invoke(receiver, msg.getName(), count, a, b, c, d);
+			endCall(invoker, msg, 1, start);
+		} catch(IllegalArgumentException e) {
+			failedCall(invoker, msg, 1, e);
+		} catch(InvocationTargetException e) {
+			failedCall(invoker, msg, 1, e);
+		}
+	}
+
+	/**
+	 * Delivers a message with a single <code>int</code> argument to a
+	 * receiver, logging anything that goes wrong. The receiving method must
+	 * not take batches.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param a         the argument
+	 */
+	private void deliver(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, int a) {
+		final long start = startCall(invoker);
+		try {
+			invoker.invoke(receiver, msg.getName(), a);
+			endCall(invoker, msg, 1, start);
+		} catch(IllegalArgumentException e) {
+			failedCall(invoker, msg, 1, e);
+		} catch(InvocationTargetException e) {
+			failedCall(invoker, msg, 1, e);
+		}
+	}
+
+	/**
+	 * Delivers a message with a single <code>long</code> argument to a
+	 * receiver, logging anything that goes wrong. The receiving method must
+	 * not take batches.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param a         the argument
+	 */
+	private void deliver(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, long a) {
+		final long start = startCall(invoker);
+		try {
+			invoker.invoke(receiver, msg.getName(), a);
+			endCall(invoker, msg, 1, start);
+		} catch(IllegalArgumentException e) {
+			failedCall(invoker, msg, 1, e);
+		} catch(InvocationTargetException e) {
+			failedCall(invoker, msg, 1, e);
+		}
+	}
+
+	/**
+	 * Delivers a message with a single <code>double</code> argument to a
+	 * receiver, logging anything that goes wrong. The receiving method must
+	 * not take batches.
+	 * 
+	 * @param receiver  the receiver
+	 * @param invoker   the invoker for the receiving method
+	 * @param msg       the message
+	 * @param a         the argument
+	 */
+	private void deliver(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, double a) {
+		final long start = startCall(invoker);
+		try {
+			invoker.invoke(receiver, msg.getName(), a);
+			endCall(invoker, msg, 1, start);
+		} catch(IllegalArgumentException e) {
+			failedCall(invoker, msg, 1, e);
+		} catch(InvocationTargetException e) {
+			failedCall(invoker, msg, 1, e);
+		}
+	}
+
+	/**
+	 * Gets the latency budget of a receiving method.
+	 * 
+	 * @param invoker  the invoker for the receiving method
+	 * 
+	 * @return the budget, in nanoseconds, or zero if there is none
+	 */
+	private long getLatencyBudget(ReceiverInvoker invoker) {
+		final long budget = invoker.getLatencyBudget();
+		return (budget > 0 ? budget : latencyBudget);
+	}
+
+	/**
+	 * Starts timing a call to a receiving method, if metrics are enabled or
+	 * the method has a latency budget.
+	 * 
+	 * @param invoker  the invoker for the receiving method
+	 * 
+	 * @return the time the call started, or {@link #UNTIMED}
+	 */
+	private long startCall(ReceiverInvoker invoker) {
+		return (metrics != null || getLatencyBudget(invoker) > 0 ? System.nanoTime() : UNTIMED);
+	}
+
+	/**
+	 * Records a call to a receiving method that returned normally.
+	 * 
+	 * @param invoker  the invoker for the receiving method
+	 * @param msg      the message
+	 * @param count    the number of messages delivered by the call
+	 * @param start    the time the call started, or {@link #UNTIMED}
+	 */
+	private void endCall(ReceiverInvoker invoker, MessageDescriptor msg, int count, long start) {
+		if(start == UNTIMED)
+			return;
+
+		final long latency = System.nanoTime() - start;
+		final DeliveryMetrics metrics = this.metrics;
+		if(metrics != null)
+			metrics.delivered(msg, invoker, count, latency);
+
+		final long budget = getLatencyBudget(invoker);
+		if(budget > 0 && latency > budget)
+			exceededBudget(invoker, msg, latency, budget);
+	}
+
+	/**
+	 * Logs, and records, a call to a receiving method that failed.
+	 * 
+	 * @param invoker  the invoker for the receiving method
+	 * @param msg      the message
+	 * @param count    the number of messages the call would have delivered
+	 * @param e        the {@link IllegalArgumentException} thrown when the
+	 *                 method could not be called, or the
+	 *                 {@link InvocationTargetException} wrapping what the
+	 *                 method threw
+	 */
+	private void failedCall(ReceiverInvoker invoker, MessageDescriptor msg, int count, Exception e) {
+		if(e instanceof InvocationTargetException)
+			LOGGER.log(Level.WARNING, "Exception during method call", e);
+		else
+			LOGGER.log(Level.WARNING, "In " + invoker.getName(), e);
+
+		final DeliveryMetrics metrics = this.metrics;
+		if(metrics != null)
+			metrics.failed(msg, invoker, count);
+	}
+
+	/**
+	 * Reports a call to a receiving method that exceeded its latency budget,
+	 * demoting the method to asynchronous delivery if it did so too often.
+	 * 
+	 * @param invoker  the invoker for the receiving method
+	 * @param msg      the message
+	 * @param latency  how long the call took, in nanoseconds
+	 * @param budget   the latency budget, in nanoseconds
+	 */
+	private void exceededBudget(ReceiverInvoker invoker, MessageDescriptor msg, long latency, long budget) {
+		final int violations = invoker.exceededBudget();
+		final int threshold = demotionThreshold;
+		final boolean demoted = (threshold > 0 && violations >= threshold && invoker.demote());
+		if(demoted) {
+			// Tables only delivering directly must be rebuilt
+			clearDispatchTables();
+		}
+		final SlowDelivery delivery = new SlowDelivery(msg.getSenderClass(), msg.getName(),
+		                                               invoker.getReceiverClass(), invoker.getMethodName(),
+		                                               latency, budget, violations, demoted);
+
+		LOGGER.warning(delivery.toString());
+		for(SlowReceiverListener listener : slowReceiverListeners) {
+			try {
+				listener.slowDelivery(delivery);
+			} catch(RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Exception in slow receiver listener", e);
+			}
+		}
+	}
+
+	/**
+	 * Gets the dispatch table for a message, building it if necessary.
+	 *
+	 * @param msg  the message descriptor
+	 *
+	 * @return the dispatch table (never <code>null</code>)
+	 */
+	DispatchTable getDispatchTable(MessageDescriptor msg) {
+		final DispatchTable[] tables = dispatchTables;
+		final int id = msg.getId();
+		if(id < tables.length && tables[id] != null)
+			return tables[id];
+
+		// Fetch the data outside of the lock, since creating it may need to
+		// initialize the sending class
+		return buildDispatchTable(getData(msg.getSenderClass()), msg);
+	}
+
+	/**
+	 * Gets one of the tables a message is delivered through. The receivers of
+	 * the message come first, followed by the receivers subscribed to the
+	 * sender instance and those subscribed to the key of the message. The key
+	 * of a message is its first argument.
+	 *
+	 * @param table   the dispatch table of the message
+	 * @param pass    the index of the table, less than {@link #DISPATCH_PASSES}
+	 * @param sender  the sender instance, or <code>null</code>
+	 * @param first   the first argument of the message, or <code>null</code>
+	 *
+	 * @return the table, or <code>null</code> if there is none
+	 */
+	private static DispatchTable getPass(DispatchTable table, int pass, MessageSender sender, Object first) {
+		if(pass == 0)
+			return table;
+		if(!table.hasKeyed())
+			return null;
+		if(pass == 1)
+			return table.getSenderKeyed(sender);
+		return table.getKeyed(first);
+	}
+
+	/**
+	 * Gets the first argument of a message.
+	 *
+	 * @param data  the data accompanying the message
+	 *
+	 * @return the first argument, or <code>null</code> if there is none
+	 */
+	private static Object first(Object[] data) {
+		return (data == null || data.length == 0 ? null : data[0]);
+	}
+
+	/**
+	 * Builds the dispatch table for a message, unless another thread has
+	 * already done so.
+	 *
+	 * @param msgData  the message data of the class sending the message
+	 * @param msg      the message descriptor
+	 *
+	 * @return the dispatch table (never <code>null</code>)
+	 */
+	private synchronized DispatchTable buildDispatchTable(MessageData msgData, MessageDescriptor msg) {
+		final int id = msg.getId();
+		if(id < dispatchTables.length && dispatchTables[id] != null)
+			return dispatchTables[id];
+
+		DispatchTable table = DispatchTable.build(msgData, msg, receivers, mailboxes);
+		final List<ListenerSubscription> subscriptions = listeners.get(msg);
+		if(subscriptions != null) {
+			for(ListenerSubscription subscription : subscriptions)
+				table = table.with(subscription, subscription.getInvoker(), getMailbox(subscription));
+		}
+
+		// Only keys with receivers accepting the message are indexed by the
+		// table, so other messages never look keys up
+		if(!keyedReceivers.isEmpty()) {
+			final Map<Object, DispatchTable> keyed = new HashMap<Object, DispatchTable>();
+			for(Iterator<Map.Entry<Object, KeyedReceivers>> iter = keyedReceivers.entrySet().iterator(); iter.hasNext(); ) {
+				final Map.Entry<Object, KeyedReceivers> entry = iter.next();
+				if(entry.getValue().isCollected()) {
+					iter.remove();
+					continue;
+				}
+
+				final DispatchTable keyedTable = table.keyedTable(entry.getValue().receivers, entry.getValue().mailboxes);
+				if(keyedTable != null)
+					keyed.put(entry.getKey(), keyedTable);
+			}
+			table = table.withKeyed(keyed);
+		}
+
+		final DispatchTable[] tables = Arrays.copyOf(dispatchTables, Math.max(id + 1, dispatchTables.length));
+		tables[id] = table;
+		dispatchTables = tables;
+		return table;
+	}
+
+	/**
+	 * Discards all dispatch tables, so that they are rebuilt as needed.
+	 */
+	private synchronized void clearDispatchTables() {
+		dispatchTables = new DispatchTable[dispatchTables.length];
+	}
+
+	/**
+	 * Resolves a message name sent by a given sender class to its descriptor.
+	 *
+	 * @param senderClass  the class of the sender
+	 * @param msg          the message name
+	 *
+	 * @return the message descriptor, or <code>null</code> if no registered
+	 *         class handles the message
+	 */
+	private MessageDescriptor resolveMessage(Class<?> senderClass, String msg) {
+		final ResolvedMessages resolved = resolvedMessages.get(senderClass);
+		final Map<String, MessageDescriptor> messages = resolved.messages;
+		final MessageDescriptor cached = messages.get(msg);
+		if(cached != null || messages.containsKey(msg))
+			return cached;
+
+		// Resolve outside of any lock, since that may initialize classes
+		final MessageData msgData = findData(senderClass, msg);
+		final MessageDescriptor descriptor = (msgData == null ? null : msgData.getDescriptor(msg));
+
+		synchronized(resolved) {
+			final Map<String, MessageDescriptor> updated = new HashMap<String, MessageDescriptor>(resolved.messages);
+			updated.put(msg, descriptor);
+			resolved.messages = updated;
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Creates an empty cache of resolved messages.
+	 *
+	 * @return the cache
+	 */
+	private static ClassValue<ResolvedMessages> newResolvedMessages() {
+		return new ClassValue<ResolvedMessages>() {
+			@Override
+			protected ResolvedMessages computeValue(Class<?> type) {
+				return new ResolvedMessages();
+			}
+		};
+	}
+
+	/**
+	 * Resolves the message of a key, and keeps its descriptor in the key.
+	 *
+	 * @param key  the message key
+	 *
+	 * @return the message descriptor
+	 *
+	 * @throws IllegalArgumentException  if the sender class of the key does
+	 *                                   not send a message with the key's
+	 *                                   name and signature
+	 */
+	private MessageDescriptor resolveKey(MessageKey key) {
+		registerSender(key.getSenderClass());
+		final MessageDescriptor descriptor = getData(key.getSenderClass()).getDescriptor(key.getName());
+		if(descriptor == null || !Arrays.equals(descriptor.getSignature(), key.getSignature()))
+			throw new IllegalArgumentException(String.format("%s is not sent with the signature of its key", key));
+
+		key.descriptor = descriptor;
+		return descriptor;
+	}
+
+	/**
+	 * Finds the message data for a message sent by a given sender class.
+	 * Superclasses and the interfaces extending {@link MessageSender} are
+	 * checked, nearest first, to find a registered class that handles the
+	 * given message.
+	 *
+	 * @param senderClass  the class of the sender
+	 * @param msg          the message name
+	 *
+	 * @return the message data, or <code>null</code> if no registered class
+	 *         handles the message
+	 */
+	private MessageData findData(Class<?> senderClass, String msg) {
+		for(Class<?> current : ClassHierarchy.getSenderClasses(senderClass)) {
+			// Make sure this one understands the message
+			final MessageData msgData = messageMap.get(current);
+			if(msgData != null && msgData.handlesMessage(msg))
+				return msgData;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the message data associated with a class.
+	 * 
+	 * @return the message data instance (never <code>null</code>)
+	 */
+	MessageData getData(Class<? extends MessageSender> clz) {
+		MessageData msgData = messageMap.get(clz);
+		if(msgData == null) {
+			// Creating the data may initialize the sending class, which may
+			// in turn register itself, so it can't be done while holding a
+			// lock. If another thread beats us to it, use its data instead.
+			final MessageData created = new MessageData(clz);
+			msgData = messageMap.putIfAbsent(clz, created);
+			if(msgData == null) {
+				msgData = created;
+
+				// A new sender class can change how messages are resolved
+				resolvedMessages = newResolvedMessages();
+
+				// Its messages may also match topics receivers subscribed to
+				// before it was known
+				final boolean subscribed;
+				synchronized(topics) {
+					subscribed = applyTopics(msgData, topics);
+				}
+				if(subscribed)
+					clearDispatchTables();
+			}
+		}
+		return msgData;
+	}
+
+	/**
+	 * The message names resolved for a sender class.
+	 */
+	private static final class ResolvedMessages {
+		/**
+		 * Mapping of message names to the descriptor they resolve to. The
+		 * mapping is never modified once published; a new mapping replaces
+		 * the old one instead, while holding the lock of this object.
+		 */
+		volatile Map<String, MessageDescriptor> messages = Collections.emptyMap();
+	}
+
+	/**
+	 * A delivery of one or more messages to a single receiver.
+	 */
+	private class Delivery implements Runnable {
+		private final MessageReceiver receiver;
+		private final ReceiverInvoker invoker;
+		private final MessageDescriptor msg;
+		private final List<Object[]> batch;
+		private final Completion completion;
+
+		Delivery(MessageReceiver receiver, ReceiverInvoker invoker, MessageDescriptor msg, List<Object[]> batch, Completion completion) {
+			this.receiver = receiver;
+			this.invoker = invoker;
+			this.msg = msg;
+			this.batch = batch;
+			this.completion = completion;
+		}
+
+		@Override
+		public void run() {
+			try {
+				deliver(receiver, invoker, msg, batch);
+			} finally {
+				complete();
+			}
+		}
+
+		/**
+		 * Marks this delivery as done, whether or not it was run.
+		 */
+		void complete() {
+			if(completion != null)
+				completion.countDown();
+		}
+	}
+
+	/**
+	 * The receivers subscribed to a key, along with their mailboxes. Never
+	 * modified once created; adding or removing a receiver creates a copy.
+	 */
+	private static class KeyedReceivers {
+		/** The receivers */
+		final WeakReference<MessageReceiver>[] receivers;
+
+		/** The mailboxes of the receivers, with <code>null</code> for direct delivery */
+		final Mailbox[] mailboxes;
+
+		@SuppressWarnings("unchecked")
+		KeyedReceivers(MessageReceiver receiver, Mailbox mailbox) {
+			this(new WeakReference[] { new WeakReference<MessageReceiver>(receiver) }, new Mailbox[] { mailbox });
+		}
+
+		KeyedReceivers(WeakReference<MessageReceiver>[] receivers, Mailbox[] mailboxes) {
+			this.receivers = receivers;
+			this.mailboxes = mailboxes;
+		}
+
+		/**
+		 * Creates a copy with a receiver appended to it. Receivers that have
+		 * been garbage collected are left out of the copy.
+		 */
+		@SuppressWarnings("unchecked")
+		KeyedReceivers with(MessageReceiver receiver, Mailbox mailbox) {
+			final List<WeakReference<MessageReceiver>> newReceivers = new ArrayList<WeakReference<MessageReceiver>>(receivers.length + 1);
+			final List<Mailbox> newMailboxes = new ArrayList<Mailbox>(receivers.length + 1);
+			for(int index = 0; index < receivers.length; ++index) {
+				if(receivers[index].get() != null) {
+					newReceivers.add(receivers[index]);
+					newMailboxes.add(mailboxes[index]);
+				}
+			}
+			newReceivers.add(new WeakReference<MessageReceiver>(receiver));
+			newMailboxes.add(mailbox);
+			return new KeyedReceivers(newReceivers.toArray(new WeakReference[newReceivers.size()]),
+			                          newMailboxes.toArray(new Mailbox[newMailboxes.size()]));
+		}
+
+		/**
+		 * Creates a copy without the first entry equal to a receiver, or
+		 * returns <code>null</code> if the copy would be empty.
+		 */
+		@SuppressWarnings("unchecked")
+		KeyedReceivers without(MessageReceiver receiver) {
+			final List<WeakReference<MessageReceiver>> newReceivers = new ArrayList<WeakReference<MessageReceiver>>(receivers.length);
+			final List<Mailbox> newMailboxes = new ArrayList<Mailbox>(receivers.length);
+			boolean removed = false;
+			for(int index = 0; index < receivers.length; ++index) {
+				final MessageReceiver existing = receivers[index].get();
+				if(existing == null)
+					continue;
+
+				if(!removed && receiver.equals(existing)) {
+					removed = true;
+				} else {
+					newReceivers.add(receivers[index]);
+					newMailboxes.add(mailboxes[index]);
+				}
+			}
+
+			if(newReceivers.isEmpty())
+				return null;
+			return new KeyedReceivers(newReceivers.toArray(new WeakReference[newReceivers.size()]),
+			                          newMailboxes.toArray(new Mailbox[newMailboxes.size()]));
+		}
+
+		/**
+		 * Gets whether or not all receivers have been garbage collected.
+		 */
+		boolean isCollected() {
+			for(WeakReference<MessageReceiver> ref : receivers) {
+				if(ref.get() != null)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Identifies the deliveries that conflate with one another: those of the
+	 * same message from the same sender instance.
+	 */
+	private static class ConflationKey {
+		private final MessageSender sender;
+		private final MessageDescriptor msg;
+
+		ConflationKey(MessageSender sender, MessageDescriptor msg) {
+			this.sender = sender;
+			this.msg = msg;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if(!(o instanceof ConflationKey))
+				return false;
+
+			final ConflationKey other = (ConflationKey)o;
+			return (sender == other.sender && msg == other.msg);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(sender) + msg.getId();
+		}
+	}
+
+	/**
+	 * A future that completes once a number of deliveries are done.
+	 */
+	private static class Completion extends FutureTask<Void> {
+		private static final Runnable NOTHING = new Runnable() {
+			@Override
+			public void run() {}
+		};
+
+		private final AtomicInteger remaining;
+
+		Completion(int count) {
+			super(NOTHING, null);
+			this.remaining = new AtomicInteger(count);
+			if(count == 0)
+				set(null);
+		}
+
+		/**
+		 * Marks one of the deliveries as done.
+		 */
+		void countDown() {
+			if(remaining.decrementAndGet() == 0)
+				set(null);
+		}
+	}
+
+	/**
+	 * Holder for the default executor, so that its threads are only created
+	 * if asynchronous delivery is actually used.
+	 */
+	private static class DefaultExecutor {
+		static final ExecutorService INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				final Thread thread = new Thread(r, "manatee-delivery-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 	}
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes a message sent by a message-sending class. Descriptors are
+ * interned, so there is exactly one descriptor for each message of each
+ * sending class, and two descriptors are equal only if they are the same
+ * object. Every descriptor has a small, dense integer identifier, which
+ * delivery systems use to index their dispatch tables.
+ * 
+ * Descriptors are created when a sending class is registered with a
+ * {@link MessageDeliverySystem}, and can be retrieved through
+ * {@link MessageDeliverySystem#getMessage(Class, String)}.
+ */
+public final class MessageDescriptor {
+	/** Interned descriptors, by sender class and message name */
+	private static final Map<Class<?>, Map<String, MessageDescriptor>> descriptors = new HashMap<Class<?>, Map<String, MessageDescriptor>>();
+
+	/** The next identifier to be assigned */
+	private static int nextId = 0;
+
+	/** The class sending the message */
+	private final Class<? extends MessageSender> senderClass;
+
+	/** The message name */
+	private final String name;
+
+	/** The ordered list of argument types for the message */
+	private final Class<?>[] signature;
+
+	/** The identifier of this message */
+	private final int id;
+
+	/** Whether or not this message is conflated */
+	private final boolean conflated;
+
+	/**
+	 * Constructs a descriptor.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param signature    the ordered list of argument types for the message
+	 * @param id           the identifier of the message
+	 * @param conflated    whether or not the message is conflated
+	 */
+	private MessageDescriptor(Class<? extends MessageSender> senderClass, String name, Class<?>[] signature, int id, boolean conflated) {
+		this.senderClass = senderClass;
+		this.name = name;
+		this.signature = signature;
+		this.id = id;
+		this.conflated = conflated;
+	}
+
+	/**
+	 * Gets the descriptor for a message, creating it if necessary.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param signature    the ordered list of argument types for the message
+	 * @param conflated    whether or not the message is conflated
+	 * 
+	 * @return the descriptor
+	 */
+	static synchronized MessageDescriptor intern(Class<? extends MessageSender> senderClass, String name, Class<?>[] signature, boolean conflated) {
+		Map<String, MessageDescriptor> messages = descriptors.get(senderClass);
+		if(messages == null) {
+			messages = new HashMap<String, MessageDescriptor>();
+			descriptors.put(senderClass, messages);
+		}
+
+		MessageDescriptor descriptor = messages.get(name);
+		if(descriptor == null) {
+			descriptor = new MessageDescriptor(senderClass, name, signature.clone(), nextId++, conflated);
+			messages.put(name, descriptor);
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Gets the class sending this message.
+	 * 
+	 * @return the sender class
+	 */
+	public Class<? extends MessageSender> getSenderClass() {
+		return senderClass;
+	}
+
+	/**
+	 * Gets the name of this message.
+	 * 
+	 * @return the message name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the ordered list of argument types for this message.
+	 * 
+	 * @return the signature
+	 */
+	public Class<?>[] getSignature() {
+		return signature.clone();
+	}
+
+	/**
+	 * Gets the type of an argument of this message, without copying the
+	 * signature.
+	 * 
+	 * @param index  the index of the argument
+	 * 
+	 * @return the type, or <code>null</code> if the signature does not have
+	 *         that many arguments
+	 */
+	Class<?> getArgumentType(int index) {
+		return (index < signature.length ? signature[index] : null);
+	}
+
+	/**
+	 * Gets the identifier of this message. Identifiers are assigned
+	 * consecutively, starting from zero.
+	 * 
+	 * @return the identifier
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Gets whether or not this message is conflated.
+	 * 
+	 * @return <code>true</code> if only the latest value of this message
+	 *         matters, <code>false</code> otherwise
+	 * 
+	 * @see Message#conflate()
+	 */
+	public boolean isConflated() {
+		return conflated;
+	}
+
+	@Override
+	public String toString() {
+		return senderClass.getName() + ":" + name;
+	}
+}
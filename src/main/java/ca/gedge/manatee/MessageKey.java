@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * A typed handle on a message, usually declared as a static field of the
+ * class sending it, either next to the message's {@link Message} field or
+ * instead of it:
+ * 
+ * <pre>
+ * public static final MessageKey.Of2&lt;String, Integer&gt; MESSAGE = MessageKey.of(Sender.class, "Message", String.class, Integer.class);
+ * </pre>
+ * 
+ * Sending through a key checks the arguments against the signature of the
+ * message at compile time, and finds the message by the key's identity
+ * rather than by hashing its name. Keys are compared by identity. A key
+ * declared anywhere else must have the name and signature of a message
+ * its sender class declares.
+ */
+public abstract class MessageKey {
+	/** The class sending the message */
+	private final Class<? extends MessageSender> senderClass;
+
+	/** The message name */
+	private final String name;
+
+	/** The ordered list of argument types for the message */
+	private final Class<?>[] signature;
+
+	/**
+	 * The descriptor of the message, once resolved. Descriptors are unique
+	 * to a sender class and message name, so they can be shared by every
+	 * delivery system.
+	 */
+	volatile MessageDescriptor descriptor;
+
+	/**
+	 * Constructs a key.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param signature    the ordered list of argument types for the message
+	 */
+	private MessageKey(Class<? extends MessageSender> senderClass, String name, Class<?>... signature) {
+		if(senderClass == null || name == null)
+			throw new IllegalArgumentException("Message keys need a sender class and a name");
+		this.senderClass = senderClass;
+		this.name = name;
+		this.signature = signature;
+	}
+
+	/**
+	 * Creates a key for a message without arguments.
+	 * 
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * 
+	 * @return the key
+	 */
+	public static Of0 of(Class<? extends MessageSender> senderClass, String name) {
+		return new Of0(senderClass, name);
+	}
+
+	/**
+	 * Creates a key for a message with a single argument.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param a            the type of the first argument
+	 * 
+	 * @return the key
+	 */
+	public static <A> Of1<A> of(Class<? extends MessageSender> senderClass, String name, Class<A> a) {
+		return new Of1<A>(senderClass, name, a);
+	}
+
+	/**
+	 * Creates a key for a message with two arguments.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param <B>          the type of the second argument
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param a            the type of the first argument
+	 * @param b            the type of the second argument
+	 * 
+	 * @return the key
+	 */
+	public static <A, B> Of2<A, B> of(Class<? extends MessageSender> senderClass, String name, Class<A> a, Class<B> b) {
+		return new Of2<A, B>(senderClass, name, a, b);
+	}
+
+	/**
+	 * Creates a key for a message with three arguments.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param <B>          the type of the second argument
+	 * @param <C>          the type of the third argument
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param a            the type of the first argument
+	 * @param b            the type of the second argument
+	 * @param c            the type of the third argument
+	 * 
+	 * @return the key
+	 */
+	public static <A, B, C> Of3<A, B, C> of(Class<? extends MessageSender> senderClass, String name, Class<A> a, Class<B> b, Class<C> c) {
+		return new Of3<A, B, C>(senderClass, name, a, b, c);
+	}
+
+	/**
+	 * Creates a key for a message with four arguments.
+	 * 
+	 * @param <A>          the type of the first argument
+	 * @param <B>          the type of the second argument
+	 * @param <C>          the type of the third argument
+	 * @param <D>          the type of the fourth argument
+	 * @param senderClass  the class sending the message
+	 * @param name         the message name
+	 * @param a            the type of the first argument
+	 * @param b            the type of the second argument
+	 * @param c            the type of the third argument
+	 * @param d            the type of the fourth argument
+	 * 
+	 * @return the key
+	 */
+	public static <A, B, C, D> Of4<A, B, C, D> of(Class<? extends MessageSender> senderClass, String name, Class<A> a, Class<B> b, Class<C> c, Class<D> d) {
+		return new Of4<A, B, C, D>(senderClass, name, a, b, c, d);
+	}
+
+	/**
+	 * Gets the class sending the message.
+	 * 
+	 * @return the sender class
+	 */
+	public Class<? extends MessageSender> getSenderClass() {
+		return senderClass;
+	}
+
+	/**
+	 * Gets the name of the message.
+	 * 
+	 * @return the message name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the ordered list of argument types for the message.
+	 * 
+	 * @return the signature
+	 */
+	public Class<?>[] getSignature() {
+		return signature.clone();
+	}
+
+	@Override
+	public String toString() {
+		return senderClass.getName() + ":" + name;
+	}
+
+	/**
+	 * The key of a message without arguments.
+	 */
+	public static final class Of0 extends MessageKey {
+		private Of0(Class<? extends MessageSender> senderClass, String name) {
+			super(senderClass, name);
+		}
+	}
+
+	/**
+	 * The key of a message with a single argument.
+	 * 
+	 * @param <A>  the type of the first argument
+	 */
+	public static final class Of1<A> extends MessageKey {
+		private Of1(Class<? extends MessageSender> senderClass, String name, Class<A> a) {
+			super(senderClass, name, a);
+		}
+	}
+
+	/**
+	 * The key of a message with two arguments.
+	 * 
+	 * @param <A>  the type of the first argument
+	 * @param <B>  the type of the second argument
+	 */
+	public static final class Of2<A, B> extends MessageKey {
+		private Of2(Class<? extends MessageSender> senderClass, String name, Class<A> a, Class<B> b) {
+			super(senderClass, name, a, b);
+		}
+	}
+
+	/**
+	 * The key of a message with three arguments.
+	 * 
+	 * @param <A>  the type of the first argument
+	 * @param <B>  the type of the second argument
+	 * @param <C>  the type of the third argument
+	 */
+	public static final class Of3<A, B, C> extends MessageKey {
+		private Of3(Class<? extends MessageSender> senderClass, String name, Class<A> a, Class<B> b, Class<C> c) {
+			super(senderClass, name, a, b, c);
+		}
+	}
+
+	/**
+	 * The key of a message with four arguments.
+	 * 
+	 * @param <A>  the type of the first argument
+	 * @param <B>  the type of the second argument
+	 * @param <C>  the type of the third argument
+	 * @param <D>  the type of the fourth argument
+	 */
+	public static final class Of4<A, B, C, D> extends MessageKey {
+		private Of4(Class<? extends MessageSender> senderClass, String name, Class<A> a, Class<B> b, Class<C> c, Class<D> d) {
+			super(senderClass, name, a, b, c, d);
+		}
+	}
+}
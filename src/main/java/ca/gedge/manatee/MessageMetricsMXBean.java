@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * Management interface for the metrics of a message sent by a sender class.
+ * 
+ * @see MessageDeliverySystem#setMetricsEnabled(boolean)
+ */
+public interface MessageMetricsMXBean {
+	/**
+	 * Gets the name of the class sending the message.
+	 * 
+	 * @return the class name
+	 */
+	String getSenderClass();
+
+	/**
+	 * Gets the message name.
+	 * 
+	 * @return the message name
+	 */
+	String getMessage();
+
+	/**
+	 * Gets the number of times the message was sent.
+	 * 
+	 * @return the number of sends
+	 */
+	long getSendCount();
+
+	/**
+	 * Gets the number of times a receiving method was called with the message
+	 * and returned normally.
+	 * 
+	 * @return the number of deliveries
+	 */
+	long getDeliveryCount();
+
+	/**
+	 * Gets the number of deliveries where the receiving method could not be
+	 * called, or threw an exception.
+	 * 
+	 * @return the number of failed deliveries
+	 */
+	long getFailedDeliveryCount();
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A high-throughput path for sending messages. Messages are written into a
+ * preallocated ring of slots and delivered by a consumer thread, so
+ * publishing a message allocates nothing. The consumer delivers messages in
+ * the order they were published, using the same dispatch tables as
+ * {@link MessageDeliverySystem#sendMessage(MessageSender, MessageDescriptor, Object...)}.
+ * 
+ * Publishing claims the next sequence number, waits for its slot to be free,
+ * fills the slot and then marks it as published. Any number of threads may
+ * publish concurrently.
+ * 
+ * The arguments given to receiving methods live in the ring, and are
+ * overwritten once the ring wraps around. Receivers must not hold on to
+ * the argument array they are given.
+ */
+public class MessagePipeline {
+	/** Logger */
+	private static final Logger LOGGER = Logger.getLogger(MessagePipeline.class.getName());
+
+	/** The maximum number of arguments a message sent through a pipeline can have */
+	public static final int MAX_ARGUMENTS = 8;
+
+	/** Number of pipelines created, used to name their threads */
+	private static final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * A slot in the ring.
+	 */
+	private static final class Slot {
+		/** The sequence number of the message published in this slot, or -1 */
+		volatile long sequence = -1;
+
+		MessageSender sender;
+		MessageDescriptor message;
+		Object[] arguments;
+
+		/** Argument arrays for every possible number of arguments */
+		final Object[][] argumentArrays = new Object[MAX_ARGUMENTS + 1][];
+
+		Slot() {
+			for(int length = 0; length <= MAX_ARGUMENTS; ++length)
+				argumentArrays[length] = new Object[length];
+		}
+
+		/**
+		 * Fills this slot, except for the argument values.
+		 */
+		Object[] fill(MessageSender sender, MessageDescriptor message, int argumentCount) {
+			this.sender = sender;
+			this.message = message;
+			this.arguments = argumentArrays[argumentCount];
+			return arguments;
+		}
+
+		/**
+		 * Clears the references held by this slot.
+		 */
+		void clear() {
+			sender = null;
+			message = null;
+			for(int index = 0; index < arguments.length; ++index)
+				arguments[index] = null;
+			arguments = null;
+		}
+	}
+
+	/** The system delivering messages */
+	private final MessageDeliverySystem system;
+
+	/** How threads wait for one another */
+	private final WaitStrategy waitStrategy;
+
+	/** The ring of slots */
+	private final Slot[] slots;
+
+	/** Mask to turn a sequence number into an index into the ring */
+	private final int mask;
+
+	/** The next sequence number to be claimed by a producer */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/** The sequence number of the last message delivered by the consumer */
+	private volatile long consumed = -1;
+
+	/** Whether or not the consumer is blocked waiting for a message */
+	private volatile boolean consumerWaiting;
+
+	/** Whether or not the consumer should keep running */
+	private volatile boolean running;
+
+	/** The consumer thread */
+	private Thread consumer;
+
+	/**
+	 * Constructs a pipeline.
+	 * 
+	 * @param system        the system delivering messages
+	 * @param capacity      the number of slots in the ring, which must be a
+	 *                      power of two
+	 * @param waitStrategy  how threads wait for one another
+	 * 
+	 * @throws IllegalArgumentException  if <code>capacity</code> is not a
+	 *                                   positive power of two
+	 */
+	public MessagePipeline(MessageDeliverySystem system, int capacity, WaitStrategy waitStrategy) {
+		if(capacity <= 0 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Pipeline capacity must be a power of two");
+
+		this.system = system;
+		this.waitStrategy = waitStrategy;
+		this.slots = new Slot[capacity];
+		this.mask = capacity - 1;
+		for(int index = 0; index < capacity; ++index)
+			slots[index] = new Slot();
+	}
+
+	/**
+	 * Starts the consumer thread.
+	 * 
+	 * @throws IllegalStateException  if the pipeline has already been started
+	 */
+	public synchronized void start() {
+		if(consumer != null)
+			throw new IllegalStateException("Pipeline already started");
+
+		running = true;
+		consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		}, "manatee-pipeline-" + count.incrementAndGet());
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Stops the consumer thread, waiting for it to deliver every message that
+	 * was published before this method was called.
+	 * 
+	 * @throws InterruptedException  if interrupted while waiting for the
+	 *                               consumer to stop
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if(consumer == null)
+			return;
+
+		running = false;
+		synchronized(this.slots) {
+			this.slots.notifyAll();
+		}
+		consumer.join();
+		consumer = null;
+	}
+
+	/**
+	 * Publishes a message without arguments.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 */
+	public void publish(MessageSender sender, MessageDescriptor msg) {
+		final long sequence = claim();
+		slots[(int)sequence & mask].fill(sender, msg, 0);
+		commit(sequence);
+	}
+
+	/**
+	 * Publishes a message with one argument.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param arg0    the first argument
+	 */
+	public void publish(MessageSender sender, MessageDescriptor msg, Object arg0) {
+		final long sequence = claim();
+		final Object[] args = slots[(int)sequence & mask].fill(sender, msg, 1);
+		args[0] = arg0;
+		commit(sequence);
+	}
+
+	/**
+	 * Publishes a message with two arguments.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param arg0    the first argument
+	 * @param arg1    the second argument
+	 */
+	public void publish(MessageSender sender, MessageDescriptor msg, Object arg0, Object arg1) {
+		final long sequence = claim();
+		final Object[] args = slots[(int)sequence & mask].fill(sender, msg, 2);
+		args[0] = arg0;
+		args[1] = arg1;
+		commit(sequence);
+	}
+
+	/**
+	 * Publishes a message with three arguments.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param arg0    the first argument
+	 * @param arg1    the second argument
+	 * @param arg2    the third argument
+	 */
+	public void publish(MessageSender sender, MessageDescriptor msg, Object arg0, Object arg1, Object arg2) {
+		final long sequence = claim();
+		final Object[] args = slots[(int)sequence & mask].fill(sender, msg, 3);
+		args[0] = arg0;
+		args[1] = arg1;
+		args[2] = arg2;
+		commit(sequence);
+	}
+
+	/**
+	 * Publishes a message with any number of arguments, up to
+	 * {@link #MAX_ARGUMENTS}. The arguments are copied into the ring.
+	 * 
+	 * @param sender  the {@link MessageSender} instance sending the message
+	 * @param msg     the message descriptor
+	 * @param data    the data accompanying the message
+	 * 
+	 * @throws IllegalArgumentException  if there are too many arguments
+	 */
+	public void publishArray(MessageSender sender, MessageDescriptor msg, Object[] data) {
+		final int length = (data == null ? 0 : data.length);
+		if(length > MAX_ARGUMENTS)
+			throw new IllegalArgumentException(String.format("At most %d arguments can be published, but got %d", MAX_ARGUMENTS, length));
+
+		final long sequence = claim();
+		final Object[] args = slots[(int)sequence & mask].fill(sender, msg, length);
+		if(length > 0)
+			System.arraycopy(data, 0, args, 0, length);
+		commit(sequence);
+	}
+
+	/**
+	 * Claims the next sequence number, waiting until its slot is free.
+	 * 
+	 * @return the sequence number
+	 */
+	private long claim() {
+		final long sequence = claimed.getAndIncrement();
+		final long wrapPoint = sequence - slots.length;
+		for(int attempts = 0; wrapPoint > consumed; ++attempts)
+			waitStrategy.idle(attempts);
+		return sequence;
+	}
+
+	/**
+	 * Marks a claimed slot as published, waking up the consumer if necessary.
+	 * 
+	 * @param sequence  the sequence number of the slot
+	 */
+	private void commit(long sequence) {
+		slots[(int)sequence & mask].sequence = sequence;
+		if(consumerWaiting) {
+			synchronized(slots) {
+				slots.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Delivers published messages until stopped.
+	 */
+	private void consume() {
+		long next = consumed + 1;
+		int attempts = 0;
+		while(true) {
+			final Slot slot = slots[(int)next & mask];
+			if(slot.sequence != next) {
+				// Everything published before the pipeline was stopped must
+				// be delivered, so check the slot again after seeing the stop
+				if(!running) {
+					if(slot.sequence != next)
+						break;
+					continue;
+				}
+
+				if(waitStrategy == WaitStrategy.BLOCKING)
+					block(slot, next);
+				else
+					waitStrategy.idle(attempts++);
+				continue;
+			}
+
+			try {
+				system.sendMessage(slot.sender, slot.message, slot.arguments);
+			} catch(RuntimeException exc) {
+				LOGGER.log(Level.WARNING, "Unable to deliver " + slot.message, exc);
+			} finally {
+				slot.clear();
+				consumed = next++;
+				attempts = 0;
+			}
+		}
+	}
+
+	/**
+	 * Blocks the consumer until a slot is published or the pipeline is stopped.
+	 * 
+	 * @param slot      the slot
+	 * @param sequence  the sequence number being waited for
+	 */
+	private void block(Slot slot, long sequence) {
+		synchronized(slots) {
+			consumerWaiting = true;
+			try {
+				while(slot.sequence != sequence && running)
+					slots.wait();
+			} catch(InterruptedException exc) {
+				Thread.currentThread().interrupt();
+				running = false;
+			} finally {
+				consumerWaiting = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * What happens when a message is posted to a receiver's mailbox that is
+ * already full.
+ * 
+ * @see MessageDeliverySystem#setOverflowPolicy(OverflowPolicy)
+ */
+public enum OverflowPolicy {
+	/** The sender waits until there is space in the mailbox */
+	BLOCK,
+
+	/** The new message is dropped */
+	DROP_NEWEST,
+
+	/** The oldest message waiting in the mailbox is dropped to make space */
+	DROP_OLDEST,
+
+	/**
+	 * The new message is dropped, and sending it throws an
+	 * {@link IllegalStateException} once every other receiver has been
+	 * given the message
+	 */
+	FAIL_FAST
+}
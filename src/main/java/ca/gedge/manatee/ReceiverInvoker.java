@@ -0,0 +1,972 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Invokes a method having a {@link ReceiverMethod} annotation. Receiving
+ * methods are either called through a {@link MethodHandle} that has all
+ * argument shaping (catchall and varargs methods) already applied, or
+ * directly by a {@link GeneratedDispatcher}, so that a delivery never goes
+ * through a reflective {@link Method#invoke(Object, Object...)}. Methods
+ * taking up to {@link #MAX_FIXED_ARITY} arguments can also be called
+ * without packing the arguments into an array, and methods taking a single
+ * <code>int</code>, <code>long</code> or <code>double</code> without boxing
+ * it. Listeners subscribed at runtime are called directly through their
+ * functional interface.
+ */
+abstract class ReceiverInvoker {
+	/** The largest number of arguments that can be passed without an array */
+	static final int MAX_FIXED_ARITY = 4;
+
+	/** Arguments of messages sent without any */
+	static final Object[] NO_ARGUMENTS = new Object[0];
+
+	/** Numeric primitive types, each widening to those after it */
+	private static final List<Class<?>> WIDENING = Arrays.<Class<?>>asList(byte.class, short.class, int.class, long.class, float.class, double.class);
+
+	/** The class of the receivers, which declares or inherits the receiving method */
+	private final Class<? extends MessageReceiver> receiverClass;
+
+	/** The name of the receiving method */
+	private final String methodName;
+
+	/** The annotation describing the receiving method */
+	private final ReceiverMethod annotation;
+
+	/** The parameter types of the receiving method */
+	private final Class<?>[] parameterTypes;
+
+	/** Whether or not the receiving method takes a variable number of arguments */
+	private final boolean varArgs;
+
+	/** The number of arguments the method expects, or -1 if any number is accepted */
+	private final int arity;
+
+	/** Whether or not the receiving method receives messages asynchronously */
+	private final boolean async;
+
+	/** Whether or not the receiving method receives messages in batches */
+	private final boolean batch;
+
+	/** Whether or not the receiving method only needs the latest value of a message */
+	private final boolean conflated;
+
+	/** The latency budget of the receiving method, in nanoseconds, or zero if it has none */
+	private final long latencyBudget;
+
+	/** The number of deliveries that exceeded the latency budget */
+	private final AtomicInteger budgetViolations = new AtomicInteger();
+
+	/** Whether or not the receiving method was demoted to asynchronous delivery */
+	private final AtomicBoolean demoted = new AtomicBoolean();
+
+	/**
+	 * Constructs an invoker.
+	 *
+	 * @param receiverClass   the class of the receivers
+	 * @param methodName      the name of the receiving method
+	 * @param annotation      the annotation describing the receiving method
+	 * @param parameterTypes  the parameter types of the receiving method
+	 * @param varArgs         whether or not the receiving method takes a
+	 *                        variable number of arguments
+	 */
+	private ReceiverInvoker(Class<? extends MessageReceiver> receiverClass, String methodName, ReceiverMethod annotation, Class<?>[] parameterTypes, boolean varArgs) {
+		this.receiverClass = receiverClass;
+		this.methodName = methodName;
+		this.annotation = annotation;
+		this.parameterTypes = parameterTypes;
+		this.varArgs = varArgs;
+		this.arity = (receivesName(annotation) || varArgs ? -1 : parameterTypes.length);
+		this.async = annotation.async();
+		this.batch = (annotation.batch() && !receivesName(annotation));
+		this.conflated = annotation.conflate();
+		this.latencyBudget = TimeUnit.MICROSECONDS.toNanos(Math.max(annotation.latencyBudgetMicros(), 0));
+	}
+
+	/**
+	 * Constructs an invoker for a receiving method without an annotation,
+	 * which receives messages directly, one at a time.
+	 *
+	 * @param receiverClass   the class of the receiver
+	 * @param methodName      the name of the receiving method
+	 * @param parameterTypes  the parameter types of the receiving method
+	 */
+	private ReceiverInvoker(Class<? extends MessageReceiver> receiverClass, String methodName, Class<?>[] parameterTypes) {
+		this.receiverClass = receiverClass;
+		this.methodName = methodName;
+		this.annotation = null;
+		this.parameterTypes = parameterTypes;
+		this.varArgs = false;
+		this.arity = parameterTypes.length;
+		this.async = false;
+		this.batch = false;
+		this.conflated = false;
+		this.latencyBudget = 0;
+	}
+
+	/**
+	 * Gets whether or not a receiving method gets the message name followed
+	 * by the arguments, which is the case for catchall methods and methods
+	 * subscribing to a topic.
+	 *
+	 * @param annotation  the annotation describing the receiving method
+	 *
+	 * @return <code>true</code> if the method receives the message name,
+	 *         <code>false</code> otherwise
+	 */
+	static boolean receivesName(ReceiverMethod annotation) {
+		return (annotation.isCatchall() || !annotation.topic().isEmpty());
+	}
+
+	/**
+	 * Creates an invoker for a receiving method found through reflection.
+	 *
+	 * @param method      the receiving method
+	 * @param annotation  the annotation describing the receiving method
+	 *
+	 * @return the invoker
+	 *
+	 * @throws IllegalAccessException  if the method is not accessible
+	 * @throws IllegalArgumentException  if the method's signature is not one
+	 *                                   that can receive messages
+	 */
+	static InheritableInvoker forMethod(Method method, ReceiverMethod annotation) throws IllegalAccessException {
+		return new HandleInvoker(method.getDeclaringClass().asSubclass(MessageReceiver.class), method, annotation);
+	}
+
+	/**
+	 * Creates an invoker for a receiving method called by a generated dispatcher.
+	 *
+	 * @param dispatcher      the dispatcher
+	 * @param index           the index the dispatcher uses for the method
+	 * @param methodName      the name of the receiving method
+	 * @param annotation      the annotation describing the receiving method
+	 * @param parameterTypes  the parameter types of the receiving method
+	 * @param varArgs         whether or not the receiving method takes a
+	 *                        variable number of arguments
+	 *
+	 * @return the invoker
+	 */
+	static InheritableInvoker forDispatcher(GeneratedDispatcher dispatcher, int index, String methodName, ReceiverMethod annotation, Class<?>[] parameterTypes, boolean varArgs) {
+		return new DispatcherInvoker(dispatcher.getTargetClass().asSubclass(MessageReceiver.class), dispatcher, index, methodName, annotation, parameterTypes, varArgs);
+	}
+
+	/**
+	 * Creates an invoker for a listener subscribed at runtime.
+	 *
+	 * @param listener        the listener, one of the interfaces in {@link Listener}
+	 * @param parameterTypes  the signature of the message the listener
+	 *                        receives, which has as many types as the
+	 *                        listener takes arguments
+	 *
+	 * @return the invoker
+	 */
+	static ReceiverInvoker forListener(Object listener, Class<?>[] parameterTypes) {
+		return new ListenerInvoker(listener, parameterTypes);
+	}
+
+	/**
+	 * Gets the receiving method, if it was found through reflection.
+	 *
+	 * @return the method, or <code>null</code> if the method is called by a
+	 *         generated dispatcher
+	 */
+	Method getMethod() {
+		return null;
+	}
+
+	/**
+	 * Gets the class of the receivers this invoker is for, which is either
+	 * the class declaring the receiving method or a subclass of it.
+	 *
+	 * @return the class
+	 */
+	Class<? extends MessageReceiver> getReceiverClass() {
+		return receiverClass;
+	}
+
+	/**
+	 * Gets the annotation describing the receiving method.
+	 *
+	 * @return the annotation, or <code>null</code> for listeners
+	 */
+	ReceiverMethod getAnnotation() {
+		return annotation;
+	}
+
+	/**
+	 * Gets the parameter types of the receiving method.
+	 *
+	 * @return the parameter types
+	 */
+	Class<?>[] getParameterTypes() {
+		return parameterTypes.clone();
+	}
+
+	/**
+	 * Gets whether or not the receiving method takes a variable number of arguments.
+	 *
+	 * @return <code>true</code> if the method is a varargs method,
+	 *         <code>false</code> otherwise
+	 */
+	boolean isVarArgs() {
+		return varArgs;
+	}
+
+	/**
+	 * Gets whether or not the receiving method receives messages asynchronously.
+	 *
+	 * @return <code>true</code> if messages should be delivered through the
+	 *         delivery system's executor, <code>false</code> otherwise
+	 */
+	boolean isAsync() {
+		return (async || demoted.get());
+	}
+
+	/**
+	 * Demotes the receiving method to asynchronous delivery.
+	 *
+	 * @return <code>true</code> if the method was demoted, <code>false</code>
+	 *         if it already received messages asynchronously
+	 */
+	boolean demote() {
+		return (!async && demoted.compareAndSet(false, true));
+	}
+
+	/**
+	 * Gets the latency budget of the receiving method.
+	 *
+	 * @return the budget, in nanoseconds, or zero if the method has none
+	 */
+	long getLatencyBudget() {
+		return latencyBudget;
+	}
+
+	/**
+	 * Records a delivery that exceeded the latency budget.
+	 *
+	 * @return the number of deliveries that exceeded the budget so far
+	 */
+	int exceededBudget() {
+		return budgetViolations.incrementAndGet();
+	}
+
+	/**
+	 * Gets whether or not the receiving method receives messages in batches.
+	 *
+	 * @return <code>true</code> if the method takes a list of argument arrays,
+	 *         <code>false</code> otherwise
+	 */
+	boolean isBatch() {
+		return batch;
+	}
+
+	/**
+	 * Gets whether or not the receiving method only needs the latest value of
+	 * the messages it receives.
+	 *
+	 * @return <code>true</code> if messages are conflated for the method,
+	 *         <code>false</code> otherwise
+	 */
+	boolean isConflated() {
+		return conflated;
+	}
+
+	/**
+	 * Gets a human-readable name for the receiving method.
+	 *
+	 * @return the name
+	 */
+	String getName() {
+		return receiverClass.getName() + " : " + methodName;
+	}
+
+	/**
+	 * Gets the name of the receiving method.
+	 *
+	 * @return the method name
+	 */
+	String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * Delivers a message to a receiver.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param data      the data accompanying the message
+	 *
+	 * @throws IllegalArgumentException  if the wrong number of arguments are given
+	 * @throws InvocationTargetException  if anything is thrown during the call
+	 */
+	final void invoke(MessageReceiver receiver, String msg, Object[] data) throws InvocationTargetException {
+		final int length = (data == null ? 0 : data.length);
+		if(arity >= 0 && length != arity)
+			throw new IllegalArgumentException(String.format("Expected %d arguments but got %d", arity, length));
+
+		try {
+			call(receiver, msg, data);
+		} catch(Throwable exc) {
+			throw new InvocationTargetException(exc);
+		}
+	}
+
+	/**
+	 * Delivers a message to a receiver, without packing its arguments into an
+	 * array unless the receiving method takes one. Only the first
+	 * <code>count</code> arguments are passed.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param count     the number of arguments, at most {@link #MAX_FIXED_ARITY}
+	 * @param a         the first argument
+	 * @param b         the second argument
+	 * @param c         the third argument
+	 * @param d         the fourth argument
+	 *
+	 * @throws IllegalArgumentException  if the wrong number of arguments are given
+	 * @throws InvocationTargetException  if anything is thrown during the call
+	 */
+	final void invoke(MessageReceiver receiver, String msg, int count, Object a, Object b, Object c, Object d) throws InvocationTargetException {
+		if(arity != count || batch) {
+			invoke(receiver, msg, pack(count, a, b, c, d));
+			return;
+		}
+
+		try {
+			switch(count) {
+			case 0: call(receiver, msg); break;
+			case 1: call(receiver, msg, a); break;
+			case 2: call(receiver, msg, a, b); break;
+			case 3: call(receiver, msg, a, b, c); break;
+			default: call(receiver, msg, a, b, c, d); break;
+			}
+		} catch(Throwable exc) {
+			throw new InvocationTargetException(exc);
+		}
+	}
+
+	/**
+	 * Delivers a message with a single <code>int</code> argument to a
+	 * receiver, without boxing it unless the receiving method needs an object.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param a         the argument
+	 *
+	 * @throws IllegalArgumentException  if the method does not take one argument
+	 * @throws InvocationTargetException  if anything is thrown during the call
+	 */
+	final void invoke(MessageReceiver receiver, String msg, int a) throws InvocationTargetException {
+		if(arity != 1 || batch) {
+			invoke(receiver, msg, new Object[] { a });
+			return;
+		}
+
+		try {
+			call(receiver, msg, a);
+		} catch(Throwable exc) {
+			throw new InvocationTargetException(exc);
+		}
+	}
+
+	/**
+	 * Delivers a message with a single <code>long</code> argument to a
+	 * receiver, without boxing it unless the receiving method needs an object.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param a         the argument
+	 *
+	 * @throws IllegalArgumentException  if the method does not take one argument
+	 * @throws InvocationTargetException  if anything is thrown during the call
+	 */
+	final void invoke(MessageReceiver receiver, String msg, long a) throws InvocationTargetException {
+		if(arity != 1 || batch) {
+			invoke(receiver, msg, new Object[] { a });
+			return;
+		}
+
+		try {
+			call(receiver, msg, a);
+		} catch(Throwable exc) {
+			throw new InvocationTargetException(exc);
+		}
+	}
+
+	/**
+	 * Delivers a message with a single <code>double</code> argument to a
+	 * receiver, without boxing it unless the receiving method needs an object.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param a         the argument
+	 *
+	 * @throws IllegalArgumentException  if the method does not take one argument
+	 * @throws InvocationTargetException  if anything is thrown during the call
+	 */
+	final void invoke(MessageReceiver receiver, String msg, double a) throws InvocationTargetException {
+		if(arity != 1 || batch) {
+			invoke(receiver, msg, new Object[] { a });
+			return;
+		}
+
+		try {
+			call(receiver, msg, a);
+		} catch(Throwable exc) {
+			throw new InvocationTargetException(exc);
+		}
+	}
+
+	/**
+	 * Calls the receiving method. The number of arguments has already been
+	 * checked against the method's signature.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param data      the data accompanying the message
+	 *
+	 * @throws Throwable  anything thrown by the receiving method
+	 */
+	abstract void call(MessageReceiver receiver, String msg, Object[] data) throws Throwable;
+
+	/**
+	 * Calls a receiving method taking no arguments. Invokers that can do so
+	 * without an array override this, and the other fixed-arity calls.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 *
+	 * @throws Throwable  anything thrown by the receiving method
+	 */
+	void call(MessageReceiver receiver, String msg) throws Throwable {
+		call(receiver, msg, NO_ARGUMENTS);
+	}
+
+	/** @see #call(MessageReceiver, String) */
+	void call(MessageReceiver receiver, String msg, Object a) throws Throwable {
+		call(receiver, msg, new Object[] { a });
+	}
+
+	/** @see #call(MessageReceiver, String) */
+	void call(MessageReceiver receiver, String msg, Object a, Object b) throws Throwable {
+		call(receiver, msg, new Object[] { a, b });
+	}
+
+	/** @see #call(MessageReceiver, String) */
+	void call(MessageReceiver receiver, String msg, Object a, Object b, Object c) throws Throwable {
+		call(receiver, msg, new Object[] { a, b, c });
+	}
+
+	/** @see #call(MessageReceiver, String) */
+	void call(MessageReceiver receiver, String msg, Object a, Object b, Object c, Object d) throws Throwable {
+		call(receiver, msg, new Object[] { a, b, c, d });
+	}
+
+	/**
+	 * Calls a receiving method taking a single argument with an
+	 * <code>int</code>. Unless overridden, the value is boxed into the
+	 * wrapper of the method's parameter type.
+	 *
+	 * @param receiver  the receiver
+	 * @param msg       the message name
+	 * @param a         the argument
+	 *
+	 * @throws Throwable  anything thrown by the receiving method
+	 */
+	void call(MessageReceiver receiver, String msg, int a) throws Throwable {
+		call(receiver, msg, box(a, int.class, parameterTypes[0]));
+	}
+
+	/** @see #call(MessageReceiver, String, int) */
+	void call(MessageReceiver receiver, String msg, long a) throws Throwable {
+		call(receiver, msg, box(a, long.class, parameterTypes[0]));
+	}
+
+	/** @see #call(MessageReceiver, String, int) */
+	void call(MessageReceiver receiver, String msg, double a) throws Throwable {
+		call(receiver, msg, box(a, double.class, parameterTypes[0]));
+	}
+
+	/**
+	 * Packs fixed-arity arguments into an array.
+	 */
+	static Object[] pack(int count, Object a, Object b, Object c, Object d) {
+		switch(count) {
+		case 0: return NO_ARGUMENTS;
+		case 1: return new Object[] { a };
+		case 2: return new Object[] { a, b };
+		case 3: return new Object[] { a, b, c };
+		default: return new Object[] { a, b, c, d };
+		}
+	}
+
+	/**
+	 * Gets whether or not a primitive value can be passed to a parameter
+	 * without a cast, either as is, widened, or boxed.
+	 *
+	 * @param primitive      the primitive type of the value
+	 * @param parameterType  the type of the parameter
+	 *
+	 * @return <code>true</code> if the value can be passed, <code>false</code>
+	 *         otherwise
+	 */
+	static boolean accepts(Class<?> primitive, Class<?> parameterType) {
+		if(parameterType == primitive || parameterType == double.class)
+			return true;
+		if(parameterType == long.class || parameterType == float.class)
+			return (primitive != double.class);
+
+		final Class<?> wrapper = (primitive == int.class ? Integer.class : (primitive == long.class ? Long.class : Double.class));
+		return parameterType.isAssignableFrom(wrapper);
+	}
+
+	/**
+	 * Gets whether or not a primitive value can be passed to a parameter of a
+	 * given type without losing any of its value. Values can be passed to a
+	 * parameter of their own type, to one they widen to, or to one that is not
+	 * that of a number, in which case they are boxed into their own wrapper.
+	 *
+	 * @param primitive  the primitive type of the value
+	 * @param type       the type, or <code>null</code> if unknown
+	 *
+	 * @return <code>true</code> if the value can be passed, <code>false</code>
+	 *         if passing it would need a narrowing conversion
+	 */
+	static boolean widens(Class<?> primitive, Class<?> type) {
+		final Class<?> target = unwrap(type);
+		if(target == null || target == primitive)
+			return true;
+		if(target == char.class || target == boolean.class)
+			return false;
+
+		final int from = (primitive == char.class ? WIDENING.indexOf(short.class) : WIDENING.indexOf(primitive));
+		return (from >= 0 && from < WIDENING.indexOf(target));
+	}
+
+	/**
+	 * Boxes a number into the wrapper of a given type, so that it can be
+	 * passed to a parameter of that type. Numbers are boxed into their own
+	 * wrapper if they do not widen to that type.
+	 *
+	 * @param value      the number
+	 * @param primitive  the primitive type of the number
+	 * @param type       the type, or <code>null</code> if unknown
+	 *
+	 * @return the boxed number
+	 *
+	 * @see #widens(Class, Class)
+	 */
+	static Object box(long value, Class<?> primitive, Class<?> type) {
+		final Class<?> target = (widens(primitive, type) && unwrap(type) != null ? unwrap(type) : primitive);
+		if(target == long.class) return Long.valueOf(value);
+		if(target == short.class) return Short.valueOf((short)value);
+		if(target == byte.class) return Byte.valueOf((byte)value);
+		if(target == char.class) return Character.valueOf((char)value);
+		if(target == float.class) return Float.valueOf(value);
+		if(target == double.class) return Double.valueOf(value);
+		return Integer.valueOf((int)value);
+	}
+
+	/** @see #box(long, Class, Class) */
+	static Object box(double value, Class<?> primitive, Class<?> type) {
+		if(primitive == float.class && unwrap(type) != double.class)
+			return Float.valueOf((float)value);
+		return Double.valueOf(value);
+	}
+
+	/**
+	 * Gets the primitive type of a primitive or wrapper type.
+	 *
+	 * @param type  the type, or <code>null</code>
+	 *
+	 * @return the primitive type, or <code>null</code> if the type is neither
+	 *         a primitive nor a wrapper
+	 */
+	private static Class<?> unwrap(Class<?> type) {
+		if(type == null || type.isPrimitive()) return type;
+		if(type == Integer.class) return int.class;
+		if(type == Long.class) return long.class;
+		if(type == Double.class) return double.class;
+		if(type == Float.class) return float.class;
+		if(type == Short.class) return short.class;
+		if(type == Byte.class) return byte.class;
+		if(type == Character.class) return char.class;
+		if(type == Boolean.class) return boolean.class;
+		return null;
+	}
+
+	/**
+	 * An invoker for a receiving method declared by a class, which the
+	 * subclasses of that class inherit.
+	 */
+	abstract static class InheritableInvoker extends ReceiverInvoker {
+		/** @see ReceiverInvoker#ReceiverInvoker(Class, String, ReceiverMethod, Class[], boolean) */
+		private InheritableInvoker(Class<? extends MessageReceiver> receiverClass, String methodName, ReceiverMethod annotation, Class<?>[] parameterTypes, boolean varArgs) {
+			super(receiverClass, methodName, annotation, parameterTypes, varArgs);
+		}
+
+		/**
+		 * Creates an invoker calling the same receiving method for the
+		 * instances of a given class, which inherits the method. The new
+		 * invoker does not share any state with this one, such as whether
+		 * or not it was demoted.
+		 *
+		 * @param receiverClass  the class of the receivers, a subclass of the
+		 *                       class declaring the method
+		 *
+		 * @return the invoker
+		 */
+		abstract InheritableInvoker copyFor(Class<? extends MessageReceiver> receiverClass);
+	}
+
+	/**
+	 * An invoker that calls a reflected method through an adapted method handle.
+	 */
+	private static final class HandleInvoker extends InheritableInvoker {
+		/** The type every receiver handle is adapted to */
+		private static final MethodType INVOKER_TYPE = MethodType.methodType(void.class, MessageReceiver.class, String.class, Object[].class);
+
+		/** The receiving method */
+		private final Method method;
+
+		/** The adapted method handle, of type {@link #INVOKER_TYPE} */
+		private final MethodHandle handle;
+
+		/**
+		 * The method handle taking the receiver followed by each argument as
+		 * an object, or <code>null</code> if the method takes an array
+		 */
+		private final MethodHandle fixed;
+
+		/** Method handles taking the receiver followed by a primitive, or <code>null</code> */
+		private final MethodHandle intHandle, longHandle, doubleHandle;
+
+		HandleInvoker(Class<? extends MessageReceiver> receiverClass, Method method, ReceiverMethod annotation) throws IllegalAccessException {
+			super(receiverClass, method.getName(), annotation, method.getParameterTypes(), method.isVarArgs());
+			this.method = method;
+
+			final MethodHandle target = MethodHandles.lookup().unreflect(method).asFixedArity();
+			final int parameterCount = method.getParameterTypes().length;
+			try {
+				if(receivesName(annotation)) {
+					// Catchalls receive the message name followed by the arguments
+					this.handle = target.asType(INVOKER_TYPE);
+				} else if(method.isVarArgs()) {
+					// Varargs receivers get the arguments as their one and only parameter
+					this.handle = MethodHandles.dropArguments(
+							target.asType(MethodType.methodType(void.class, MessageReceiver.class, Object[].class)),
+							1, String.class);
+				} else {
+					// Everything else gets the arguments spread across its parameters
+					this.handle = MethodHandles.dropArguments(
+							target.asType(MethodType.genericMethodType(parameterCount)
+							                        .changeReturnType(void.class)
+							                        .insertParameterTypes(0, MessageReceiver.class))
+							      .asSpreader(Object[].class, parameterCount),
+							1, String.class);
+				}
+			} catch(RuntimeException exc) {
+				// WrongMethodTypeException or a ClassCastException
+				throw new IllegalArgumentException("Unsupported receiver signature for " + getName(), exc);
+			}
+
+			final boolean isFixed = !(receivesName(annotation) || method.isVarArgs() || annotation.batch());
+			final MethodType fixedType = MethodType.genericMethodType(parameterCount).changeReturnType(void.class).insertParameterTypes(0, MessageReceiver.class);
+			this.fixed = (isFixed && parameterCount <= MAX_FIXED_ARITY ? target.asType(fixedType) : null);
+			this.intHandle = (isFixed ? primitiveHandle(target, int.class) : null);
+			this.longHandle = (isFixed ? primitiveHandle(target, long.class) : null);
+			this.doubleHandle = (isFixed ? primitiveHandle(target, double.class) : null);
+		}
+
+		/**
+		 * Adapts the handle of a method taking a single parameter to take a
+		 * primitive instead.
+		 *
+		 * @param target     the handle of the method
+		 * @param primitive  the primitive type
+		 *
+		 * @return the adapted handle, or <code>null</code> if the primitive
+		 *         cannot be passed to the method without a cast
+		 */
+		private static MethodHandle primitiveHandle(MethodHandle target, Class<?> primitive) {
+			final MethodType type = target.type();
+			if(type.parameterCount() != 2 || !accepts(primitive, type.parameterType(1)))
+				return null;
+
+			try {
+				return target.asType(MethodType.methodType(void.class, MessageReceiver.class, primitive));
+			} catch(WrongMethodTypeException exc) {
+				return null;
+			}
+		}
+
+		@Override
+		Method getMethod() {
+			return method;
+		}
+
+		@Override
+		InheritableInvoker copyFor(Class<? extends MessageReceiver> receiverClass) {
+			try {
+				return new HandleInvoker(receiverClass, method, getAnnotation());
+			} catch(IllegalAccessException exc) {
+				// The method was already accessible when this invoker was created
+				throw new IllegalStateException(exc);
+			}
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object[] data) throws Throwable {
+			handle.invokeExact(receiver, msg, data);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg) throws Throwable {
+			fixed.invokeExact(receiver);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a) throws Throwable {
+			fixed.invokeExact(receiver, a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b) throws Throwable {
+			fixed.invokeExact(receiver, a, b);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b, Object c) throws Throwable {
+			fixed.invokeExact(receiver, a, b, c);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b, Object c, Object d) throws Throwable {
+			fixed.invokeExact(receiver, a, b, c, d);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, int a) throws Throwable {
+			if(intHandle == null)
+				super.call(receiver, msg, a);
+			else
+				intHandle.invokeExact(receiver, a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, long a) throws Throwable {
+			if(longHandle == null)
+				super.call(receiver, msg, a);
+			else
+				longHandle.invokeExact(receiver, a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, double a) throws Throwable {
+			if(doubleHandle == null)
+				super.call(receiver, msg, a);
+			else
+				doubleHandle.invokeExact(receiver, a);
+		}
+	}
+
+	/**
+	 * An invoker that calls a method through a generated dispatcher.
+	 */
+	private static final class DispatcherInvoker extends InheritableInvoker {
+		/** The dispatcher */
+		private final GeneratedDispatcher dispatcher;
+
+		/** The index the dispatcher uses for the method */
+		private final int index;
+
+		/** Whether or not primitives can be passed to the method as is */
+		private final boolean acceptsInt, acceptsLong, acceptsDouble;
+
+		DispatcherInvoker(Class<? extends MessageReceiver> receiverClass, GeneratedDispatcher dispatcher, int index, String methodName, ReceiverMethod annotation, Class<?>[] parameterTypes, boolean varArgs) {
+			super(receiverClass, methodName, annotation, parameterTypes, varArgs);
+			this.dispatcher = dispatcher;
+			this.index = index;
+
+			final boolean single = (parameterTypes.length == 1 && !varArgs && !receivesName(annotation) && !annotation.batch());
+			this.acceptsInt = (single && accepts(int.class, parameterTypes[0]) && generated(dispatcher, int.class));
+			this.acceptsLong = (single && accepts(long.class, parameterTypes[0]) && generated(dispatcher, long.class));
+			this.acceptsDouble = (single && accepts(double.class, parameterTypes[0]) && generated(dispatcher, double.class));
+		}
+
+		/**
+		 * Gets whether or not a dispatcher was generated with calls taking a
+		 * primitive. Dispatchers generated by older versions of the processor
+		 * only box the primitive, which would fail to be cast to a widened
+		 * parameter type.
+		 *
+		 * @param dispatcher  the dispatcher
+		 * @param primitive   the primitive type
+		 *
+		 * @return <code>true</code> if the dispatcher takes the primitive,
+		 *         <code>false</code> otherwise
+		 */
+		private static boolean generated(GeneratedDispatcher dispatcher, Class<?> primitive) {
+			try {
+				dispatcher.getClass().getDeclaredMethod("dispatch", int.class, MessageReceiver.class, String.class, primitive);
+				return true;
+			} catch(NoSuchMethodException exc) {
+				return false;
+			}
+		}
+
+		@Override
+		InheritableInvoker copyFor(Class<? extends MessageReceiver> receiverClass) {
+			return new DispatcherInvoker(receiverClass, dispatcher, index, getMethodName(), getAnnotation(), getParameterTypes(), isVarArgs());
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object[] data) throws Throwable {
+			dispatcher.dispatch(index, receiver, msg, data);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg) throws Throwable {
+			dispatcher.dispatch(index, receiver, msg);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a) throws Throwable {
+			dispatcher.dispatch(index, receiver, msg, a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b) throws Throwable {
+			dispatcher.dispatch(index, receiver, msg, a, b);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b, Object c) throws Throwable {
+			dispatcher.dispatch(index, receiver, msg, a, b, c);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b, Object c, Object d) throws Throwable {
+			dispatcher.dispatch(index, receiver, msg, a, b, c, d);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, int a) throws Throwable {
+			if(acceptsInt)
+				dispatcher.dispatch(index, receiver, msg, a);
+			else
+				super.call(receiver, msg, a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, long a) throws Throwable {
+			if(acceptsLong)
+				dispatcher.dispatch(index, receiver, msg, a);
+			else
+				super.call(receiver, msg, a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, double a) throws Throwable {
+			if(acceptsDouble)
+				dispatcher.dispatch(index, receiver, msg, a);
+			else
+				super.call(receiver, msg, a);
+		}
+	}
+
+	/**
+	 * An invoker that calls a listener through its functional interface.
+	 * Invokers of listeners of the same class are equal, so that they share
+	 * metrics like the instances of a receiver class do.
+	 */
+	@SuppressWarnings("unchecked")
+	private static final class ListenerInvoker extends ReceiverInvoker {
+		/** The listener */
+		private final Object listener;
+
+		ListenerInvoker(Object listener, Class<?>[] parameterTypes) {
+			super(ListenerSubscription.class, listener.getClass().getName(), parameterTypes);
+			this.listener = listener;
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object[] data) throws Throwable {
+			switch(data.length) {
+			case 0: call(receiver, msg); break;
+			case 1: call(receiver, msg, data[0]); break;
+			case 2: call(receiver, msg, data[0], data[1]); break;
+			case 3: call(receiver, msg, data[0], data[1], data[2]); break;
+			default: call(receiver, msg, data[0], data[1], data[2], data[3]); break;
+			}
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg) throws Throwable {
+			((Listener.Of0)listener).receive();
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a) throws Throwable {
+			((Listener.Of1<Object>)listener).receive(a);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b) throws Throwable {
+			((Listener.Of2<Object, Object>)listener).receive(a, b);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b, Object c) throws Throwable {
+			((Listener.Of3<Object, Object, Object>)listener).receive(a, b, c);
+		}
+
+		@Override
+		void call(MessageReceiver receiver, String msg, Object a, Object b, Object c, Object d) throws Throwable {
+			((Listener.Of4<Object, Object, Object, Object>)listener).receive(a, b, c, d);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return (obj instanceof ListenerInvoker && ((ListenerInvoker)obj).listener.getClass() == listener.getClass());
+		}
+
+		@Override
+		public int hashCode() {
+			return listener.getClass().hashCode();
+		}
+	}
+}
@@ -33,8 +33,12 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(value = { ElementType.METHOD })
 public @interface ReceiverMethod {
-	/** The sender's class */ 
-	public Class<? extends MessageSender> senderClass();
+	/**
+	 * The sender's class. Required unless this method subscribes to a
+	 * {@link #topic() topic}, in which case it restricts the subscription to
+	 * messages sent by the given class and its subclasses.
+	 */
+	public Class<? extends MessageSender> senderClass() default MessageSender.class;
 
 	/** The name of the message this method received. */
 	public String message() default "";
@@ -46,4 +50,57 @@ public @interface ReceiverMethod {
 	 * the first parameter, which will be the name of the message.  
 	 */
 	public boolean isCatchall() default false;
+
+	/**
+	 * A hierarchical topic pattern this method subscribes to, across all
+	 * sender classes. Message names are treated as topics whose segments are
+	 * separated by dots, such as <code>order.created</code>. In a pattern,
+	 * the segment <code>*</code> matches exactly one segment, and the segment
+	 * <code>#</code> matches zero or more segments. Like a catchall method,
+	 * a method subscribing to a topic should accept a {@link java.lang.String}
+	 * for the first parameter, which will be the name of the message, followed
+	 * by an array of the message's arguments. A class receives a message
+	 * through at most one method, so methods receiving a specific message
+	 * take precedence over those subscribing to a topic, and only one of
+	 * several matching topics is used.
+	 * 
+	 * @see ca.gedge.manatee.util.TopicTrie
+	 */
+	public String topic() default "";
+
+	/**
+	 * Whether or not this method receives messages asynchronously. If
+	 * <code>true</code>, messages are handed to the delivery system's
+	 * {@link java.util.concurrent.Executor} instead of being delivered on the
+	 * sender's thread.
+	 * 
+	 * @see MessageDeliverySystem#setExecutor(java.util.concurrent.Executor)
+	 */
+	public boolean async() default false;
+
+	/**
+	 * Whether or not this method receives messages in batches. If
+	 * <code>true</code>, this method should accept a single
+	 * {@link java.util.List} of argument arrays, one for each message. Batches
+	 * sent through {@link MessageDeliverySystem#sendMessages(MessageSender, String, java.util.Collection)}
+	 * are received in a single call, and messages sent one at a time are
+	 * received as a batch of one. Catchall methods cannot receive batches.
+	 */
+	public boolean batch() default false;
+
+	/**
+	 * Whether or not this method only needs the latest value of the message.
+	 * If <code>true</code>, the message is conflated for this receiver even
+	 * if it is not declared {@link Message#conflate() conflated}.
+	 */
+	public boolean conflate() default false;
+
+	/**
+	 * The longest this method should take to receive a message, in
+	 * microseconds. Deliveries taking longer are reported to the delivery
+	 * system's {@link SlowReceiverListener}s and logged. If zero, the delivery
+	 * system's {@link MessageDeliverySystem#setLatencyBudget(long, java.util.concurrent.TimeUnit) latency budget}
+	 * applies instead.
+	 */
+	public long latencyBudgetMicros() default 0;
 }
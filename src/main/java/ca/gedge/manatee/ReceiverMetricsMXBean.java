@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * Management interface for the latencies of a receiving method, for one
+ * message sent by a sender class. Latency percentiles are the upper bound
+ * of a power-of-two bucket, so they are within a factor of two of the
+ * actual latency.
+ * 
+ * @see MessageDeliverySystem#setMetricsEnabled(boolean)
+ * @see ca.gedge.manatee.util.LatencyHistogram
+ */
+public interface ReceiverMetricsMXBean {
+	/**
+	 * Gets the name of the class sending the message.
+	 * 
+	 * @return the class name
+	 */
+	String getSenderClass();
+
+	/**
+	 * Gets the message name.
+	 * 
+	 * @return the message name
+	 */
+	String getMessage();
+
+	/**
+	 * Gets the name of the receiving method, qualified by its class.
+	 * 
+	 * @return the method name
+	 */
+	String getReceiverMethod();
+
+	/**
+	 * Gets the number of times the receiving method was called.
+	 * 
+	 * @return the number of calls
+	 */
+	long getInvocationCount();
+
+	/**
+	 * Gets the mean latency of the receiving method.
+	 * 
+	 * @return the mean latency, in nanoseconds
+	 */
+	long getMeanLatencyNanos();
+
+	/**
+	 * Gets the largest latency of the receiving method.
+	 * 
+	 * @return the largest latency, in nanoseconds
+	 */
+	long getMaxLatencyNanos();
+
+	/**
+	 * Gets the median latency of the receiving method.
+	 * 
+	 * @return the median latency, in nanoseconds
+	 */
+	long getP50LatencyNanos();
+
+	/**
+	 * Gets the 99th percentile latency of the receiving method.
+	 * 
+	 * @return the 99th percentile latency, in nanoseconds
+	 */
+	long getP99LatencyNanos();
+
+	/**
+	 * Gets the latency histogram of the receiving method. Element
+	 * <code>i</code> counts the calls that took at least
+	 * <code>2<sup>i-1</sup></code> nanoseconds, and less than
+	 * <code>2<sup>i</sup></code> nanoseconds.
+	 * 
+	 * @return the histogram
+	 */
+	long[] getLatencyHistogram();
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+/**
+ * Weakly refers to a sender instance, for indexing the receivers subscribed
+ * to it. Keys are equal if they refer to the same instance, regardless of
+ * how the sender defines equality.
+ */
+final class SenderKey extends WeakReference<MessageSender> {
+	/** Identity hash code of the sender */
+	private final int hash;
+
+	SenderKey(MessageSender sender) {
+		super(sender);
+		this.hash = System.identityHashCode(sender);
+	}
+
+	SenderKey(MessageSender sender, ReferenceQueue<MessageSender> queue) {
+		super(sender, queue);
+		this.hash = System.identityHashCode(sender);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj == this)
+			return true;
+		if(!(obj instanceof SenderKey))
+			return false;
+
+		final MessageSender sender = get();
+		return (sender != null && sender == ((SenderKey)obj).get());
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+}
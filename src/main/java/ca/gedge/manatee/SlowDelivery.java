@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * A delivery that took longer than the latency budget of the receiving
+ * method.
+ * 
+ * @see SlowReceiverListener
+ */
+public final class SlowDelivery {
+	/** The class sending the message */
+	private final Class<? extends MessageSender> senderClass;
+
+	/** The message name */
+	private final String message;
+
+	/** The class declaring the receiving method */
+	private final Class<? extends MessageReceiver> receiverClass;
+
+	/** The name of the receiving method */
+	private final String receiverMethod;
+
+	/** How long the delivery took, in nanoseconds */
+	private final long latency;
+
+	/** The latency budget of the receiving method, in nanoseconds */
+	private final long budget;
+
+	/** The number of times the receiving method exceeded its budget */
+	private final int violations;
+
+	/** Whether or not this delivery demoted the receiving method to asynchronous delivery */
+	private final boolean demoted;
+
+	/**
+	 * Constructs a slow delivery.
+	 * 
+	 * @param senderClass     the class sending the message
+	 * @param message         the message name
+	 * @param receiverClass   the class declaring the receiving method
+	 * @param receiverMethod  the name of the receiving method
+	 * @param latency         how long the delivery took, in nanoseconds
+	 * @param budget          the latency budget, in nanoseconds
+	 * @param violations      the number of times the receiving method
+	 *                        exceeded its budget, including this one
+	 * @param demoted         whether or not this delivery demoted the
+	 *                        receiving method to asynchronous delivery
+	 */
+	SlowDelivery(Class<? extends MessageSender> senderClass, String message,
+	             Class<? extends MessageReceiver> receiverClass, String receiverMethod,
+	             long latency, long budget, int violations, boolean demoted)
+	{
+		this.senderClass = senderClass;
+		this.message = message;
+		this.receiverClass = receiverClass;
+		this.receiverMethod = receiverMethod;
+		this.latency = latency;
+		this.budget = budget;
+		this.violations = violations;
+		this.demoted = demoted;
+	}
+
+	/**
+	 * Gets the class that declared the message.
+	 * 
+	 * @return the sender class
+	 */
+	public Class<? extends MessageSender> getSenderClass() {
+		return senderClass;
+	}
+
+	/**
+	 * Gets the name of the message.
+	 * 
+	 * @return the message name
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the class declaring the receiving method.
+	 * 
+	 * @return the receiver class
+	 */
+	public Class<? extends MessageReceiver> getReceiverClass() {
+		return receiverClass;
+	}
+
+	/**
+	 * Gets the name of the receiving method.
+	 * 
+	 * @return the method name
+	 */
+	public String getReceiverMethod() {
+		return receiverMethod;
+	}
+
+	/**
+	 * Gets how long the delivery took.
+	 * 
+	 * @return the latency, in nanoseconds
+	 */
+	public long getLatencyNanos() {
+		return latency;
+	}
+
+	/**
+	 * Gets the latency budget the delivery exceeded.
+	 * 
+	 * @return the budget, in nanoseconds
+	 */
+	public long getBudgetNanos() {
+		return budget;
+	}
+
+	/**
+	 * Gets the number of times the receiving method has exceeded its budget,
+	 * including this delivery.
+	 * 
+	 * @return the number of violations
+	 */
+	public int getViolations() {
+		return violations;
+	}
+
+	/**
+	 * Gets whether or not this delivery demoted the receiving method to
+	 * asynchronous delivery.
+	 * 
+	 * @return <code>true</code> if the method receives messages
+	 *         asynchronously from now on, <code>false</code> otherwise
+	 * 
+	 * @see MessageDeliverySystem#setSlowReceiverDemotion(int)
+	 */
+	public boolean isDemoted() {
+		return demoted;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s : %s took %d us receiving %s from %s, over its budget of %d us (%d times)%s",
+		                     receiverClass.getName(), receiverMethod, latency / 1000, message,
+		                     senderClass.getName(), budget / 1000, violations,
+		                     (demoted ? ", now delivered asynchronously" : ""));
+	}
+}
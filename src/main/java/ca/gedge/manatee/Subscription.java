@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+/**
+ * A listener subscribed to a message. The delivery system holds on to the
+ * listener until the subscription is closed, so that lambdas do not need
+ * to be kept alive elsewhere.
+ * 
+ * @see MessageDeliverySystem#subscribe(Class, String, Listener.Of1)
+ */
+public interface Subscription extends AutoCloseable {
+	/**
+	 * Gets the message the listener is subscribed to.
+	 * 
+	 * @return the message descriptor
+	 */
+	public MessageDescriptor getMessage();
+
+	/**
+	 * Gets whether or not the listener still receives messages.
+	 * 
+	 * @return <code>true</code> until the subscription is closed
+	 */
+	public boolean isActive();
+
+	/**
+	 * Unsubscribes the listener. Messages already posted to the listener's
+	 * mailbox, or to the delivery system's executor, are still delivered.
+	 * Closing a subscription more than once has no effect.
+	 */
+	@Override
+	public void close();
+}
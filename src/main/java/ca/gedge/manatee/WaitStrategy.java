@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How the threads of a {@link MessagePipeline} wait for one another. The
+ * consumer waits for messages to be published, and producers wait for
+ * space in the ring when it is full.
+ */
+public enum WaitStrategy {
+	/**
+	 * Waiting threads spin without giving up their processor. This has the
+	 * lowest latency, but keeps a processor busy even when there is nothing
+	 * to do.
+	 */
+	BUSY_SPIN,
+
+	/**
+	 * Waiting threads spin for a while and then yield their processor to
+	 * other threads. This trades a little latency for less CPU use.
+	 */
+	YIELDING,
+
+	/**
+	 * Waiting threads block until they are woken up. This uses the least CPU,
+	 * but publishing wakes up the consumer through a lock.
+	 */
+	BLOCKING;
+
+	/** The number of times a yielding thread spins before it yields */
+	private static final int SPIN_TRIES = 100;
+
+	/**
+	 * Idles a thread that has been waiting for a number of attempts without
+	 * blocking. Blocking strategies park the thread for a short time instead.
+	 * 
+	 * @param attempts  the number of times the thread has waited so far
+	 */
+	void idle(int attempts) {
+		switch(this) {
+		case BUSY_SPIN:
+			break;
+		case YIELDING:
+			if(attempts >= SPIN_TRIES)
+				Thread.yield();
+			break;
+		case BLOCKING:
+			LockSupport.parkNanos(1000L);
+			break;
+		}
+	}
+}
@@ -0,0 +1,745 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.SimpleAnnotationValueVisitor8;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+import ca.gedge.manatee.GeneratedDispatcher;
+import ca.gedge.manatee.Message;
+import ca.gedge.manatee.MessageKey;
+import ca.gedge.manatee.MessageReceiver;
+import ca.gedge.manatee.MessageSender;
+import ca.gedge.manatee.ReceiverMethod;
+import ca.gedge.manatee.ReceiverMethods;
+import ca.gedge.manatee.util.TopicTrie;
+
+/**
+ * An annotation processor that validates {@link ReceiverMethod}s against
+ * the {@link Message}s they receive, and generates a {@link GeneratedDispatcher}
+ * for every class that sends or receives messages. Generated dispatchers are
+ * listed in a <code>META-INF/manatee/dispatchers.properties</code> index,
+ * which a {@link ca.gedge.manatee.MessageDeliverySystem} reads to register
+ * classes without reflection.
+ * 
+ * The processor is found automatically by <code>javac</code> when this
+ * library is on the class path.
+ */
+@SupportedAnnotationTypes({
+	"ca.gedge.manatee.Message",
+	"ca.gedge.manatee.ReceiverMethod",
+	"ca.gedge.manatee.ReceiverMethods"
+})
+public class ManateeProcessor extends AbstractProcessor {
+	/** Suffix appended to a class' binary name to name its dispatcher */
+	static final String DISPATCHER_SUFFIX = "$$ManateeDispatcher";
+
+	/** The index resource, as read by the delivery system */
+	static final String INDEX_RESOURCE = "META-INF/manatee/dispatchers.properties";
+
+	/** Mapping from binary names of classes to the binary names of their dispatchers */
+	private final Map<String, String> index = new TreeMap<String, String>();
+
+	/** Cache of messages declared by sender classes, or <code>null</code> if they can't be known */
+	private final Map<String, Map<String, List<TypeMirror>>> senderMessages = new HashMap<String, Map<String, List<TypeMirror>>>();
+
+	/** Cache of the names of conflated messages declared by sender classes */
+	private final Map<String, Set<String>> conflatedMessages = new HashMap<String, Set<String>>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		final Set<TypeElement> types = new LinkedHashSet<TypeElement>();
+		for(Element element : roundEnv.getElementsAnnotatedWith(Message.class))
+			types.add((TypeElement)element.getEnclosingElement());
+		for(Element element : roundEnv.getElementsAnnotatedWith(ReceiverMethod.class))
+			types.add((TypeElement)element.getEnclosingElement());
+		for(Element element : roundEnv.getElementsAnnotatedWith(ReceiverMethods.class))
+			types.add((TypeElement)element.getEnclosingElement());
+
+		for(TypeElement type : types)
+			process(type);
+
+		if(roundEnv.processingOver() && !index.isEmpty())
+			writeIndex();
+
+		return false;
+	}
+
+	/**
+	 * Validates a class and generates its dispatcher.
+	 * 
+	 * @param type  the class
+	 */
+	private void process(TypeElement type) {
+		if(!isAccessible(type)) {
+			messager().printMessage(Kind.WARNING, "No dispatcher can be generated for a private, local or anonymous class", type);
+			return;
+		}
+
+		boolean valid = true;
+
+		// Messages sent by this class
+		final List<VariableElement> messageFields = new ArrayList<VariableElement>();
+		for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			if(getMirror(field, Message.class) == null)
+				continue;
+
+			if(!field.getModifiers().contains(Modifier.STATIC)) {
+				messager().printMessage(Kind.ERROR, "Message fields must be static", field);
+				valid = false;
+			}
+			messageFields.add(field);
+		}
+
+		final Map<String, List<TypeMirror>> messages = getMessages(type);
+		if(messages == null && !messageFields.isEmpty())
+			messager().printMessage(Kind.NOTE, "Messages are not constants, so they will be discovered at runtime", type);
+
+		// Methods receiving messages
+		final Map<ExecutableElement, List<AnnotationMirror>> receivers = new LinkedHashMap<ExecutableElement, List<AnnotationMirror>>();
+		for(ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+			final List<AnnotationMirror> mirrors = getReceiverMirrors(method);
+			if(mirrors.isEmpty())
+				continue;
+
+			receivers.put(method, mirrors);
+			if(!validateReceiverKinds(method, mirrors)) {
+				valid = false;
+				continue;
+			}
+
+			for(AnnotationMirror mirror : mirrors)
+				valid &= validateReceiver(type, method, mirror);
+		}
+
+		if(valid && (messages != null && !messages.isEmpty() || !receivers.isEmpty()))
+			generate(type, messages, receivers);
+	}
+
+	/**
+	 * Validates that the annotations of a receiving method all pass it the
+	 * arguments the same way, since its dispatcher calls it the same way
+	 * for all of them. Catchall methods and methods subscribing to a topic
+	 * get the message name followed by the arguments, while other methods
+	 * only get the arguments.
+	 * 
+	 * @param method   the method
+	 * @param mirrors  the {@link ReceiverMethod} annotations of the method
+	 * 
+	 * @return <code>true</code> if the annotations agree, <code>false</code> otherwise
+	 */
+	private boolean validateReceiverKinds(ExecutableElement method, List<AnnotationMirror> mirrors) {
+		final boolean receivesName = receivesName(mirrors.get(0));
+		for(AnnotationMirror mirror : mirrors) {
+			if(receivesName(mirror) != receivesName) {
+				messager().printMessage(Kind.ERROR, "Receiving methods cannot mix catchall or topic annotations with annotations for a message", method, mirror);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Validates a receiving method against the message it receives.
+	 * 
+	 * @param type    the class declaring the method
+	 * @param method  the method
+	 * @param mirror  the {@link ReceiverMethod} annotation
+	 * 
+	 * @return <code>true</code> if the method is valid, <code>false</code> otherwise
+	 */
+	private boolean validateReceiver(TypeElement type, ExecutableElement method, AnnotationMirror mirror) {
+		final Types types = processingEnv.getTypeUtils();
+		final Elements elements = processingEnv.getElementUtils();
+
+		if(!types.isAssignable(type.asType(), elements.getTypeElement(MessageReceiver.class.getCanonicalName()).asType())) {
+			messager().printMessage(Kind.ERROR, "Receiving methods must be declared in a MessageReceiver", method, mirror);
+			return false;
+		}
+
+		if(method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+			messager().printMessage(Kind.ERROR, "Receiving methods must be neither private nor static", method, mirror);
+			return false;
+		}
+
+		if((Long)getValue(mirror, "latencyBudgetMicros").getValue() < 0) {
+			messager().printMessage(Kind.ERROR, "Latency budgets cannot be negative", method, mirror);
+			return false;
+		}
+
+		final List<? extends VariableElement> parameters = method.getParameters();
+		final String topic = (String)getValue(mirror, "topic").getValue();
+		if(!topic.isEmpty() && !TopicTrie.isValidPattern(topic)) {
+			messager().printMessage(Kind.ERROR, String.format("Invalid topic \"%s\"", topic), method, mirror);
+			return false;
+		}
+
+		final TypeElement senderType = (TypeElement)types.asElement((TypeMirror)getValue(mirror, "senderClass").getValue());
+		if(topic.isEmpty() && senderType.getQualifiedName().contentEquals(MessageSender.class.getCanonicalName())) {
+			messager().printMessage(Kind.ERROR, "Receiving methods must specify a sender class or a topic", method, mirror);
+			return false;
+		}
+
+		if(receivesName(mirror)) {
+			// Catchalls receive the message name followed by the arguments
+			final String kind = (topic.isEmpty() ? "Catchall methods" : "Methods subscribing to a topic");
+			if(parameters.size() != 2
+			   || !types.isAssignable(elements.getTypeElement(String.class.getCanonicalName()).asType(), parameters.get(0).asType())
+			   || parameters.get(1).asType().getKind() != TypeKind.ARRAY)
+			{
+				messager().printMessage(Kind.ERROR, kind + " must take a String followed by an array of arguments", method, mirror);
+				return false;
+			}
+			if((Boolean)getValue(mirror, "batch").getValue()) {
+				messager().printMessage(Kind.ERROR, kind + " cannot receive batches", method, mirror);
+				return false;
+			}
+			return true;
+		}
+
+		final boolean isBatch = (Boolean)getValue(mirror, "batch").getValue();
+		if(isBatch) {
+			// Batch receivers get a list of argument arrays as their one and only parameter
+			final TypeMirror listType = types.erasure(elements.getTypeElement(List.class.getCanonicalName()).asType());
+			if(parameters.size() != 1 || !types.isAssignable(listType, types.erasure(parameters.get(0).asType()))) {
+				messager().printMessage(Kind.ERROR, "Batch receiving methods must take only a List of argument arrays", method, mirror);
+				return false;
+			}
+		}
+
+		if(method.isVarArgs()) {
+			// Varargs receivers get the arguments as their one and only parameter
+			if(parameters.size() != 1) {
+				messager().printMessage(Kind.ERROR, "Varargs receiving methods must take only the array of arguments", method, mirror);
+				return false;
+			}
+		}
+
+		final Map<String, List<TypeMirror>> messages = getMessages(senderType);
+		if(messages == null)
+			return true; // can only be checked at runtime
+
+		final String message = (String)getValue(mirror, "message").getValue();
+		final List<TypeMirror> signature = messages.get(message);
+		if(signature == null) {
+			messager().printMessage(Kind.ERROR, String.format("Message \"%s\" is not sent by %s", message, senderType.getQualifiedName()), method, mirror);
+			return false;
+		}
+
+		if(!method.isVarArgs() && !isBatch) {
+			boolean match = (signature.size() == parameters.size());
+			for(int i = 0; match && i < signature.size(); ++i) {
+				final TypeMirror sent = types.erasure(signature.get(i));
+				final TypeMirror received = types.erasure(parameters.get(i).asType());
+				if(sent.getKind().isPrimitive() || received.getKind().isPrimitive())
+					match = types.isSameType(sent, received);
+				else
+					match = types.isSubtype(sent, received);
+			}
+
+			if(!match) {
+				messager().printMessage(Kind.ERROR, String.format("Signature does not match that of message \"%s\" sent by %s: %s",
+				                                                  message, senderType.getQualifiedName(), signature), method, mirror);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Generates the source for the dispatcher of a class.
+	 * 
+	 * @param type       the class
+	 * @param messages   the messages sent by the class, or <code>null</code>
+	 *                   if they can't be known at compile time
+	 * @param receivers  mapping from receiving methods to their annotations
+	 */
+	private void generate(TypeElement type, Map<String, List<TypeMirror>> messages, Map<ExecutableElement, List<AnnotationMirror>> receivers) {
+		final Elements elements = processingEnv.getElementUtils();
+		final Types types = processingEnv.getTypeUtils();
+
+		final String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+		final String binaryName = elements.getBinaryName(type).toString();
+		final String dispatcherName = binaryName + DISPATCHER_SUFFIX;
+		final String simpleName = (packageName.isEmpty() ? dispatcherName : dispatcherName.substring(packageName.length() + 1));
+		final String typeName = types.erasure(type.asType()).toString();
+
+		try {
+			final JavaFileObject file = processingEnv.getFiler().createSourceFile(dispatcherName, type);
+			final PrintWriter out = new PrintWriter(file.openWriter());
+			try {
+				if(!packageName.isEmpty()) {
+					out.printf("package %s;%n", packageName);
+					out.println();
+				}
+
+				out.println("/**");
+				out.printf(" * Dispatcher for {@link %s}, generated by {@link %s}.%n", typeName, ManateeProcessor.class.getName());
+				out.println(" */");
+				out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+				out.printf("public final class %s extends %s {%n", simpleName, GeneratedDispatcher.class.getName());
+
+				// Constructor, describing messages and receiving methods
+				out.printf("\tpublic %s() {%n", simpleName);
+				out.printf("\t\tsuper(%s.class);%n", typeName);
+				if(messages != null) {
+					final Set<String> conflated = conflatedMessages.get(type.getQualifiedName().toString());
+					for(Map.Entry<String, List<TypeMirror>> message : messages.entrySet()) {
+						out.printf("\t\t%s(%s",
+						           (conflated.contains(message.getKey()) ? "conflatedMessage" : "message"),
+						           elements.getConstantExpression(message.getKey()));
+						for(TypeMirror argType : message.getValue())
+							out.printf(", %s.class", types.erasure(argType));
+						out.println(");");
+					}
+				}
+
+				int index = 0;
+				for(Map.Entry<ExecutableElement, List<AnnotationMirror>> receiver : receivers.entrySet()) {
+					final ExecutableElement method = receiver.getKey();
+					for(AnnotationMirror mirror : receiver.getValue()) {
+						out.printf("\t\treceiver(%d, %s, ", index, elements.getConstantExpression(method.getSimpleName().toString()));
+						writeAnnotation(out, mirror, "\t\t");
+						out.print(", new java.lang.Class<?>[] {");
+						String separator = "";
+						for(VariableElement parameter : method.getParameters()) {
+							out.printf("%s%s.class", separator, types.erasure(parameter.asType()));
+							separator = ", ";
+						}
+						out.printf("}, %s);%n", method.isVarArgs());
+					}
+					++index;
+				}
+				out.println("\t}");
+
+				// Direct calls to the receiving methods
+				if(!receivers.isEmpty()) {
+					out.println();
+					out.println("\t@Override");
+					out.printf("\tprotected void dispatch(int index, %s receiver, java.lang.String msg, java.lang.Object[] data) throws java.lang.Throwable {%n", MessageReceiver.class.getName());
+					out.printf("\t\tfinal %s target = (%s)receiver;%n", typeName, typeName);
+					out.println("\t\tswitch(index) {");
+
+					index = 0;
+					for(Map.Entry<ExecutableElement, List<AnnotationMirror>> receiver : receivers.entrySet()) {
+						final ExecutableElement method = receiver.getKey();
+						final List<? extends VariableElement> parameters = method.getParameters();
+						final boolean isCatchall = receivesName(receiver.getValue().get(0));
+
+						out.printf("\t\tcase %d: target.%s(", index, method.getSimpleName());
+						if(isCatchall) {
+							out.printf("msg, (%s)data", types.erasure(parameters.get(1).asType()));
+						} else if(method.isVarArgs()) {
+							out.printf("(%s)data", types.erasure(parameters.get(0).asType()));
+						} else {
+							for(int i = 0; i < parameters.size(); ++i)
+								out.printf("%s(%s)data[%d]", (i == 0 ? "" : ", "), types.erasure(parameters.get(i).asType()), i);
+						}
+						out.println("); break;");
+						++index;
+					}
+
+					out.println("\t\tdefault: super.dispatch(index, receiver, msg, data);");
+					out.println("\t\t}");
+					out.println("\t}");
+
+					// Calls that need neither an array nor boxing
+					final String[] names = { "a", "b", "c", "d" };
+					for(int arity = 0; arity <= names.length; ++arity) {
+						final StringBuilder parameters = new StringBuilder();
+						final StringBuilder arguments = new StringBuilder();
+						for(int i = 0; i < arity; ++i) {
+							parameters.append(", java.lang.Object ").append(names[i]);
+							arguments.append(", ").append(names[i]);
+						}
+						writeFixedDispatch(out, typeName, receivers, parameters.toString(), arguments.toString(), arity, null);
+					}
+					for(TypeKind primitive : new TypeKind[] { TypeKind.INT, TypeKind.LONG, TypeKind.DOUBLE }) {
+						final TypeMirror primitiveType = types.getPrimitiveType(primitive);
+						writeFixedDispatch(out, typeName, receivers, ", " + primitiveType + " a", ", a", 1, primitiveType);
+					}
+				}
+
+				out.println("}");
+			} finally {
+				out.close();
+			}
+		} catch(IOException exc) {
+			messager().printMessage(Kind.ERROR, "Unable to write dispatcher: " + exc.getMessage(), type);
+			return;
+		}
+
+		index.put(binaryName, dispatcherName);
+	}
+
+	/**
+	 * Writes an override of one of the fixed-arity dispatch methods of
+	 * {@link ca.gedge.manatee.GeneratedDispatcher}, calling every receiving
+	 * method that takes the given arguments as is. Nothing is written if no
+	 * method does.
+	 * 
+	 * @param out         the output
+	 * @param typeName    the name of the class declaring the receiving methods
+	 * @param receivers   mapping from receiving methods to their annotations
+	 * @param parameters  the declarations of the arguments, each preceded by
+	 *                    a comma
+	 * @param arguments   the names of the arguments, each preceded by a comma
+	 * @param arity       the number of arguments
+	 * @param primitive   the type of the only argument if it is a primitive,
+	 *                    or <code>null</code> if the arguments are objects
+	 */
+	private void writeFixedDispatch(PrintWriter out, String typeName, Map<ExecutableElement, List<AnnotationMirror>> receivers,
+	                                String parameters, String arguments, int arity, TypeMirror primitive)
+	{
+		final Types types = processingEnv.getTypeUtils();
+		final String[] names = { "a", "b", "c", "d" };
+		final StringBuilder cases = new StringBuilder();
+
+		int index = 0;
+		for(Map.Entry<ExecutableElement, List<AnnotationMirror>> receiver : receivers.entrySet()) {
+			final ExecutableElement method = receiver.getKey();
+			final List<? extends VariableElement> methodParameters = method.getParameters();
+			boolean fixed = (methodParameters.size() == arity && !method.isVarArgs());
+			for(AnnotationMirror mirror : receiver.getValue())
+				fixed &= !(receivesName(mirror) || (Boolean)getValue(mirror, "batch").getValue());
+			if(fixed && primitive != null)
+				fixed = types.isAssignable(primitive, methodParameters.get(0).asType());
+
+			if(fixed) {
+				cases.append(String.format("\t\tcase %d: target.%s(", index, method.getSimpleName()));
+				for(int i = 0; i < arity; ++i)
+					cases.append(String.format("%s(%s)%s", (i == 0 ? "" : ", "), types.erasure(methodParameters.get(i).asType()), names[i]));
+				cases.append(String.format("); break;%n"));
+			}
+			++index;
+		}
+
+		if(cases.length() == 0)
+			return;
+
+		out.println();
+		out.println("\t@Override");
+		out.printf("\tprotected void dispatch(int index, %s receiver, java.lang.String msg%s) throws java.lang.Throwable {%n", MessageReceiver.class.getName(), parameters);
+		out.printf("\t\tfinal %s target = (%s)receiver;%n", typeName, typeName);
+		out.println("\t\tswitch(index) {");
+		out.print(cases);
+		out.printf("\t\tdefault: super.dispatch(index, receiver, msg%s);%n", arguments);
+		out.println("\t\t}");
+		out.println("\t}");
+	}
+
+	/**
+	 * Writes an expression creating an instance of an annotation, with the
+	 * same values as a given mirror.
+	 * 
+	 * @param out     the output
+	 * @param mirror  the annotation mirror
+	 * @param indent  the indentation of the line the expression starts on
+	 */
+	private void writeAnnotation(PrintWriter out, AnnotationMirror mirror, String indent) {
+		final Types types = processingEnv.getTypeUtils();
+		final String annotationType = types.erasure(mirror.getAnnotationType()).toString();
+		final Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+
+		out.printf("new %s() {%n", annotationType);
+		out.printf("%s\tpublic java.lang.Class<? extends java.lang.annotation.Annotation> annotationType() { return %s.class; }%n", indent, annotationType);
+		for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : values.entrySet()) {
+			final ExecutableElement element = value.getKey();
+			out.printf("%s\tpublic %s %s() { return %s; }%n",
+			           indent, element.getReturnType(), element.getSimpleName(),
+			           value.getValue().accept(new ValueWriter(), element.getReturnType()));
+		}
+		out.printf("%s}", indent);
+	}
+
+	/**
+	 * Writes the index of generated dispatchers, merging it with any index
+	 * left by a previous compilation.
+	 */
+	private void writeIndex() {
+		final Filer filer = processingEnv.getFiler();
+		final Map<String, String> merged = new TreeMap<String, String>();
+		try {
+			final FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+			final InputStream in = existing.openInputStream();
+			try {
+				final Properties properties = new Properties();
+				properties.load(in);
+				for(String name : properties.stringPropertyNames())
+					merged.put(name, properties.getProperty(name));
+			} finally {
+				in.close();
+			}
+		} catch(IOException exc) {
+			// No previous index
+		}
+		merged.putAll(index);
+
+		try {
+			final FileObject file = filer.createResource(StandardLocation.CLASS_OUTPUT, "", INDEX_RESOURCE);
+			final Writer out = file.openWriter();
+			try {
+				for(Map.Entry<String, String> entry : merged.entrySet())
+					out.write(entry.getKey() + "=" + entry.getValue() + "\n");
+			} finally {
+				out.close();
+			}
+		} catch(IOException exc) {
+			messager().printMessage(Kind.ERROR, "Unable to write dispatcher index: " + exc.getMessage());
+		}
+	}
+
+	/**
+	 * Gets the messages sent by a class.
+	 * 
+	 * @param type  the class
+	 * 
+	 * @return mapping from message names to their signature, or <code>null</code>
+	 *         if any message name is not a compile-time constant, or if the
+	 *         class declares messages with a {@link MessageKey}
+	 */
+	private Map<String, List<TypeMirror>> getMessages(TypeElement type) {
+		final String name = type.getQualifiedName().toString();
+		if(senderMessages.containsKey(name))
+			return senderMessages.get(name);
+
+		final Types types = processingEnv.getTypeUtils();
+		final TypeMirror keyType = processingEnv.getElementUtils().getTypeElement(MessageKey.class.getCanonicalName()).asType();
+
+		Map<String, List<TypeMirror>> messages = new LinkedHashMap<String, List<TypeMirror>>();
+		final Set<String> conflated = new HashSet<String>();
+		for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+			// Keys are only created at runtime
+			if(field.getModifiers().contains(Modifier.STATIC) && types.isAssignable(types.erasure(field.asType()), keyType)) {
+				messages = null;
+				break;
+			}
+
+			final AnnotationMirror mirror = getMirror(field, Message.class);
+			if(mirror == null || !field.getModifiers().contains(Modifier.STATIC))
+				continue;
+
+			if(field.getConstantValue() == null) {
+				messages = null;
+				break;
+			}
+
+			final List<TypeMirror> signature = new ArrayList<TypeMirror>();
+			for(Object argType : (List<?>)getValue(mirror, "signature").getValue())
+				signature.add((TypeMirror)((AnnotationValue)argType).getValue());
+			messages.put(field.getConstantValue().toString(), signature);
+			if((Boolean)getValue(mirror, "conflate").getValue())
+				conflated.add(field.getConstantValue().toString());
+		}
+
+		senderMessages.put(name, messages);
+		conflatedMessages.put(name, conflated);
+		return messages;
+	}
+
+	/**
+	 * Gets all {@link ReceiverMethod} annotations on a method, including those
+	 * within a {@link ReceiverMethods} annotation.
+	 * 
+	 * @param method  the method
+	 * 
+	 * @return the annotation mirrors
+	 */
+	private List<AnnotationMirror> getReceiverMirrors(ExecutableElement method) {
+		final List<AnnotationMirror> mirrors = new ArrayList<AnnotationMirror>();
+
+		final AnnotationMirror single = getMirror(method, ReceiverMethod.class);
+		if(single != null)
+			mirrors.add(single);
+
+		final AnnotationMirror multiple = getMirror(method, ReceiverMethods.class);
+		if(multiple != null) {
+			for(Object mirror : (List<?>)getValue(multiple, "messages").getValue())
+				mirrors.add((AnnotationMirror)((AnnotationValue)mirror).getValue());
+		}
+
+		return mirrors;
+	}
+
+	/**
+	 * Gets whether or not a generated class in the same package can access a type.
+	 * 
+	 * @param type  the type
+	 * 
+	 * @return <code>true</code> if the type is accessible, <code>false</code> otherwise
+	 */
+	private static boolean isAccessible(TypeElement type) {
+		Element current = type;
+		while(current.getKind().isClass() || current.getKind().isInterface()) {
+			final TypeElement currentType = (TypeElement)current;
+			if(currentType.getModifiers().contains(Modifier.PRIVATE))
+				return false;
+			if(currentType.getNestingKind() == NestingKind.LOCAL || currentType.getNestingKind() == NestingKind.ANONYMOUS)
+				return false;
+			current = current.getEnclosingElement();
+		}
+		return (current.getKind() == ElementKind.PACKAGE);
+	}
+
+	/**
+	 * Gets the mirror of an annotation on an element.
+	 * 
+	 * @param element          the element
+	 * @param annotationClass  the annotation's class
+	 * 
+	 * @return the mirror, or <code>null</code> if the element doesn't have
+	 *         the annotation
+	 */
+	private static AnnotationMirror getMirror(Element element, Class<?> annotationClass) {
+		for(AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			final TypeElement annotationType = (TypeElement)mirror.getAnnotationType().asElement();
+			if(annotationType.getQualifiedName().contentEquals(annotationClass.getCanonicalName()))
+				return mirror;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets a value of an annotation, including default values.
+	 * 
+	 * @param mirror  the annotation mirror
+	 * @param name    the name of the value
+	 * 
+	 * @return the value
+	 */
+	private AnnotationValue getValue(AnnotationMirror mirror, String name) {
+		final Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+		for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value : values.entrySet()) {
+			if(value.getKey().getSimpleName().contentEquals(name))
+				return value.getValue();
+		}
+		throw new IllegalArgumentException("No value named " + name + " in " + mirror);
+	}
+
+	/**
+	 * Gets whether or not a receiving method gets the message name followed
+	 * by the arguments, which is the case for catchall methods and methods
+	 * subscribing to a topic.
+	 * 
+	 * @param mirror  the {@link ReceiverMethod} annotation
+	 * 
+	 * @return <code>true</code> if the method receives the message name,
+	 *         <code>false</code> otherwise
+	 */
+	private boolean receivesName(AnnotationMirror mirror) {
+		return (Boolean)getValue(mirror, "isCatchall").getValue()
+		       || !((String)getValue(mirror, "topic").getValue()).isEmpty();
+	}
+
+	/**
+	 * Gets the messager used to report errors.
+	 * 
+	 * @return the messager
+	 */
+	private Messager messager() {
+		return processingEnv.getMessager();
+	}
+
+	/**
+	 * Writes an annotation value as a Java expression. The parameter of each
+	 * visit is the type of the value.
+	 */
+	private class ValueWriter extends SimpleAnnotationValueVisitor8<String, TypeMirror> {
+		@Override
+		protected String defaultAction(Object value, TypeMirror type) {
+			// Primitives and strings
+			return processingEnv.getElementUtils().getConstantExpression(value);
+		}
+
+		@Override
+		public String visitType(TypeMirror value, TypeMirror type) {
+			return processingEnv.getTypeUtils().erasure(value) + ".class";
+		}
+
+		@Override
+		public String visitEnumConstant(VariableElement value, TypeMirror type) {
+			return ((TypeElement)value.getEnclosingElement()).getQualifiedName() + "." + value.getSimpleName();
+		}
+
+		@Override
+		public String visitArray(List<? extends AnnotationValue> values, TypeMirror type) {
+			final TypeMirror componentType = ((ArrayType)type).getComponentType();
+			final StringBuilder builder = new StringBuilder();
+			builder.append("new ").append(processingEnv.getTypeUtils().erasure(componentType)).append("[] {");
+			for(int i = 0; i < values.size(); ++i) {
+				if(i > 0) builder.append(", ");
+				builder.append(values.get(i).accept(this, componentType));
+			}
+			return builder.append('}').toString();
+		}
+
+		@Override
+		public String visitAnnotation(AnnotationMirror value, TypeMirror type) {
+			throw new UnsupportedOperationException("Nested annotations are not supported");
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies, in nanoseconds. Latencies are counted
+ * in buckets whose bounds are powers of two, so recording a latency is a
+ * couple of atomic additions, and percentiles are reported as the upper
+ * bound of the bucket they fall in, which is within a factor of two of the
+ * actual value.
+ */
+public class LatencyHistogram {
+	/** The number of buckets, one for each bit of a long */
+	public static final int BUCKETS = 64;
+
+	/** Bucket <code>i</code> counts latencies below <code>2<sup>i</sup></code> and not below <code>2<sup>i-1</sup></code> */
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	/** Sum of all latencies recorded */
+	private final StripedCounter total = new StripedCounter();
+
+	/** Largest latency recorded */
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos  the latency, in nanoseconds; negative values are recorded as zero
+	 */
+	public void record(long nanos) {
+		if(nanos < 0)
+			nanos = 0;
+
+		buckets.incrementAndGet(bucket(nanos));
+		total.add(nanos);
+
+		long current = max.get();
+		while(nanos > current && !max.compareAndSet(current, nanos))
+			current = max.get();
+	}
+
+	/**
+	 * Gets the number of latencies recorded.
+	 * 
+	 * @return the number of latencies
+	 */
+	public long getCount() {
+		long count = 0;
+		for(int index = 0; index < BUCKETS; ++index)
+			count += buckets.get(index);
+		return count;
+	}
+
+	/**
+	 * Gets the mean of the latencies recorded.
+	 * 
+	 * @return the mean, in nanoseconds, or zero if nothing has been recorded
+	 */
+	public long getMean() {
+		final long count = getCount();
+		return (count == 0 ? 0 : total.sum() / count);
+	}
+
+	/**
+	 * Gets the largest latency recorded.
+	 * 
+	 * @return the largest latency, in nanoseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets an upper bound for a percentile of the latencies recorded.
+	 * 
+	 * @param percentile  the percentile, between 0 and 100
+	 * 
+	 * @return the upper bound of the bucket holding the percentile, in
+	 *         nanoseconds, but never more than {@link #getMax()}
+	 */
+	public long getPercentile(double percentile) {
+		final long[] counts = getBuckets();
+		long count = 0;
+		for(long bucketCount : counts)
+			count += bucketCount;
+		if(count == 0)
+			return 0;
+
+		final long rank = (long)Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100);
+		long seen = 0;
+		for(int index = 0; index < BUCKETS; ++index) {
+			seen += counts[index];
+			if(seen >= rank && seen > 0)
+				return Math.min(upperBound(index), getMax());
+		}
+		return getMax();
+	}
+
+	/**
+	 * Gets the counts of each bucket. Bucket <code>i</code> counts the
+	 * latencies of at least <code>2<sup>i-1</sup></code> nanoseconds, and
+	 * less than <code>2<sup>i</sup></code> nanoseconds.
+	 * 
+	 * @return the bucket counts
+	 */
+	public long[] getBuckets() {
+		final long[] counts = new long[BUCKETS];
+		for(int index = 0; index < BUCKETS; ++index)
+			counts[index] = buckets.get(index);
+		return counts;
+	}
+
+	/**
+	 * Gets the bucket counting a latency.
+	 */
+	private static int bucket(long nanos) {
+		return Math.min(BUCKETS - (Long.numberOfLeadingZeros(nanos)), BUCKETS - 1);
+	}
+
+	/**
+	 * Gets the largest latency counted by a bucket.
+	 */
+	private static long upperBound(int bucket) {
+		return (bucket >= BUCKETS - 1 ? Long.MAX_VALUE : (1L << bucket) - 1);
+	}
+}
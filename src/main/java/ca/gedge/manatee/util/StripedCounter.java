@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment at once with little contention.
+ * The count is spread over several cells, each on its own cache line, and
+ * each thread increments the cell picked by its identifier. Reading the
+ * count sums all cells, so it is slower than incrementing, and may miss
+ * increments made while it is being read.
+ */
+public class StripedCounter {
+	/** Number of longs between cells, so that each is on its own cache line */
+	private static final int PADDING = 8;
+
+	/** Maximum number of cells */
+	private static final int MAX_STRIPES = 64;
+
+	/** The cells, of which every {@link #PADDING}-th element is used */
+	private final AtomicLongArray cells;
+
+	/** Mask selecting a cell from a thread's hash, one less than a power of two */
+	private final int mask;
+
+	/**
+	 * Default constructor. The number of cells depends on the number of
+	 * available processors.
+	 */
+	public StripedCounter() {
+		int stripes = 1;
+		while(stripes < Runtime.getRuntime().availableProcessors() && stripes < MAX_STRIPES)
+			stripes <<= 1;
+
+		this.cells = new AtomicLongArray(stripes * PADDING);
+		this.mask = stripes - 1;
+	}
+
+	/**
+	 * Increments this counter.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Adds to this counter.
+	 * 
+	 * @param delta  the amount to add
+	 */
+	public void add(long delta) {
+		cells.getAndAdd(index(), delta);
+	}
+
+	/**
+	 * Gets the count.
+	 * 
+	 * @return the sum of everything added to this counter
+	 */
+	public long sum() {
+		long sum = 0;
+		for(int index = 0; index <= mask; ++index)
+			sum += cells.get(index * PADDING);
+		return sum;
+	}
+
+	/**
+	 * Gets the index of the cell for the current thread.
+	 */
+	private int index() {
+		final long id = Thread.currentThread().getId();
+		final int hash = (int)(id ^ (id >>> 32)) * 0x9E3779B9;
+		return ((hash >>> 16) & mask) * PADDING;
+	}
+}
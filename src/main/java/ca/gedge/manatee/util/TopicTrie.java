@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A trie of hierarchical topic patterns, such as <code>order.created</code>,
+ * where segments are separated by dots. In a pattern, the segment
+ * <code>*</code> matches exactly one segment and the segment <code>#</code>
+ * matches zero or more segments, so <code>order.*</code> matches
+ * <code>order.created</code> but not <code>order.line.added</code>, whereas
+ * <code>order.#</code> matches both, as well as <code>order</code> itself.
+ * 
+ * Patterns are stored one segment per level, so matching a topic visits a
+ * number of nodes proportional to the depth of the topic, rather than to the
+ * number of patterns. This class is not thread-safe.
+ * 
+ * @param <T>  the type of values associated with patterns
+ */
+public class TopicTrie<T> {
+	/** The segment matching exactly one segment */
+	public static final String SINGLE_WILDCARD = "*";
+
+	/** The segment matching zero or more segments */
+	public static final String MULTI_WILDCARD = "#";
+
+	/**
+	 * A node of the trie, for a single segment of a pattern.
+	 */
+	private static final class Node<T> {
+		/** Children for literal segments */
+		final Map<String, Node<T>> children = new HashMap<String, Node<T>>();
+
+		/** Child for the single-segment wildcard, if any */
+		Node<T> single;
+
+		/** Child for the multi-segment wildcard, if any */
+		Node<T> multi;
+
+		/** Values of the patterns ending at this node */
+		final List<T> values = new ArrayList<T>(1);
+	}
+
+	/** The root of the trie */
+	private final Node<T> root = new Node<T>();
+
+	/** The number of patterns in the trie */
+	private int size;
+
+	/**
+	 * Checks whether or not a string is a valid pattern. A valid pattern has
+	 * at least one segment, none of its segments are empty, and wildcards
+	 * only appear as whole segments.
+	 * 
+	 * @param pattern  the pattern
+	 * 
+	 * @return <code>true</code> if the pattern is valid, <code>false</code> otherwise
+	 */
+	public static boolean isValidPattern(String pattern) {
+		if(pattern == null)
+			return false;
+
+		for(String segment : split(pattern)) {
+			if(segment.isEmpty())
+				return false;
+
+			if(!segment.equals(SINGLE_WILDCARD) && !segment.equals(MULTI_WILDCARD)
+			   && (segment.contains(SINGLE_WILDCARD) || segment.contains(MULTI_WILDCARD)))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Adds a pattern to this trie.
+	 * 
+	 * @param pattern  the pattern
+	 * @param value    the value associated with the pattern
+	 * 
+	 * @throws IllegalArgumentException  if the pattern is not valid
+	 */
+	public void add(String pattern, T value) {
+		if(!isValidPattern(pattern))
+			throw new IllegalArgumentException("Invalid topic pattern: " + pattern);
+
+		Node<T> node = root;
+		for(String segment : split(pattern)) {
+			Node<T> child;
+			if(segment.equals(SINGLE_WILDCARD)) {
+				if(node.single == null)
+					node.single = new Node<T>();
+				child = node.single;
+			} else if(segment.equals(MULTI_WILDCARD)) {
+				if(node.multi == null)
+					node.multi = new Node<T>();
+				child = node.multi;
+			} else {
+				child = node.children.get(segment);
+				if(child == null) {
+					child = new Node<T>();
+					node.children.put(segment, child);
+				}
+			}
+			node = child;
+		}
+		node.values.add(value);
+		++size;
+	}
+
+	/**
+	 * Gets the values of all patterns matching a topic.
+	 * 
+	 * @param topic  the topic
+	 * 
+	 * @return the values, in no particular order and without duplicates
+	 */
+	public Set<T> match(String topic) {
+		final Set<T> matches = new LinkedHashSet<T>();
+		if(size > 0)
+			match(root, split(topic), 0, matches);
+		return matches;
+	}
+
+	/**
+	 * Gets whether or not this trie has any patterns.
+	 * 
+	 * @return <code>true</code> if there are no patterns, <code>false</code> otherwise
+	 */
+	public boolean isEmpty() {
+		return (size == 0);
+	}
+
+	/**
+	 * Collects the values of the patterns below a node that match the
+	 * remaining segments of a topic.
+	 */
+	private static <T> void match(Node<T> node, String[] segments, int index, Set<T> matches) {
+		if(node.multi != null) {
+			for(int rest = index; rest <= segments.length; ++rest)
+				match(node.multi, segments, rest, matches);
+		}
+
+		if(index == segments.length) {
+			matches.addAll(node.values);
+			return;
+		}
+
+		final Node<T> child = node.children.get(segments[index]);
+		if(child != null)
+			match(child, segments, index + 1, matches);
+		if(node.single != null)
+			match(node.single, segments, index + 1, matches);
+	}
+
+	/**
+	 * Splits a topic or pattern into its segments.
+	 */
+	private static String[] split(String topic) {
+		final List<String> segments = new ArrayList<String>();
+		int start = 0;
+		for(int end; (end = topic.indexOf('.', start)) >= 0; start = end + 1)
+			segments.add(topic.substring(start, end));
+		segments.add(topic.substring(start));
+		return segments.toArray(new String[segments.size()]);
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.WeakHashMap;
+
+/**
+ * A registry that holds weak references to objects, optimized for frequent
+ * traversal by many threads while objects are concurrently added and removed.
+ * Some things to keep in mind when using this class:
+ * <ul>
+ *   <li>Iteration never locks. An iterator traverses a snapshot of the
+ *       registry taken when the iterator was created, so it will never throw
+ *       {@link java.util.ConcurrentModificationException}. Objects added after
+ *       the snapshot was taken are not seen, but objects removed after the
+ *       snapshot was taken may be skipped.</li>
+ *   <li>Adding an object is amortized constant time. References are appended
+ *       to a growable array and published by replacing a small snapshot
+ *       object.</li>
+ *   <li>Removing an object is constant time. Objects are indexed by
+ *       {@link Object#equals(Object)}, and their references are cleared in
+ *       place. References are
+ *       registered with a {@link ReferenceQueue}, so garbage collected objects
+ *       are noticed without traversing the registry. Cleared and collected
+ *       references are compacted away once they make up half of the
+ *       registry, which is amortized constant time per reference.</li>
+ *   <li>Reads never purge anything; the reference queue is only polled when
+ *       objects are added or removed, or when {@link #expunge()} is called.</li>
+ *   <li><code>null</code> cannot be stored, and iterators never return
+ *       <code>null</code>.</li>
+ * </ul>
+ * 
+ * @param <T>  the type of objects being stored in the registry
+ */
+public class WeakRegistry<T> implements Iterable<T> {
+	/** The initial capacity of the registry */
+	private static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * A reference to an object in the registry.
+	 */
+	private static final class Entry<T> extends WeakReference<T> {
+		/** Whether or not this entry is no longer part of the registry */
+		boolean removed;
+
+		/** The next entry for an object equal to this one, if any */
+		Entry<T> duplicate;
+
+		Entry(T referent, ReferenceQueue<? super T> queue) {
+			super(referent, queue);
+		}
+	}
+
+	/**
+	 * An immutable view of the registry. The entries array may be shared by
+	 * several snapshots, but each snapshot only ever reads its first
+	 * <code>size</code> elements, which are never reassigned.
+	 */
+	private static final class Snapshot<T> {
+		final Entry<T>[] entries;
+		final int size;
+
+		Snapshot(Entry<T>[] entries, int size) {
+			this.entries = entries;
+			this.size = size;
+		}
+	}
+
+	/** The current snapshot */
+	private volatile Snapshot<T> snapshot;
+
+	/**
+	 * Index from objects to the first of their entries, so that objects can
+	 * be removed without a traversal. Only accessed while holding this
+	 * registry's lock.
+	 */
+	private final Map<T, Entry<T>> firstEntries = new WeakHashMap<T, Entry<T>>();
+
+	/** Queue receiving the entries of garbage collected objects */
+	private final ReferenceQueue<T> queue = new ReferenceQueue<T>();
+
+	/** The number of entries that have been cleared or collected since the last compaction */
+	private int cleared;
+
+	/** The number of garbage collected objects since the last call to {@link #expunge()} */
+	private int collected;
+
+	/**
+	 * Constructs an empty registry.
+	 */
+	@SuppressWarnings("unchecked")
+	public WeakRegistry() {
+		this.snapshot = new Snapshot<T>(new Entry[INITIAL_CAPACITY], 0);
+	}
+
+	/**
+	 * Adds an object to this registry.
+	 * 
+	 * @param element  the object
+	 * 
+	 * @throws NullPointerException  if <code>element</code> is <code>null</code>
+	 */
+	public synchronized void add(T element) {
+		if(element == null)
+			throw new NullPointerException("Null values cannot be inserted into a WeakRegistry");
+
+		pollQueue();
+
+		Snapshot<T> current = snapshot;
+		Entry<T>[] entries = current.entries;
+		if(current.size == entries.length) {
+			current = compact(current);
+			entries = current.entries;
+			if(current.size > entries.length / 2)
+				entries = Arrays.copyOf(entries, 2 * entries.length);
+		}
+
+		final Entry<T> entry = new Entry<T>(element, queue);
+		Entry<T> first = firstEntries.get(element);
+		if(first == null) {
+			firstEntries.put(element, entry);
+		} else {
+			while(first.duplicate != null)
+				first = first.duplicate;
+			first.duplicate = entry;
+		}
+
+		entries[current.size] = entry;
+		snapshot = new Snapshot<T>(entries, current.size + 1);
+	}
+
+	/**
+	 * Removes the first occurrence of an object from this registry, as
+	 * determined by {@link Object#equals(Object)}.
+	 * 
+	 * @param o  the object
+	 * 
+	 * @return <code>true</code> if the object was in this registry,
+	 *         <code>false</code> otherwise
+	 */
+	public synchronized boolean remove(Object o) {
+		if(o == null)
+			return false;
+
+		pollQueue();
+
+		final Entry<T> entry = firstEntries.remove(o);
+		if(entry == null)
+			return false;
+
+		reindex(entry.duplicate);
+		entry.clear();
+		entry.removed = true;
+		++cleared;
+		compactIfNeeded();
+		return true;
+	}
+
+	/**
+	 * Reclaims the entries of objects that have been garbage collected.
+	 * 
+	 * @return the number of objects that have been garbage collected since
+	 *         the last call to this method
+	 */
+	public synchronized int expunge() {
+		pollQueue();
+
+		final int ret = collected;
+		collected = 0;
+		return ret;
+	}
+
+	/**
+	 * Gets whether or not this registry contains an object, as determined by
+	 * {@link Object#equals(Object)}.
+	 * 
+	 * @param o  the object
+	 * 
+	 * @return <code>true</code> if the object is in this registry,
+	 *         <code>false</code> otherwise
+	 */
+	public boolean contains(Object o) {
+		if(o != null) {
+			for(T element : this) {
+				if(o.equals(element))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes all objects from this registry.
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized void clear() {
+		final Snapshot<T> current = snapshot;
+		for(int index = 0; index < current.size; ++index) {
+			current.entries[index].clear();
+			current.entries[index].removed = true;
+		}
+
+		snapshot = new Snapshot<T>(new Entry[INITIAL_CAPACITY], 0);
+		firstEntries.clear();
+		cleared = 0;
+	}
+
+	/**
+	 * Gets the number of objects in this registry. This requires a traversal
+	 * of the registry.
+	 * 
+	 * @return the number of objects
+	 */
+	public int size() {
+		int size = 0;
+		for(Iterator<T> iter = iterator(); iter.hasNext(); iter.next())
+			++size;
+		return size;
+	}
+
+	/**
+	 * Gets whether or not this registry contains no objects.
+	 * 
+	 * @return <code>true</code> if this registry is empty, <code>false</code>
+	 *         otherwise
+	 */
+	public boolean isEmpty() {
+		return !iterator().hasNext();
+	}
+
+	/**
+	 * Returns an iterator over a snapshot of this registry. The iterator does
+	 * not support {@link Iterator#remove()}.
+	 */
+	@Override
+	public Iterator<T> iterator() {
+		return new SnapshotIterator<T>(snapshot);
+	}
+
+	/**
+	 * Counts the entries of garbage collected objects waiting in the reference
+	 * queue, compacting the registry if enough of them have accumulated. Must
+	 * be called while holding this registry's lock.
+	 */
+	private void pollQueue() {
+		Reference<? extends T> ref;
+		while((ref = queue.poll()) != null) {
+			++collected;
+
+			@SuppressWarnings("unchecked")
+			final Entry<T> entry = (Entry<T>)ref;
+			if(!entry.removed) {
+				entry.removed = true;
+				++cleared;
+			}
+
+			// Equal objects may still be alive, but the index lost this
+			// entry along with its key. This is needed even if the entry was
+			// already marked as removed, since compaction marks collected
+			// entries before they are polled.
+			reindex(entry.duplicate);
+		}
+		compactIfNeeded();
+	}
+
+	/**
+	 * Indexes the first live entry of a chain of duplicates, unless its object
+	 * is already indexed. Must be called while holding this registry's lock.
+	 * 
+	 * @param entry  the first entry of the chain, or <code>null</code>
+	 */
+	private void reindex(Entry<T> entry) {
+		for(; entry != null; entry = entry.duplicate) {
+			final T element = entry.get();
+			if(element != null && !entry.removed) {
+				if(!firstEntries.containsKey(element))
+					firstEntries.put(element, entry);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Compacts the registry if at least half of its entries have been cleared
+	 * or collected. Must be called while holding this registry's lock.
+	 */
+	private void compactIfNeeded() {
+		final Snapshot<T> current = snapshot;
+		if(cleared > 0 && cleared >= current.size / 2)
+			snapshot = compact(current);
+	}
+
+	/**
+	 * Creates a snapshot without the references that have been cleared or
+	 * whose objects have been garbage collected. Must be called while holding
+	 * this registry's lock.
+	 * 
+	 * @param current  the current snapshot
+	 * 
+	 * @return the compacted snapshot
+	 */
+	@SuppressWarnings("unchecked")
+	private Snapshot<T> compact(Snapshot<T> current) {
+		final Entry<T>[] entries = new Entry[current.entries.length];
+		int size = 0;
+		for(int index = 0; index < current.size; ++index) {
+			final Entry<T> entry = current.entries[index];
+			if(!entry.removed && entry.get() != null)
+				entries[size++] = entry;
+			else
+				entry.removed = true;
+		}
+
+		cleared = 0;
+		return new Snapshot<T>(entries, size);
+	}
+
+	/**
+	 * An iterator over a snapshot, which skips references pointing to
+	 * <code>null</code> objects.
+	 */
+	private static class SnapshotIterator<T> implements Iterator<T> {
+		private final Snapshot<T> snapshot;
+		private int index;
+		private T next;
+
+		SnapshotIterator(Snapshot<T> snapshot) {
+			this.snapshot = snapshot;
+			advance();
+		}
+
+		/**
+		 * Finds the next object that has not been garbage collected.
+		 */
+		private void advance() {
+			next = null;
+			while(next == null && index < snapshot.size)
+				next = snapshot.entries[index++].get();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return (next != null);
+		}
+
+		@Override
+		public T next() {
+			if(next == null)
+				throw new NoSuchElementException();
+
+			final T ret = next;
+			advance();
+			return ret;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link DispatchTable} class.
+ */
+public class TestDispatchTable {
+	/**
+	 * A reference whose referent is collected after it has been read a given
+	 * number of times.
+	 */
+	private static class ExpiringReference extends WeakReference<MessageReceiver> {
+		private int reads;
+
+		public ExpiringReference(MessageReceiver referent, int reads) {
+			super(referent);
+			this.reads = reads;
+		}
+
+		@Override
+		public MessageReceiver get() {
+			if(reads == 0)
+				return null;
+			--reads;
+			return super.get();
+		}
+	}
+
+	private DispatchTable table;
+
+	@Before
+	public void initialize() {
+		Logger.getLogger(MessageData.class.getName()).setLevel(Level.OFF);
+		final MessageData data = new MessageData(TestSender.class);
+		for(ReceiverInvoker invoker : ClassHierarchy.getReceivingMethods(TestReceiverA.class))
+			data.addReceiverInvoker(invoker.getAnnotation().message(), invoker);
+
+		table = DispatchTable.build(data, data.getDescriptor(TestSender.MESSAGE_A),
+		                            Collections.<Class<? extends MessageReceiver>, List<MessageReceiver>>emptyMap(),
+		                            null);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCompactWhileCollecting() {
+		final TestReceiverA a = new TestReceiverA();
+		final TestReceiverA b = new TestReceiverA();
+		final TestReceiverA c = new TestReceiverA();
+
+		// Each reference is read once when added. The first receiver is then
+		// collected after one more read, and the second one right away.
+		table = table.with(new WeakReference[]{
+		                       new ExpiringReference(a, 2),
+		                       new ExpiringReference(b, 1),
+		                       new WeakReference<MessageReceiver>(c)
+		                   },
+		                   new Mailbox[3]);
+		assertEquals(3, table.size());
+
+		final DispatchTable compacted = table.compact();
+		assertEquals(2, compacted.size());
+		assertSame(c, compacted.getReceiver(1));
+		assertNotNull(compacted.getInvoker(0));
+		assertNotNull(compacted.getInvoker(1));
+	}
+
+	@Test
+	public void testCompactWithoutCollected() {
+		final TestReceiverA a = new TestReceiverA();
+		table = table.with(a, null);
+		assertSame(table, table.compact());
+		assertSame(a, table.compact().getReceiver(0));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testSenderKeyed() {
+		final TestReceiverA receiver = new TestReceiverA();
+		final WeakReference<MessageReceiver>[] receivers = new WeakReference[]{ new WeakReference<MessageReceiver>(receiver) };
+		final TestSender[] senders = new TestSender[50];
+		for(int index = 0; index < senders.length; ++index) {
+			senders[index] = new TestSender();
+			table = table.withKeyed(new SenderKey(senders[index]), receivers, new Mailbox[1]);
+		}
+		assertTrue(table.hasKeyed());
+		assertNull(table.getSenderKeyed(new TestSender()));
+		assertNull(table.getKeyed(senders[0]));
+
+		// Senders are found by identity, and can be removed through any key
+		// for the same sender
+		for(int index = 0; index < senders.length; index += 2)
+			table = table.withKeyed(new SenderKey(senders[index]), null, null);
+		for(int index = 0; index < senders.length; ++index) {
+			final DispatchTable keyed = table.getSenderKeyed(senders[index]);
+			if(index % 2 == 0) {
+				assertNull(keyed);
+			} else {
+				assertEquals(1, keyed.size());
+				assertSame(receiver, keyed.getReceiver(0));
+			}
+		}
+
+		for(int index = 1; index < senders.length; index += 2)
+			table = table.withKeyed(new SenderKey(senders[index]), null, null);
+		assertFalse(table.hasKeyed());
+	}
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link DispatcherIndex} class, and the dispatchers generated for
+ * the test classes.
+ */
+public class TestDispatcherIndex {
+	@Before
+	public void initialize() {
+		Logger.getLogger(DispatcherIndex.class.getName()).setLevel(Level.OFF);
+	}
+
+	@Test
+	public void testFindSender() {
+		final GeneratedDispatcher dispatcher = DispatcherIndex.find(TestSender.class);
+		assertNotNull(dispatcher);
+		assertEquals(TestSender.class, dispatcher.getTargetClass());
+		assertEquals(4, dispatcher.getMessages().size());
+		assertArrayEquals(new Class<?>[] { String.class, Integer.class }, dispatcher.getMessages().get(TestSender.MESSAGE_AB));
+		assertFalse(dispatcher.isConflated(TestSender.MESSAGE_AB));
+		assertTrue(dispatcher.isConflated(TestSender.MESSAGE_PROGRESS));
+		assertTrue(dispatcher.getInvokers().isEmpty());
+	}
+
+	@Test
+	public void testFindReceiver() {
+		final GeneratedDispatcher dispatcher = DispatcherIndex.find(TestReceiverMethods.class);
+		assertNotNull(dispatcher);
+		assertTrue(dispatcher.getMessages().isEmpty());
+		assertEquals(2, dispatcher.getInvokers().size());
+
+		final ReceiverInvoker invoker = dispatcher.getInvokers().get(1);
+		assertEquals(TestReceiverMethods.class, invoker.getReceiverClass());
+		assertEquals(TestSender.class, invoker.getAnnotation().senderClass());
+		assertEquals(TestSender.MESSAGE_AB, invoker.getAnnotation().message());
+		assertTrue(invoker.isVarArgs());
+		assertNull(invoker.getMethod());
+	}
+
+	@Test
+	public void testDispatch() throws Exception {
+		final TestReceiverA receiver = new TestReceiverA();
+		final MessageData data = new MessageData(TestSender.class);
+		for(ReceiverInvoker invoker : DispatcherIndex.find(TestReceiverA.class).getInvokers())
+			assertTrue(data.addReceiverInvoker(invoker.getAnnotation().message(), invoker));
+
+		data.getReceiverMethod(TestSender.MESSAGE_AB, TestReceiverA.class).invoke(receiver, TestSender.MESSAGE_AB, new Object[] { "Foo", 12345 });
+		assertArrayEquals(new Object[] { "Foo", 12345 }, receiver.calls.get(TestSender.MESSAGE_AB).get(0));
+	}
+
+	@Test
+	public void testFixedArityDispatch() throws Exception {
+		final TestReceiverPrimitives receiver = new TestReceiverPrimitives();
+		final Map<String, ReceiverInvoker> generated = new HashMap<String, ReceiverInvoker>();
+		for(ReceiverInvoker invoker : DispatcherIndex.find(TestReceiverPrimitives.class).getInvokers())
+			generated.put(invoker.getAnnotation().message(), invoker);
+
+		final Map<String, ReceiverInvoker> reflected = new HashMap<String, ReceiverInvoker>();
+		for(Method method : TestReceiverPrimitives.class.getDeclaredMethods()) {
+			final ReceiverMethod annotation = method.getAnnotation(ReceiverMethod.class);
+			if(annotation != null)
+				reflected.put(annotation.message(), ReceiverInvoker.forMethod(method, annotation));
+		}
+
+		for(Map<String, ReceiverInvoker> invokers : Arrays.asList(generated, reflected)) {
+			receiver.calls.clear();
+			invokers.get(TestPrimitiveSender.COUNT).invoke(receiver, TestPrimitiveSender.COUNT, 1);
+			invokers.get(TestPrimitiveSender.TOTAL).invoke(receiver, TestPrimitiveSender.TOTAL, 2);
+			invokers.get(TestPrimitiveSender.RATIO).invoke(receiver, TestPrimitiveSender.RATIO, 3L);
+			invokers.get(TestPrimitiveSender.INITIAL).invoke(receiver, TestPrimitiveSender.INITIAL, 1, 'x', null, null, null);
+			invokers.get(TestPrimitiveSender.WORDS).invoke(receiver, TestPrimitiveSender.WORDS, 4, "a", "b", "c", "d");
+			assertEquals(Arrays.<Object>asList(1, 2L, 3.0, 'x', "abcd"), receiver.calls);
+
+			try {
+				invokers.get(TestPrimitiveSender.WORDS).invoke(receiver, TestPrimitiveSender.WORDS, 2, "a", "b", null, null);
+				fail("Expected an IllegalArgumentException");
+			} catch(IllegalArgumentException exc) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testNotGenerated() {
+		assertNull(DispatcherIndex.find(MessageDeliverySystem.class));
+		assertNull(DispatcherIndex.find(String.class));
+	}
+}
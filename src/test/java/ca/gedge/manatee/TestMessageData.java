@@ -21,8 +21,6 @@
  */
 package ca.gedge.manatee;
 
-import java.lang.reflect.Array;
-import java.lang.reflect.Method;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -52,29 +50,43 @@ public class TestMessageData {
 
 	@Test
 	public void testAddReceiverMethods() {
-		try {
-			final Method messageAMethod = TestReceiverA.class.getDeclaredMethod("messageA");
-			data.addReceiverMethod(TestSender.MESSAGE_A, messageAMethod);
-			assertEquals(messageAMethod, data.getReceiverMethod(TestSender.MESSAGE_A, TestReceiverA.class).getFirst());
+		final ReceiverInvoker messageA = getInvoker(TestReceiverA.class, TestSender.MESSAGE_A);
+		assertTrue(data.addReceiverInvoker(TestSender.MESSAGE_A, messageA));
+		assertSame(messageA, data.getReceiverMethod(TestSender.MESSAGE_A, TestReceiverA.class));
+		assertNull(data.getReceiverMethod(TestSender.MESSAGE_B, TestReceiverA.class));
 
-			final Method catchallMethod = TestReceiverAll.class.getDeclaredMethod("messageCatchall", String.class, Object[].class);
-			data.addCatchallMethod(catchallMethod);
-			assertEquals(catchallMethod, data.getReceiverMethod(TestSender.MESSAGE_A, TestReceiverAll.class).getFirst());
-			assertEquals(catchallMethod, data.getReceiverMethod(TestSender.MESSAGE_B, TestReceiverAll.class).getFirst());
-			assertEquals(catchallMethod, data.getReceiverMethod(TestSender.MESSAGE_AB, TestReceiverAll.class).getFirst());
-		} catch(Exception exc) {
-			exc.printStackTrace();
-			fail(exc.getMessage());
-		}
+		final ReceiverInvoker catchall = getInvoker(TestReceiverAll.class, null);
+		data.addCatchallInvoker(catchall);
+		assertSame(catchall, data.getReceiverMethod(TestSender.MESSAGE_A, TestReceiverAll.class));
+		assertSame(catchall, data.getReceiverMethod(TestSender.MESSAGE_B, TestReceiverAll.class));
+		assertSame(catchall, data.getReceiverMethod(TestSender.MESSAGE_AB, TestReceiverAll.class));
 	}
 
 	@Test
 	public void testAddMethodWithWrongSignature() {
-		try {
-			final Method messageAMethod = TestReceiverA.class.getDeclaredMethod("messageA");
-			assertFalse(data.addReceiverMethod(TestSender.MESSAGE_AB, messageAMethod));
-		} catch(Exception exc) {
-			fail(exc.getMessage());
+		final ReceiverInvoker messageA = getInvoker(TestReceiverA.class, TestSender.MESSAGE_A);
+		assertFalse(data.addReceiverInvoker(TestSender.MESSAGE_AB, messageA));
+		assertNull(data.getReceiverMethod(TestSender.MESSAGE_AB, TestReceiverA.class));
+	}
+
+	/**
+	 * Gets the invoker of a receiving method, as registered by a delivery system.
+	 * 
+	 * @param receiverClass  the receiving class
+	 * @param msg            the message name, or <code>null</code> for the catchall
+	 * 
+	 * @return the invoker
+	 */
+	private static ReceiverInvoker getInvoker(Class<? extends MessageReceiver> receiverClass, String msg) {
+		for(ReceiverInvoker invoker : ClassHierarchy.getReceivingMethods(receiverClass)) {
+			final ReceiverMethod annotation = invoker.getAnnotation();
+			if(annotation.senderClass() == TestSender.class
+			   && (msg == null ? annotation.isCatchall() : msg.equals(annotation.message())))
+			{
+				return invoker;
+			}
 		}
+		fail("No receiving method for " + msg);
+		return null;
 	}
 }
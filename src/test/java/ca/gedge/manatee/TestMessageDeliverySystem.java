@@ -21,9 +21,25 @@
  */
 package ca.gedge.manatee;
 
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -44,6 +60,7 @@ public class TestMessageDeliverySystem {
 	public void initialize() {
 		Logger.getLogger(MessageDeliverySystem.class.getName()).setLevel(Level.OFF);
 		system = MessageDeliverySystem.getInstace();
+		system.setEnabled(true);
 
 		sender = new TestSender();
 		receiverA = new TestReceiverA();
@@ -165,6 +182,772 @@ public class TestMessageDeliverySystem {
 		}
 	}
 
+	@Test
+	public void testSendMessages() {
+		final TestReceiverBatch receiverBatch = new TestReceiverBatch();
+		system.addReceiver(receiverBatch);
+
+		final List<Object[]> batch = Arrays.asList(
+				new Object[]{"Foo", 12345},
+				new Object[]{"Bar", 54321},
+				new Object[]{"Messaging", 12759812});
+		system.sendMessages(sender, TestSender.MESSAGE_AB, batch);
+
+		// Batch-unaware receivers get a call for every message...
+		assertEquals(batch.size(), receiverA.calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(batch.size(), receiverAll.calls.get(TestSender.MESSAGE_AB).size());
+		for(int index = 0; index < batch.size(); ++index)
+			assertArrayEquals(batch.get(index), receiverA.calls.get(TestSender.MESSAGE_AB).get(index));
+
+		// ...and batch receivers get the whole batch at once
+		assertEquals(1, receiverBatch.batches.size());
+		assertEquals(batch.size(), receiverBatch.batches.get(0).size());
+		for(int index = 0; index < batch.size(); ++index)
+			assertArrayEquals(batch.get(index), receiverBatch.batches.get(0).get(index));
+
+		// Messages sent one at a time arrive as batches of one
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1);
+		assertEquals(2, receiverBatch.batches.size());
+		assertEquals(1, receiverBatch.batches.get(1).size());
+		assertArrayEquals(new Object[]{"Foo", 1}, receiverBatch.batches.get(1).get(0));
+
+		system.removeReceiver(receiverBatch);
+	}
+
+	@Test
+	public void testSendMessagesRejected() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		system.setExecutor(executor);
+
+		final TestReceiverAsync receiverAsync = new TestReceiverAsync();
+		final TestReceiverA receiverKeyed = new TestReceiverA();
+		system.addReceiver(receiverAsync);
+		system.addReceiver(receiverA);
+		system.addReceiver(receiverKeyed, "Foo");
+
+		// The rejection is reported after every other receiver got the batch
+		try {
+			system.sendMessages(sender, TestSender.MESSAGE_AB, Arrays.asList(
+				new Object[]{"Foo", 1},
+				new Object[]{"Bar", 2}
+			));
+			fail("Expected a RejectedExecutionException");
+		} catch(RejectedExecutionException exc) {
+			// expected
+		}
+		assertEquals(0, receiverAsync.calls.size());
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(1, receiverKeyed.calls.get(TestSender.MESSAGE_AB).size());
+	}
+
+	@Test
+	public void testMessageDescriptors() {
+		final MessageDescriptor messageA = system.getMessage(TestSender.class, TestSender.MESSAGE_A);
+		final MessageDescriptor messageAB = system.getMessage(TestSender.class, TestSender.MESSAGE_AB);
+		assertSame(messageA, system.getMessage(TestSender.class, TestSender.MESSAGE_A));
+		assertSame(messageA, new MessageDeliverySystem().getMessage(TestSender.class, TestSender.MESSAGE_A));
+		assertNotSame(messageA, messageAB);
+		assertTrue(messageA.getId() != messageAB.getId());
+		assertEquals(TestSender.MESSAGE_AB, messageAB.getName());
+		assertArrayEquals(new Class<?>[] { String.class, Integer.class }, messageAB.getSignature());
+		assertNull(system.getMessage(TestSender.class, "abc123"));
+
+		system.sendMessage(sender, messageAB, "Foo", 12345);
+		assertArrayEquals(new Object[] { "Foo", 12345 }, receiverA.calls.get(TestSender.MESSAGE_AB).get(0));
+		assertArrayEquals(new Object[] { "Foo", 12345 }, receiverAll.calls.get(TestSender.MESSAGE_AB).get(0));
+		assertEquals(0, receiverA.calls.get(TestSender.MESSAGE_A).size());
+	}
+
+	@Test
+	public void testReceiversChangedAfterSend() {
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(1, receiverA.calls.get(TestSender.MESSAGE_A).size());
+
+		// Receivers added after a message was sent should still receive it
+		final TestReceiverA receiverA2 = new TestReceiverA();
+		system.addReceiver(receiverA2);
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_A).size());
+		assertEquals(1, receiverA2.calls.get(TestSender.MESSAGE_A).size());
+
+		// ...and receivers removed after a message was sent should not
+		assertTrue(system.removeReceiver(receiverA));
+		assertFalse(system.removeReceiver(receiverA));
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_A).size());
+		assertEquals(2, receiverA2.calls.get(TestSender.MESSAGE_A).size());
+		assertEquals(3, receiverAll.calls.get(TestSender.MESSAGE_A).size());
+	}
+
+	@Test
+	public void testAddReceiversWhileSending() throws Exception {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final List<Throwable> failures = new Vector<Throwable>();
+		final Thread adder = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for(int index = 0; index < 2000; ++index) {
+						final TestReceiverA receiver = new TestReceiverA();
+						system.addReceiver(receiver);
+						if(index % 2 == 0)
+							system.removeReceiver(receiver);
+					}
+				} catch(Throwable exc) {
+					failures.add(exc);
+				}
+			}
+		};
+
+		adder.start();
+		while(adder.isAlive())
+			system.sendMessage(sender, TestSender.MESSAGE_A);
+		adder.join();
+
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	@Test
+	public void testSendMessageAsync() throws Exception {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final QueueExecutor executor = new QueueExecutor();
+		system.setExecutor(executor);
+		system.addReceiver(receiverA);
+
+		final Future<Void> future = system.sendMessageAsync(sender, TestSender.MESSAGE_AB, "Foo", 12345);
+		assertFalse(future.isDone());
+		assertEquals(0, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+
+		executor.runAll();
+		assertTrue(future.isDone());
+		assertNull(future.get());
+		assertArrayEquals(new Object[]{"Foo", 12345}, receiverA.calls.get(TestSender.MESSAGE_AB).get(0));
+
+		// Unknown messages complete immediately
+		assertTrue(system.sendMessageAsync(sender, "abc123").isDone());
+		assertTrue(executor.tasks.isEmpty());
+	}
+
+	@Test
+	public void testAsyncReceiverMethod() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final QueueExecutor executor = new QueueExecutor();
+		final TestReceiverAsync receiverAsync = new TestReceiverAsync();
+		system.setExecutor(executor);
+		system.addReceiver(receiverA);
+		system.addReceiver(receiverAsync);
+
+		// Synchronous receivers are called right away, asynchronous ones
+		// once the executor gets to them
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 12345);
+		assertEquals(1, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(0, receiverAsync.calls.size());
+		assertEquals(1, executor.tasks.size());
+
+		executor.runAll();
+		assertEquals(1, receiverAsync.calls.size());
+		assertArrayEquals(new Object[]{"Foo", 12345}, receiverAsync.calls.get(0));
+	}
+
+	@Test
+	public void testFixedArity() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final QueueExecutor executor = new QueueExecutor();
+		final TestPrimitiveSender primitiveSender = new TestPrimitiveSender();
+		final TestReceiverPrimitives receiver = new TestReceiverPrimitives();
+		system.setExecutor(executor);
+		system.addReceiver(receiverA);
+		system.addReceiver(receiverAll);
+		system.addReceiver(receiverMethods);
+		system.addReceiver(receiver);
+
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 12345);
+		assertEquals(1, receiverA.calls.get(TestSender.MESSAGE_A).size());
+		assertArrayEquals(new Object[]{"Foo", 12345}, receiverA.calls.get(TestSender.MESSAGE_AB).get(0));
+		assertArrayEquals(new Object[]{"Foo", 12345}, receiverAll.calls.get(TestSender.MESSAGE_AB).get(0));
+		assertArrayEquals(new Object[]{"Foo", 12345}, receiverMethods.calls.get(1));
+
+		// Primitives reach receiving methods as the type they declare
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, 1);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.TOTAL, 2L);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.RATIO, 0.5);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.INITIAL, 'x');
+		system.sendMessage(primitiveSender, TestPrimitiveSender.WORDS, "a", "b", "c", "d");
+		assertEquals(Arrays.<Object>asList(1, 2L, 0.5, 'x', "abcd"), receiver.calls);
+
+		// An argument of the wrong arity is never delivered
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, 1, 2);
+		assertEquals(5, receiver.calls.size());
+
+		// Receivers that are not called directly get the arguments in an array
+		final TestReceiverAsync receiverAsync = new TestReceiverAsync();
+		system.addReceiver(receiverAsync);
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Bar", 6789);
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(0, receiverAsync.calls.size());
+		executor.runAll();
+		assertArrayEquals(new Object[]{"Bar", 6789}, receiverAsync.calls.get(0));
+	}
+
+	@Test
+	public void testPrimitiveConversions() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestPrimitiveSender primitiveSender = new TestPrimitiveSender();
+		final TestReceiverPrimitives receiver = new TestReceiverPrimitives();
+		system.addReceiver(receiver);
+
+		// Values are widened to the type a message declares
+		system.sendMessage(primitiveSender, TestPrimitiveSender.TOTAL, 3);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.RATIO, 4);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.RATIO, 5L);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.RATIO, 0.25f);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, 'y');
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, (short)6);
+		system.sendMessage(primitiveSender, "Count", (byte)7);
+		assertEquals(Arrays.<Object>asList(3L, 4.0, 5.0, 0.25, 121, 6, 7), receiver.calls);
+
+		// ...but never narrowed, which could lose part of them
+		receiver.calls.clear();
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, 1L << 40);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, 1.5);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.TOTAL, 1.5);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.TOTAL, 2.0f);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.INITIAL, 120);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.INITIAL, (short)120);
+		system.sendMessage(primitiveSender, "Count", 8L);
+		assertEquals(0, receiver.calls.size());
+	}
+
+	@Test
+	public void testLatencyBudgets() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final QueueExecutor executor = new QueueExecutor();
+		final TestReceiverSlow receiverSlow = new TestReceiverSlow();
+		final List<SlowDelivery> slow = new Vector<SlowDelivery>();
+		system.setExecutor(executor);
+		system.setSlowReceiverDemotion(2);
+		system.addReceiver(receiverSlow);
+		system.addSlowReceiverListener(new SlowReceiverListener() {
+			@Override
+			public void slowDelivery(SlowDelivery delivery) {
+				slow.add(delivery);
+			}
+		});
+
+		// Only methods with a budget are timed
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(0, slow.size());
+
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1);
+		assertEquals(1, slow.size());
+		assertEquals(TestSender.class, slow.get(0).getSenderClass());
+		assertEquals(TestSender.MESSAGE_AB, slow.get(0).getMessage());
+		assertEquals(TestReceiverSlow.class, slow.get(0).getReceiverClass());
+		assertEquals("messageAB", slow.get(0).getReceiverMethod());
+		assertEquals(1000000, slow.get(0).getBudgetNanos());
+		assertTrue(slow.get(0).getLatencyNanos() > slow.get(0).getBudgetNanos());
+		assertFalse(slow.get(0).isDemoted());
+
+		// The second violation demotes the method to asynchronous delivery
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 2);
+		assertEquals(2, slow.size());
+		assertEquals(2, slow.get(1).getViolations());
+		assertTrue(slow.get(1).isDemoted());
+
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 3);
+		assertEquals(3, receiverSlow.calls.size());
+		assertEquals(1, executor.tasks.size());
+		executor.runAll();
+		assertEquals(4, receiverSlow.calls.size());
+		assertEquals(3, slow.size());
+		assertFalse(slow.get(2).isDemoted());
+
+		// The system's budget applies to methods declaring none
+		system.setLatencyBudget(1, TimeUnit.MILLISECONDS);
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(4, slow.size());
+		assertEquals("messageA", slow.get(3).getReceiverMethod());
+		assertEquals(1000000, slow.get(3).getBudgetNanos());
+	}
+
+	@Test
+	public void testMailboxDelivery() throws Exception {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final QueueExecutor executor = new QueueExecutor();
+		final TestReceiverA receiverA2 = new TestReceiverA();
+		system.setExecutor(executor);
+		system.addReceiver(receiverA);
+		system.setMailboxDelivery(true);
+		system.addReceiver(receiverA2);
+
+		// Each mailbox is drained by a single task, however many messages
+		// are waiting in it
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1);
+		final Future<Void> future = system.sendMessageAsync(sender, TestSender.MESSAGE_AB, "Foo", 2);
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(2, executor.tasks.size());
+		assertEquals(0, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+		assertFalse(future.isDone());
+
+		executor.runAll();
+		assertTrue(future.isDone());
+		for(TestReceiverA receiver : new TestReceiverA[] { receiverA, receiverA2 }) {
+			assertEquals(2, receiver.calls.get(TestSender.MESSAGE_AB).size());
+			assertArrayEquals(new Object[]{"Foo", 1}, receiver.calls.get(TestSender.MESSAGE_AB).get(0));
+			assertArrayEquals(new Object[]{"Foo", 2}, receiver.calls.get(TestSender.MESSAGE_AB).get(1));
+			assertEquals(1, receiver.calls.get(TestSender.MESSAGE_A).size());
+		}
+
+		// Back to direct delivery
+		system.setMailboxDelivery(false);
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_A).size());
+		assertTrue(executor.tasks.isEmpty());
+	}
+
+	@Test
+	public void testConflation() throws Exception {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final QueueExecutor executor = new QueueExecutor();
+		final TestReceiverConflating receiver = new TestReceiverConflating();
+		final TestSender sender2 = new TestSender();
+		system.setExecutor(executor);
+		system.setMailboxDelivery(true);
+		system.addReceiver(receiver);
+		system.addReceiver(receiverA);
+		assertTrue(system.getMessage(TestSender.class, TestSender.MESSAGE_PROGRESS).isConflated());
+		assertFalse(system.getMessage(TestSender.class, TestSender.MESSAGE_AB).isConflated());
+
+		// Conflated messages, by declaration or by receiver, collapse into the
+		// latest arguments for each sender
+		final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		for(int index = 0; index < 5; ++index) {
+			system.sendMessage(sender, TestSender.MESSAGE_PROGRESS, index);
+			futures.add(system.sendMessageAsync(sender, TestSender.MESSAGE_AB, "Foo", index));
+		}
+		system.sendMessage(sender2, TestSender.MESSAGE_PROGRESS, 100);
+
+		for(int index = 0; index < 4; ++index)
+			assertFalse(futures.get(index).isDone()); // receiverA still has them queued
+
+		executor.runAll();
+		for(Future<Void> future : futures)
+			assertTrue(future.isDone());
+
+		assertEquals(2, receiver.progress.size());
+		assertArrayEquals(new Object[]{4}, receiver.progress.get(0));
+		assertArrayEquals(new Object[]{100}, receiver.progress.get(1));
+		assertEquals(1, receiver.calls.size());
+		assertArrayEquals(new Object[]{"Foo", 4}, receiver.calls.get(0));
+
+		// Receivers that don't conflate still get every message
+		assertEquals(5, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+
+		// Once delivered, the next message is queued again
+		system.sendMessage(sender, TestSender.MESSAGE_PROGRESS, 5);
+		executor.runAll();
+		assertEquals(3, receiver.progress.size());
+	}
+
+	@Test
+	public void testKeyedReceivers() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestReceiverA[] keyed = new TestReceiverA[1000];
+		for(int index = 0; index < keyed.length; ++index) {
+			keyed[index] = new TestReceiverA();
+			system.addReceiver(keyed[index], "Key" + index);
+		}
+		system.addReceiver(receiverA);
+
+		// Only the receivers subscribed to the first argument get the message
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Key5", 1);
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Unknown", 2);
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		for(int index = 0; index < keyed.length; ++index) {
+			assertEquals(index == 5 ? 1 : 0, keyed[index].calls.get(TestSender.MESSAGE_AB).size());
+			assertEquals(0, keyed[index].calls.get(TestSender.MESSAGE_A).size());
+		}
+		assertArrayEquals(new Object[]{"Key5", 1}, keyed[5].calls.get(TestSender.MESSAGE_AB).get(0));
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(1, receiverA.calls.get(TestSender.MESSAGE_A).size());
+
+		// Only the messages keyed receivers accept look up keys
+		assertTrue(system.getDispatchTable(system.getMessage(TestSender.class, TestSender.MESSAGE_AB)).hasKeyed());
+		assertFalse(system.getDispatchTable(system.getMessage(TestSender.class, TestSender.MESSAGE_B)).hasKeyed());
+		assertEquals(1, system.getDispatchTable(system.getMessage(TestSender.class, TestSender.MESSAGE_AB)).size());
+
+		// Receivers can be subscribed to several keys, and batches are
+		// routed message by message
+		system.addReceiver(keyed[5], "Key6");
+		system.sendMessages(sender, TestSender.MESSAGE_AB, Arrays.asList(
+			new Object[]{"Key6", 3},
+			new Object[]{"Key7", 4}
+		));
+		assertEquals(2, keyed[5].calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(1, keyed[6].calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(1, keyed[7].calls.get(TestSender.MESSAGE_AB).size());
+
+		assertTrue(system.removeReceiver(keyed[5], "Key5"));
+		assertFalse(system.removeReceiver(keyed[5], "Key5"));
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Key5", 5);
+		assertEquals(2, keyed[5].calls.get(TestSender.MESSAGE_AB).size());
+
+		assertTrue(system.removeReceiver(keyed[5]));
+		assertFalse(system.removeReceiver(keyed[5]));
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Key6", 6);
+		assertEquals(2, keyed[5].calls.get(TestSender.MESSAGE_AB).size());
+		assertEquals(2, keyed[6].calls.get(TestSender.MESSAGE_AB).size());
+	}
+
+	@Test
+	public void testInstanceReceivers() throws InterruptedException {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestSender sender2 = new TestSender();
+		final TestReceiverA receiver1 = new TestReceiverA();
+		final TestReceiverA receiver2 = new TestReceiverA();
+		system.addInstanceReceiver(receiver1, sender);
+		system.addInstanceReceiver(receiver2, sender2);
+		system.addReceiver(receiverA);
+
+		// Instance receivers only get messages from their sender, while
+		// class receivers get messages from every sender
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1);
+		system.sendMessage(sender2, TestSender.MESSAGE_AB, "Bar", 2);
+		assertEquals(1, receiver1.calls.get(TestSender.MESSAGE_A).size());
+		assertEquals(1, receiver1.calls.get(TestSender.MESSAGE_AB).size());
+		assertArrayEquals(new Object[]{"Foo", 1}, receiver1.calls.get(TestSender.MESSAGE_AB).get(0));
+		assertEquals(0, receiver2.calls.get(TestSender.MESSAGE_A).size());
+		assertEquals(1, receiver2.calls.get(TestSender.MESSAGE_AB).size());
+		assertArrayEquals(new Object[]{"Bar", 2}, receiver2.calls.get(TestSender.MESSAGE_AB).get(0));
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+
+		assertTrue(system.removeInstanceReceiver(receiver1, sender));
+		assertFalse(system.removeInstanceReceiver(receiver1, sender));
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(1, receiver1.calls.get(TestSender.MESSAGE_A).size());
+
+		// Senders are held weakly
+		TestSender transientSender = new TestSender();
+		final WeakReference<TestSender> ref = new WeakReference<TestSender>(transientSender);
+		system.addInstanceReceiver(receiver1, transientSender);
+		transientSender = null;
+		for(int attempt = 0; attempt < 50 && ref.get() != null; ++attempt) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+	}
+
+	@Test
+	public void testTopics() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestReceiverTopics receiver = new TestReceiverTopics();
+		final TestOrderSender orderSender = new TestOrderSender();
+
+		// Topics match the messages of sender classes registered both before
+		// and after the receiver subscribed
+		system.registerSender(TestSender.class);
+		system.addReceiver(receiver);
+		system.registerSender(TestOrderSender.class);
+		system.sendMessage(orderSender, TestOrderSender.ORDER_CREATED, 1);
+		system.sendMessage(orderSender, TestOrderSender.ORDER_LINE_ADDED, 1, "Widget");
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+
+		assertEquals(Arrays.asList(TestOrderSender.ORDER_CREATED), receiver.orders);
+		assertEquals(Arrays.asList(TestOrderSender.ORDER_LINE_ADDED), receiver.orderLines);
+		assertEquals(Arrays.asList(TestSender.MESSAGE_A), receiver.others);
+	}
+
+	@Test
+	public void testOverflowPolicies() {
+		final OverflowPolicy[] policies = new OverflowPolicy[] {
+				OverflowPolicy.BLOCK,
+				OverflowPolicy.DROP_NEWEST,
+				OverflowPolicy.DROP_OLDEST,
+				OverflowPolicy.FAIL_FAST,
+		};
+
+		for(OverflowPolicy policy : policies) {
+			final MessageDeliverySystem system = new MessageDeliverySystem();
+			final QueueExecutor executor = new QueueExecutor();
+			final TestReceiverA receiver = new TestReceiverA();
+			system.setExecutor(executor);
+			system.setMailboxCapacity(2);
+			system.setOverflowPolicy(policy);
+			system.setMailboxDelivery(true);
+			system.addReceiver(receiver);
+
+			assertTrue(system.trySendMessage(sender, TestSender.MESSAGE_AB, "Foo", 0));
+			assertTrue(system.trySendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1));
+			assertEquals(2, system.getQueueDepth());
+			assertEquals(2, system.getQueueDepth(receiver));
+
+			// Only dropping the oldest message makes space for a new one
+			assertEquals(policy == OverflowPolicy.DROP_OLDEST, system.trySendMessage(sender, TestSender.MESSAGE_AB, "Foo", 2));
+			if(policy == OverflowPolicy.DROP_NEWEST)
+				system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 3);
+
+			if(policy == OverflowPolicy.FAIL_FAST) {
+				try {
+					system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 3);
+					fail("Expected sending to a full mailbox to fail");
+				} catch(IllegalStateException exc) {
+					// expected
+				}
+			}
+			assertEquals(2, system.getQueueDepth(receiver));
+
+			executor.runAll();
+			assertEquals(0, system.getQueueDepth());
+
+			final List<Object[]> calls = receiver.calls.get(TestSender.MESSAGE_AB);
+			assertEquals(2, calls.size());
+			assertEquals((policy == OverflowPolicy.DROP_OLDEST ? 1 : 0), calls.get(0)[1]);
+			assertEquals((policy == OverflowPolicy.DROP_OLDEST ? 2 : 1), calls.get(1)[1]);
+		}
+	}
+
+	@Test
+	public void testMailboxOrdering() throws Exception {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		final TestReceiverA[] receivers = new TestReceiverA[8];
+		system.setExecutor(executor);
+		system.setMailboxDelivery(true);
+		system.setMailboxCapacity(16);
+		for(int index = 0; index < receivers.length; ++index) {
+			receivers[index] = new TestReceiverA();
+			system.addReceiver(receivers[index]);
+		}
+
+		try {
+			Future<Void> last = null;
+			for(int index = 0; index < 1000; ++index)
+				last = system.sendMessageAsync(sender, TestSender.MESSAGE_AB, "Foo", index);
+			last.get(10, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdown();
+		}
+
+		for(TestReceiverA receiver : receivers) {
+			final List<Object[]> calls = receiver.calls.get(TestSender.MESSAGE_AB);
+			assertEquals(1000, calls.size());
+			for(int index = 0; index < calls.size(); ++index)
+				assertEquals(index, calls.get(index)[1]);
+		}
+	}
+
+	@Test
+	public void testConcurrentRegistration() throws Exception {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final Thread[] threads = new Thread[8];
+		final CyclicBarrier barrier = new CyclicBarrier(threads.length);
+		final List<Object> data = new Vector<Object>();
+		final List<Throwable> failures = new Vector<Throwable>();
+		final List<TestReceiverA> added = new Vector<TestReceiverA>();
+		for(int index = 0; index < threads.length; ++index) {
+			threads[index] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						final TestReceiverA receiver = new TestReceiverA();
+						barrier.await();
+						if(added.size() % 2 == 0)
+							system.registerReceiver(TestReceiverA.class);
+						else
+							system.registerSender(TestSender.class);
+						data.add(system.getData(TestSender.class));
+						system.addReceiver(receiver);
+						added.add(receiver);
+					} catch(Throwable exc) {
+						failures.add(exc);
+					}
+				}
+			};
+			threads[index].start();
+		}
+
+		for(Thread thread : threads)
+			thread.join();
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		for(Object msgData : data)
+			assertSame(data.get(0), msgData);
+
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		assertEquals(threads.length, added.size());
+		for(TestReceiverA receiver : added)
+			assertEquals(1, receiver.calls.get(TestSender.MESSAGE_A).size());
+	}
+
+	@Test
+	public void testLazyPayloads() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final int[] evaluations = new int[1];
+		final Payload payload = new Payload() {
+			@Override
+			public Object[] get() {
+				++evaluations[0];
+				return new Object[]{"Foo", 12345};
+			}
+		};
+
+		// Nothing is built for a message nobody receives
+		assertFalse(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+		assertFalse(system.hasSubscribers(TestSender.class, "notAMessage"));
+		system.sendMessageLazily(sender, TestSender.MESSAGE_AB, payload);
+		assertEquals(0, evaluations[0]);
+
+		system.addReceiver(receiverA);
+		assertTrue(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+		system.sendMessageLazily(sender, TestSender.MESSAGE_AB, payload);
+		assertEquals(1, evaluations[0]);
+		assertArrayEquals(new Object[]{"Foo", 12345}, receiverA.calls.get(TestSender.MESSAGE_AB).get(0));
+
+		system.removeReceiver(receiverA);
+		assertFalse(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+		system.sendMessageLazily(sender, TestSender.MESSAGE_AB, payload);
+		assertEquals(1, evaluations[0]);
+
+		// The key of a message is in its payload, so keyed receivers force it
+		system.addReceiver(receiverA, "Foo");
+		assertTrue(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+		system.sendMessageLazily(sender, TestSender.MESSAGE_AB, payload);
+		assertEquals(2, evaluations[0]);
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+
+		system.removeReceiver(receiverA, "Foo");
+		system.addInstanceReceiver(receiverA, sender);
+		assertTrue(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+		system.sendMessageLazily(sender, TestSender.MESSAGE_AB, payload);
+		assertEquals(3, evaluations[0]);
+		assertEquals(3, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+	}
+
+	@Test
+	public void testHasSubscribersCollected() throws InterruptedException {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		TestReceiverA receiver = new TestReceiverA();
+		TestReceiverA keyedReceiver = new TestReceiverA();
+		final WeakReference<TestReceiverA> ref = new WeakReference<TestReceiverA>(receiver);
+		final WeakReference<TestReceiverA> keyedRef = new WeakReference<TestReceiverA>(keyedReceiver);
+		system.addReceiver(receiver);
+		system.addReceiver(keyedReceiver, "Foo");
+		assertTrue(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+
+		// Collected receivers stay in the dispatch table, but do not count
+		receiver = null;
+		keyedReceiver = null;
+		for(int attempt = 0; attempt < 50 && (ref.get() != null || keyedRef.get() != null); ++attempt) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(ref.get());
+		assertNull(keyedRef.get());
+		assertFalse(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+	}
+
+	@Test
+	public void testSubscribe() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestPrimitiveSender primitiveSender = new TestPrimitiveSender();
+		final List<Object> calls = new Vector<Object>();
+
+		final Subscription subscription = system.subscribe(TestSender.class, TestSender.MESSAGE_AB, (String a, Integer b) -> calls.add(a + b));
+		system.subscribe(TestSender.class, TestSender.MESSAGE_A, () -> calls.add("A"));
+		system.subscribe(TestPrimitiveSender.class, TestPrimitiveSender.COUNT, (Integer a) -> calls.add(a));
+		system.subscribe(TestPrimitiveSender.class, TestPrimitiveSender.WORDS, (String a, String b, String c, String d) -> calls.add(a + b + c + d));
+		assertTrue(subscription.isActive());
+		assertEquals(TestSender.MESSAGE_AB, subscription.getMessage().getName());
+		assertTrue(system.hasSubscribers(TestSender.class, TestSender.MESSAGE_AB));
+
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1);
+		system.sendMessage(sender, TestSender.MESSAGE_AB, new Object[]{"Bar", 2});
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.COUNT, 3);
+		system.sendMessage(primitiveSender, TestPrimitiveSender.WORDS, "a", "b", "c", "d");
+		assertEquals(Arrays.<Object>asList("Foo1", "Bar2", "A", 3, "abcd"), calls);
+
+		// Listeners subscribed after a message was sent are patched into its table
+		system.addReceiver(receiverA);
+		try(Subscription other = system.subscribe(TestSender.class, TestSender.MESSAGE_AB, (String a, Integer b) -> calls.add(b))) {
+			system.sendMessage(sender, TestSender.MESSAGE_AB, "Baz", 4);
+		}
+		assertEquals(Arrays.<Object>asList("Foo1", "Bar2", "A", 3, "abcd", "Baz4", 4), calls);
+		assertEquals(1, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+
+		subscription.close();
+		subscription.close();
+		assertFalse(subscription.isActive());
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Qux", 5);
+		assertEquals(7, calls.size());
+		assertEquals(2, receiverA.calls.get(TestSender.MESSAGE_AB).size());
+
+		// Listeners must take as many arguments as the message has
+		try {
+			system.subscribe(TestSender.class, TestSender.MESSAGE_AB, (String a) -> calls.add(a));
+			fail("Subscribed a listener taking the wrong number of arguments");
+		} catch(IllegalArgumentException exc) {}
+
+		try {
+			system.subscribe(TestSender.class, "notAMessage", () -> calls.add("?"));
+			fail("Subscribed to an unknown message");
+		} catch(IllegalArgumentException exc) {}
+	}
+
+	@Test
+	public void testMessageKeys() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestKeySender keySender = new TestKeySender();
+		final TestReceiverKeys receiver = new TestReceiverKeys();
+		final List<Object> calls = new Vector<Object>();
+		system.addReceiver(receiver);
+
+		// Keys resolve to the same descriptor as the names of their messages
+		assertSame(system.getMessage(TestKeySender.class, TestKeySender.NAMED), system.getMessage(TestKeySender.NAMED_KEY));
+		assertSame(system.getMessage(TestKeySender.COUNT), new MessageDeliverySystem().getMessage(TestKeySender.COUNT));
+
+		system.subscribe(TestKeySender.PING, () -> calls.add("ping"));
+		system.subscribe(TestKeySender.COUNT, (Object a) -> calls.add(a));
+		system.sendMessage(keySender, TestKeySender.NAMED_KEY, "Foo", 1);
+		system.sendMessage(keySender, TestKeySender.NAMED, "Bar", 2);
+		system.sendMessage(keySender, TestKeySender.COUNT, 3);
+		system.sendMessage(keySender, TestKeySender.PING);
+		assertEquals(Arrays.<Object>asList("Foo1", "Bar2", 3), receiver.calls);
+		assertEquals(Arrays.<Object>asList(3, "ping"), calls);
+
+		try {
+			system.sendMessage(keySender, TestKeySender.UNDECLARED, "Baz");
+			fail("Sent a message through a key its sender class does not declare");
+		} catch(IllegalArgumentException exc) {}
+	}
+
+	@Test
+	public void testInheritedReceivers() {
+		final MessageDeliverySystem system = new MessageDeliverySystem();
+		final TestReceiverBase base = new TestReceiverBase();
+		final TestReceiverLeaf leaf = new TestReceiverLeaf();
+		system.addReceiver(base);
+		system.addReceiver(leaf);
+
+		// Overrides are called whether or not they are annotated, but only once,
+		// and a subclass receiving a message under another name takes it over
+		system.sendMessage(sender, TestSender.MESSAGE_A);
+		system.sendMessage(sender, TestSender.MESSAGE_B);
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "Foo", 1);
+		assertEquals(Arrays.asList("base:A", "base:B", "base:AB"), base.calls);
+		assertEquals(Arrays.asList("leaf:A", "derived:B", "derived:AB"), leaf.calls);
+
+		// Messages declared by an interface are sent by its implementations
+		system.sendMessage(new TestEventSenderImpl(), TestEventSender.EVENT, "Bar");
+		assertEquals("leaf:Bar", leaf.calls.get(3));
+		assertEquals(3, base.calls.size());
+	}
+
 	@Test
 	public void testEnabled() {
 		system.setEnabled(false);
@@ -174,4 +957,60 @@ public class TestMessageDeliverySystem {
 		assertEquals(0, receiverB.calls.get(TestSender.MESSAGE_A).size());
 		assertEquals(0, receiverAll.calls.get(TestSender.MESSAGE_A).size());
 	}
+
+	@Test
+	public void testMetrics() throws Exception {
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName messageName = new ObjectName(
+				"ca.gedge.manatee:type=Message,system=\"metrics-test\",sender=\"" + TestSender.class.getName() + "\",message=\"" + TestSender.MESSAGE_AB + "\"");
+		final ObjectName receiverName = new ObjectName(
+				"ca.gedge.manatee:type=ReceiverMethod,system=\"metrics-test\",sender=\"" + TestSender.class.getName() + "\",message=\"" + TestSender.MESSAGE_AB + "\""
+				+ ",receiver=\"" + TestReceiverA.class.getName() + " : messageAB\"");
+
+		final MessageDeliverySystem system = MessageDeliverySystem.getInstance("metrics-test");
+		final TestReceiverA receiver = new TestReceiverA();
+		system.addReceiver(receiver);
+
+		// Nothing is recorded while disabled
+		system.sendMessage(sender, TestSender.MESSAGE_AB, "a", 1);
+		assertFalse(system.isMetricsEnabled());
+		assertFalse(server.isRegistered(messageName));
+
+		system.setMetricsEnabled(true);
+		try {
+			system.sendMessage(sender, TestSender.MESSAGE_AB, "a", 1);
+			system.sendMessage(sender, TestSender.MESSAGE_AB, "b", 2);
+			system.sendMessage(sender, TestSender.MESSAGE_AB, "c");
+
+			assertEquals(3, receiver.calls.get(TestSender.MESSAGE_AB).size());
+			assertEquals(3L, server.getAttribute(messageName, "SendCount"));
+			assertEquals(2L, server.getAttribute(messageName, "DeliveryCount"));
+			assertEquals(1L, server.getAttribute(messageName, "FailedDeliveryCount"));
+			assertEquals(2L, server.getAttribute(receiverName, "InvocationCount"));
+		} finally {
+			system.setMetricsEnabled(false);
+			system.removeReceiver(receiver);
+		}
+
+		assertFalse(server.isRegistered(messageName));
+		assertFalse(server.isRegistered(receiverName));
+	}
+
+	/**
+	 * An executor that queues up tasks until they are explicitly run.
+	 */
+	private static class QueueExecutor implements Executor {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			for(Runnable task : tasks)
+				task.run();
+			tasks.clear();
+		}
+	}
 }
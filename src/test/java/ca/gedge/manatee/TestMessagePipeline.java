@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the {@link MessagePipeline} class.
+ */
+public class TestMessagePipeline {
+	private MessageDeliverySystem system;
+	private TestSender sender;
+	private TestReceiverA receiver;
+	private MessageDescriptor messageAB;
+
+	@Before
+	public void initialize() {
+		system = new MessageDeliverySystem();
+		sender = new TestSender();
+		receiver = new TestReceiverA();
+		system.addReceiver(receiver);
+		messageAB = system.getMessage(TestSender.class, TestSender.MESSAGE_AB);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCapacity() {
+		new MessagePipeline(system, 100, WaitStrategy.BUSY_SPIN);
+	}
+
+	@Test
+	public void testBusySpin() throws Exception {
+		testOrdering(WaitStrategy.BUSY_SPIN);
+	}
+
+	@Test
+	public void testYielding() throws Exception {
+		testOrdering(WaitStrategy.YIELDING);
+	}
+
+	@Test
+	public void testBlocking() throws Exception {
+		testOrdering(WaitStrategy.BLOCKING);
+	}
+
+	@Test
+	public void testMultipleProducers() throws Exception {
+		final MessagePipeline pipeline = new MessagePipeline(system, 16, WaitStrategy.BLOCKING);
+		final List<Throwable> failures = new Vector<Throwable>();
+		final Thread[] producers = new Thread[4];
+		pipeline.start();
+		for(int index = 0; index < producers.length; ++index) {
+			final String name = "Producer" + index;
+			producers[index] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for(int count = 0; count < 2500; ++count)
+							pipeline.publish(sender, messageAB, name, count);
+					} catch(Throwable exc) {
+						failures.add(exc);
+					}
+				}
+			};
+			producers[index].start();
+		}
+
+		for(Thread producer : producers)
+			producer.join();
+		pipeline.stop();
+
+		assertTrue(failures.toString(), failures.isEmpty());
+		final List<Object[]> calls = receiver.calls.get(TestSender.MESSAGE_AB);
+		assertEquals(10000, calls.size());
+
+		// Messages from any single producer arrive in order
+		final int[] next = new int[producers.length];
+		for(Object[] call : calls) {
+			final int producer = Integer.parseInt(((String)call[0]).substring("Producer".length()));
+			assertEquals(next[producer]++, call[1]);
+		}
+	}
+
+	private void testOrdering(WaitStrategy waitStrategy) throws Exception {
+		final MessagePipeline pipeline = new MessagePipeline(system, 64, waitStrategy);
+		pipeline.start();
+		for(int index = 0; index < 10000; ++index) {
+			if(index % 2 == 0)
+				pipeline.publish(sender, messageAB, "Foo", index);
+			else
+				pipeline.publishArray(sender, messageAB, new Object[]{"Foo", index});
+		}
+		pipeline.stop();
+
+		final List<Object[]> calls = receiver.calls.get(TestSender.MESSAGE_AB);
+		assertEquals(10000, calls.size());
+		for(int index = 0; index < calls.size(); ++index)
+			assertEquals(index, calls.get(index)[1]);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.List;
+import java.util.Vector;
+
+public class TestReceiverPrimitives implements MessageReceiver {
+	final List<Object> calls = new Vector<Object>();
+
+	@ReceiverMethod(senderClass=TestPrimitiveSender.class, message=TestPrimitiveSender.COUNT)
+	public void count(int count) {
+		calls.add(count);
+	}
+
+	@ReceiverMethod(senderClass=TestPrimitiveSender.class, message=TestPrimitiveSender.TOTAL)
+	public void total(long total) {
+		calls.add(total);
+	}
+
+	@ReceiverMethod(senderClass=TestPrimitiveSender.class, message=TestPrimitiveSender.RATIO)
+	public void ratio(double ratio) {
+		calls.add(ratio);
+	}
+
+	@ReceiverMethod(senderClass=TestPrimitiveSender.class, message=TestPrimitiveSender.INITIAL)
+	public void initial(char initial) {
+		calls.add(initial);
+	}
+
+	@ReceiverMethod(senderClass=TestPrimitiveSender.class, message=TestPrimitiveSender.WORDS)
+	public void words(String a, String b, String c, String d) {
+		calls.add(a + b + c + d);
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee;
+
+import java.util.List;
+import java.util.Vector;
+
+public class TestReceiverTopics implements MessageReceiver {
+	final List<String> orders = new Vector<String>();
+	final List<String> orderLines = new Vector<String>();
+	final List<String> others = new Vector<String>();
+
+	@ReceiverMethod(topic="order.*")
+	public void order(String msg, Object[] args) {
+		orders.add(msg);
+	}
+
+	@ReceiverMethod(topic="order.line.#", senderClass=TestOrderSender.class)
+	public void orderLine(String msg, Object[] args) {
+		orderLines.add(msg);
+	}
+
+	@ReceiverMethod(topic=TestSender.MESSAGE_A)
+	public void other(String msg, Object[] args) {
+		others.add(msg);
+	}
+}
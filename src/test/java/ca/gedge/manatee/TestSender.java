@@ -30,4 +30,7 @@ public class TestSender implements MessageSender {
 
 	@Message(signature={String.class, Integer.class})
 	public static final String MESSAGE_AB = "MessageAB";
+
+	@Message(signature={Integer.class}, conflate=true)
+	public static final String MESSAGE_PROGRESS = "MessageProgress";
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.processor;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import ca.gedge.manatee.Message;
+
+/**
+ * Tests the {@link ManateeProcessor} class.
+ */
+public class TestManateeProcessor {
+	private static final String SENDER = "package test;\n"
+		+ "public class Sender implements ca.gedge.manatee.MessageSender {\n"
+		+ "  @ca.gedge.manatee.Message(signature={String.class, Integer.class})\n"
+		+ "  public static final String MESSAGE = \"Message\";\n"
+		+ "}\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testValidReceiver() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, message=Sender.MESSAGE)\n"
+			+ "  public void message(CharSequence a, Number b) { }\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, isCatchall=true)\n"
+			+ "  void catchall(String msg, Object... args) { }\n"
+			+ "}\n");
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertTrue(new File(folder.getRoot(), "test/Receiver$$ManateeDispatcher.java").exists());
+		assertTrue(new File(folder.getRoot(), "test/Sender$$ManateeDispatcher.java").exists());
+		assertTrue(new File(folder.getRoot(), ManateeProcessor.INDEX_RESOURCE).exists());
+	}
+
+	@Test
+	public void testWrongSignature() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, message=Sender.MESSAGE)\n"
+			+ "  public void message(String a) { }\n"
+			+ "}\n");
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage(null).startsWith("Signature does not match"));
+		assertFalse(new File(folder.getRoot(), "test/Receiver$$ManateeDispatcher.java").exists());
+	}
+
+	@Test
+	public void testUnknownMessage() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, message=\"Unknown\")\n"
+			+ "  public void message() { }\n"
+			+ "}\n");
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage(null).contains("is not sent by test.Sender"));
+	}
+
+	@Test
+	public void testBatchReceiver() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, message=Sender.MESSAGE, batch=true)\n"
+			+ "  public void messages(java.util.List<Object[]> batch) { }\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, message=Sender.MESSAGE, batch=true)\n"
+			+ "  public void message(String a, Integer b) { }\n"
+			+ "}\n");
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage(null).startsWith("Batch receiving methods must take only a List"));
+	}
+
+	@Test
+	public void testTopicReceiver() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(topic=\"order.#\")\n"
+			+ "  public void orders(String msg, Object... args) { }\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(topic=\"order.#x\")\n"
+			+ "  public void invalid(String msg, Object... args) { }\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(topic=\"order.*\")\n"
+			+ "  public void message(String a, Integer b) { }\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(message=Sender.MESSAGE)\n"
+			+ "  public void noSender(String a, Integer b) { }\n"
+			+ "}\n");
+
+		assertEquals(3, errors.size());
+		assertTrue(errors.get(0).getMessage(null).startsWith("Invalid topic"));
+		assertTrue(errors.get(1).getMessage(null).startsWith("Methods subscribing to a topic must take a String"));
+		assertTrue(errors.get(2).getMessage(null).startsWith("Receiving methods must specify a sender class"));
+	}
+
+	@Test
+	public void testMixedReceiver() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethods(messages={\n"
+			+ "    @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, isCatchall=true),\n"
+			+ "    @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, message=Sender.MESSAGE)\n"
+			+ "  })\n"
+			+ "  public void both(String msg, Object... args) { }\n"
+			+ "}\n");
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage(null).startsWith("Receiving methods cannot mix catchall or topic annotations"));
+		assertFalse(new File(folder.getRoot(), "test/Receiver$$ManateeDispatcher.java").exists());
+	}
+
+	@Test
+	public void testPrivateReceiver() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, isCatchall=true)\n"
+			+ "  private void catchall(String msg, Object... args) { }\n"
+			+ "}\n");
+
+		assertEquals(1, errors.size());
+	}
+
+	@Test
+	public void testNegativeLatencyBudget() throws Exception {
+		final List<Diagnostic<? extends JavaFileObject>> errors = compile(
+			"package test;\n"
+			+ "public class Receiver implements ca.gedge.manatee.MessageReceiver {\n"
+			+ "  @ca.gedge.manatee.ReceiverMethod(senderClass=Sender.class, isCatchall=true, latencyBudgetMicros=-1)\n"
+			+ "  public void catchall(String msg, Object... args) { }\n"
+			+ "}\n");
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0).getMessage(null).startsWith("Latency budgets cannot be negative"));
+	}
+
+	/**
+	 * Runs the processor over a receiver and {@link #SENDER}.
+	 * 
+	 * @param receiver  the source of the receiver
+	 * 
+	 * @return the errors reported
+	 */
+	private List<Diagnostic<? extends JavaFileObject>> compile(String receiver) throws Exception {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		final String classPath = new File(Message.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+		final String output = folder.getRoot().getPath();
+
+		final JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+			Arrays.asList("-proc:only", "-classpath", classPath, "-d", output, "-s", output),
+			null,
+			Arrays.asList(new Source("test/Sender", SENDER), new Source("test/Receiver", receiver)));
+		task.setProcessors(Arrays.asList(new ManateeProcessor()));
+		task.call();
+
+		final List<Diagnostic<? extends JavaFileObject>> errors = new ArrayList<Diagnostic<? extends JavaFileObject>>();
+		for(Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+			if(diagnostic.getKind() == Diagnostic.Kind.ERROR)
+				errors.add(diagnostic);
+		}
+		return errors;
+	}
+
+	/**
+	 * A source file held in memory.
+	 */
+	private static class Source extends SimpleJavaFileObject {
+		private final String code;
+
+		public Source(String name, String code) {
+			super(URI.create("string:///" + name + Kind.SOURCE.extension), Kind.SOURCE);
+			this.code = code;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return code;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests methods of {@link LatencyHistogram}
+ */
+public class TestLatencyHistogram {
+	@Test
+	public void testEmpty() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMean());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(50));
+	}
+
+	@Test
+	public void testRecord() {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		for(int count = 0; count < 99; ++count)
+			histogram.record(100);
+		histogram.record(10000);
+		histogram.record(-5);
+
+		assertEquals(101, histogram.getCount());
+		assertEquals((99 * 100 + 10000) / 101, histogram.getMean());
+		assertEquals(10000, histogram.getMax());
+
+		// 100 falls in [64, 128), 10000 in [8192, 16384)
+		final long[] buckets = histogram.getBuckets();
+		assertEquals(1, buckets[0]);
+		assertEquals(99, buckets[7]);
+		assertEquals(1, buckets[14]);
+
+		assertEquals(127, histogram.getPercentile(50));
+		assertEquals(127, histogram.getPercentile(99));
+		assertEquals(10000, histogram.getPercentile(100));
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests methods of {@link StripedCounter}
+ */
+public class TestStripedCounter {
+	@Test
+	public void testAdd() {
+		final StripedCounter counter = new StripedCounter();
+		assertEquals(0, counter.sum());
+
+		counter.increment();
+		counter.add(5);
+		counter.add(-2);
+		assertEquals(4, counter.sum());
+	}
+
+	@Test
+	public void testConcurrentAdd() throws Exception {
+		final StripedCounter counter = new StripedCounter();
+		final Thread[] threads = new Thread[8];
+		for(int index = 0; index < threads.length; ++index) {
+			threads[index] = new Thread() {
+				@Override
+				public void run() {
+					for(int count = 0; count < 10000; ++count)
+						counter.increment();
+				}
+			};
+			threads[index].start();
+		}
+
+		for(Thread thread : threads)
+			thread.join();
+
+		assertEquals(threads.length * 10000, counter.sum());
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests methods of {@link TopicTrie}
+ */
+public class TestTopicTrie {
+	@Test
+	public void testLiteral() {
+		final TopicTrie<String> trie = new TopicTrie<String>();
+		assertTrue(trie.isEmpty());
+		trie.add("order.created", "a");
+		trie.add("order.created", "b");
+		trie.add("order.deleted", "c");
+		assertFalse(trie.isEmpty());
+
+		assertEquals(new HashSet<String>(Arrays.asList("a", "b")), trie.match("order.created"));
+		assertTrue(trie.match("order").isEmpty());
+		assertTrue(trie.match("order.created.late").isEmpty());
+	}
+
+	@Test
+	public void testWildcards() {
+		final TopicTrie<String> trie = new TopicTrie<String>();
+		trie.add("order.*", "single");
+		trie.add("order.#", "multi");
+		trie.add("*.created", "created");
+		trie.add("#", "all");
+		trie.add("order.#.added", "added");
+
+		assertEquals(new HashSet<String>(Arrays.asList("multi", "all")), trie.match("order"));
+		assertEquals(new HashSet<String>(Arrays.asList("single", "multi", "created", "all")), trie.match("order.created"));
+		assertEquals(new HashSet<String>(Arrays.asList("multi", "all", "added")), trie.match("order.line.added"));
+		assertEquals(new HashSet<String>(Arrays.asList("single", "multi", "all", "added")), trie.match("order.added"));
+		assertEquals(new HashSet<String>(Arrays.asList("created", "all")), trie.match("invoice.created"));
+	}
+
+	@Test
+	public void testValidPatterns() {
+		assertTrue(TopicTrie.isValidPattern("order"));
+		assertTrue(TopicTrie.isValidPattern("order.*.added"));
+		assertTrue(TopicTrie.isValidPattern("#"));
+		assertFalse(TopicTrie.isValidPattern(""));
+		assertFalse(TopicTrie.isValidPattern("order..created"));
+		assertFalse(TopicTrie.isValidPattern("order."));
+		assertFalse(TopicTrie.isValidPattern("order.cre*"));
+		assertFalse(TopicTrie.isValidPattern(null));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddInvalid() {
+		new TopicTrie<String>().add("order.#x", "a");
+	}
+}
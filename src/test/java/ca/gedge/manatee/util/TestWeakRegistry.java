@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 Jason Gedge <http://www.gedge.ca>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package ca.gedge.manatee.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests methods of {@link WeakRegistry}
+ */
+public class TestWeakRegistry {
+	@Test
+	public void testAdd() {
+		final Object a = new Object();
+		final Object b = new Object();
+
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		assertTrue(registry.isEmpty());
+		registry.add(a);
+		registry.add(b);
+
+		assertEquals(2, registry.size());
+		final Iterator<Object> iter = registry.iterator();
+		assertEquals(a, iter.next());
+		assertEquals(b, iter.next());
+		assertFalse(iter.hasNext());
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testAddNull() {
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		registry.add(null);
+	}
+
+	@Test
+	public void testAddWeakRef() {
+		Object a = new Object();
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		registry.add(a);
+		assertEquals(1, registry.size());
+
+		// Now force garbage collection of a to ensure its weak ref in the
+		// registry is invalidated
+		a = null;
+		System.gc();
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testExpunge() throws InterruptedException {
+		final Object[] kept = new Object[5];
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		for(int index = 0; index < 10; ++index) {
+			if(index % 2 == 0) {
+				kept[index / 2] = new Object();
+				registry.add(kept[index / 2]);
+			} else {
+				registry.add(new Object());
+			}
+		}
+
+		// Collected objects are enqueued asynchronously after a collection
+		int collected = 0;
+		for(int attempt = 0; attempt < 50 && collected < 5; ++attempt) {
+			System.gc();
+			Thread.sleep(10);
+			collected += registry.expunge();
+		}
+
+		assertEquals(5, collected);
+		assertEquals(0, registry.expunge());
+		assertEquals(kept.length, registry.size());
+		for(Object object : kept)
+			assertTrue(registry.contains(object));
+	}
+
+	@Test
+	public void testRemove() {
+		final Object a = new Object();
+		final Object b = new Object();
+		final Object c = new Object();
+
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		registry.add(a);
+		registry.add(b);
+		registry.add(c);
+
+		assertTrue(registry.remove(b));
+		assertFalse(registry.remove(b));
+		assertEquals(2, registry.size());
+		assertTrue(registry.contains(a));
+		assertFalse(registry.contains(b));
+		assertTrue(registry.contains(c));
+
+		// Enough removals to compact the registry
+		assertTrue(registry.remove(a));
+		assertTrue(registry.remove(c));
+		assertTrue(registry.isEmpty());
+	}
+
+	@Test
+	public void testRemoveDuplicates() {
+		final Object a = new Object();
+		final Object b = new Object();
+
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		registry.add(a);
+		registry.add(b);
+		registry.add(a);
+		assertEquals(3, registry.size());
+
+		// Each removal removes a single entry, the earliest one first
+		assertTrue(registry.remove(a));
+		assertEquals(2, registry.size());
+		assertTrue(registry.contains(a));
+		final Iterator<Object> iter = registry.iterator();
+		assertEquals(b, iter.next());
+		assertEquals(a, iter.next());
+
+		assertTrue(registry.remove(a));
+		assertFalse(registry.remove(a));
+		assertFalse(registry.contains(a));
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testRemoveDuplicateOfCollected() throws InterruptedException {
+		String a = new String("duplicate");
+		final String b = new String("duplicate");
+		final Object[] kept = new Object[7];
+
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		registry.add(a);
+		registry.add(b);
+		for(int index = 0; index < 6; ++index) {
+			kept[index] = new Object();
+			registry.add(kept[index]);
+		}
+
+		a = null;
+		for(int attempt = 0; attempt < 50 && registry.size() == 8; ++attempt) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertEquals(7, registry.size());
+
+		// The registry is full, so this compacts it, possibly before the
+		// collected entry has been enqueued
+		kept[6] = new Object();
+		registry.add(kept[6]);
+
+		boolean removed = false;
+		for(int attempt = 0; attempt < 50 && !removed; ++attempt) {
+			removed = registry.remove(b);
+			Thread.sleep(10);
+		}
+		assertTrue(removed);
+		assertFalse(registry.contains(b));
+		assertEquals(kept.length, registry.size());
+	}
+
+	@Test
+	public void testModifyWhileIterating() {
+		final Object[] objects = new Object[100];
+		final WeakRegistry<Object> registry = new WeakRegistry<Object>();
+		for(int index = 0; index < objects.length; ++index) {
+			objects[index] = new Object();
+			registry.add(objects[index]);
+		}
+
+		// Iterators see a snapshot, so they are unaffected by modifications
+		final List<Object> added = new ArrayList<Object>();
+		int count = 0;
+		for(Object object : registry) {
+			added.add(new Object());
+			registry.add(added.get(count));
+			if(count % 2 == 0)
+				registry.remove(object);
+			++count;
+		}
+		assertEquals(objects.length, count);
+		assertEquals(objects.length / 2 + added.size(), registry.size());
+	}
+}